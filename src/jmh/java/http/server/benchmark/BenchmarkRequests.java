@@ -0,0 +1,42 @@
+package http.server.benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Raw bytes of typical /visits requests, as browsers and proxies send them
+ */
+final class BenchmarkRequests {
+    static final String VISIT_JSON = "{\"fio\":\"Ivanov II\",\"contact\":\"pvasil@mail.ru\","
+            + "\"startTime\":\"2025-05-27T10:00:00\",\"endTime\":\"2025-05-27T11:00:00\"}";
+
+    private static final String COMMON_HEADERS = "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:126.0) Gecko/20100101 Firefox/126.0\r\n"
+            + "Accept: application/json, text/plain, */*\r\n"
+            + "Accept-Language: ru-RU,ru;q=0.8,en-US;q=0.5,en;q=0.3\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n";
+
+    static final String GET_ALL = "GET /visits HTTP/1.1\r\n" + COMMON_HEADERS + "\r\n";
+
+    static final String GET_BY_ID = "GET /visits?id=125 HTTP/1.1\r\n" + COMMON_HEADERS + "\r\n";
+
+    static final String DELETE = "DELETE /visits?id=125 HTTP/1.1\r\n" + COMMON_HEADERS + "\r\n";
+
+    static final String POST = "POST /visits HTTP/1.1\r\n" + COMMON_HEADERS
+            + "Content-Type: application/json\r\n"
+            + "Content-Length: " + VISIT_JSON.length() + "\r\n\r\n"
+            + VISIT_JSON;
+
+    private BenchmarkRequests() {
+    }
+
+    static byte[] byName(String name) {
+        return (switch (name) {
+            case "GET_ALL" -> GET_ALL;
+            case "GET_BY_ID" -> GET_BY_ID;
+            case "DELETE" -> DELETE;
+            case "POST" -> POST;
+            default -> throw new IllegalArgumentException("Unknown request " + name);
+        }).getBytes(StandardCharsets.UTF_8);
+    }
+}
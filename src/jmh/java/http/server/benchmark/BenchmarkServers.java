@@ -0,0 +1,35 @@
+package http.server.benchmark;
+
+import http.server.HttpServer;
+import http.server.LoadGenerator;
+
+import java.io.IOException;
+
+/**
+ * Starts the server of a benchmark in the same JVM
+ */
+final class BenchmarkServers {
+
+    private BenchmarkServers() {
+    }
+
+    /**
+     * Runs the server in a daemon thread and waits until it accepts connections on the port
+     */
+    static void start(HttpServer httpServer, int port) throws InterruptedException {
+        Thread serverThread = new Thread(() -> {
+            try {
+                httpServer.run();
+            } catch (Exception e) {
+                throw new IllegalStateException("Server failed", e);
+            }
+        }, "benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try {
+            LoadGenerator.waitForPort("127.0.0.1", port, 10_000);
+        } catch (IOException e) {
+            throw new IllegalStateException("Server did not start on port " + port, e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package http.server.benchmark;
+
+import http.server.HttpServer;
+import http.server.LoadGenerator;
+import http.server.ServerConfig;
+import http.server.application.InMemoryRepository;
+import http.server.application.Visit;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Selector engine against the virtual-thread-per-connection engine with many open keep-alive connections:
+ * each operation sends one request on every connection at once and waits for all the answers.
+ * The requests counter gives the throughput in requests per second.
+ *
+ * <p>The repository may block every read for dbLatencyMicros, as a JDBC query would. The client and the server
+ * share the JVM, so 50000 connections need about 100000 descriptors ({@code ulimit -n 120000}).
+ * The client connections come from 127.0.0.2 and the next addresses, 20000 per address,
+ * so the ephemeral ports of one address are enough.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--enable-preview", "-Dlog4j.configurationFile=log4j2-benchmark.xml"})
+@Threads(1)
+public class ConnectionScaleBenchmark {
+    private static final byte[] GET_BY_ID = BenchmarkRequests.byName("GET_BY_ID");
+    private static final int CONNECTIONS_PER_ADDRESS = 20000;
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param("18081")
+        public int port;
+
+        @Param({"selector", "virtual-thread-per-connection"})
+        public String engine;
+
+        @Param({"1000", "10000", "50000"})
+        public int connections;
+
+        @Param({"0", "1000"})
+        public int dbLatencyMicros;
+
+        private HttpServer httpServer;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            Properties properties = new Properties();
+            properties.setProperty("server.host", "127.0.0.1");
+            properties.setProperty("server.port", String.valueOf(port));
+            properties.setProperty("server.engine", engine);
+            properties.setProperty("server.use_virtual_thread", "false");
+            properties.setProperty("server.max-http-request-size", "8192");
+            properties.setProperty("server.max-connections", String.valueOf(connections + 100));
+            properties.setProperty("server.keep-alive-timeout", "300000");
+            properties.setProperty("server.max-keep-alive-requests", "100000");
+            properties.setProperty("server.worker-queue-size", "100000");
+            // every request reads the repository
+            properties.setProperty("server.visit-cache-size", "0");
+            InMemoryRepository repository = dbLatencyMicros == 0
+                    ? new InMemoryRepository()
+                    : new BlockingRepository(TimeUnit.MICROSECONDS.toNanos(dbLatencyMicros));
+            InMemoryRepository visits = InMemoryRepository.withVisits(200);
+            for (Visit visit : visits.getAllVisits()) repository.insertVisit(visit);
+            httpServer = new HttpServer(new ServerConfig(properties), repository);
+            BenchmarkServers.start(httpServer, port);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            httpServer.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Clients {
+        public long requests;
+        private Selector selector;
+        private SocketChannel[] channels;
+        private ByteBuffer[] inputs;
+
+        @Setup(Level.Trial)
+        public void connect(Server server) throws IOException {
+            selector = Selector.open();
+            channels = new SocketChannel[server.connections];
+            inputs = new ByteBuffer[server.connections];
+            for (int i = 0; i < channels.length; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.bind(new InetSocketAddress("127.0.0." + (2 + i / CONNECTIONS_PER_ADDRESS), 0));
+                channel.connect(new InetSocketAddress("127.0.0.1", server.port));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, i);
+                channels[i] = channel;
+                inputs[i] = ByteBuffer.allocate(1024);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            for (SocketChannel channel : channels) {
+                if (channel != null) channel.close();
+            }
+            selector.close();
+        }
+
+        /**
+         * Sends the request on every connection, then reads until every connection has its complete answer
+         */
+        int exchangeAll() throws IOException {
+            for (SocketChannel channel : channels) {
+                ByteBuffer output = ByteBuffer.wrap(GET_BY_ID);
+                while (output.hasRemaining()) channel.write(output);
+            }
+            int waiting = channels.length;
+            while (waiting > 0) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    int index = (Integer) key.attachment();
+                    ByteBuffer input = inputs[index];
+                    if (channels[index].read(input) < 0) throw new IOException("Connection closed by server");
+                    int answerLength = LoadGenerator.answerLength(input.array(), input.position());
+                    if (answerLength < 0) continue;
+                    if (answerLength != input.position()) throw new IOException("Unexpected bytes after answer");
+                    input.clear();
+                    waiting--;
+                }
+            }
+            requests += channels.length;
+            return channels.length;
+        }
+    }
+
+    /**
+     * In-memory visits read with the latency of a blocking database query
+     */
+    static class BlockingRepository extends InMemoryRepository {
+        private final long latencyNanos;
+
+        BlockingRepository(long latencyNanos) {
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public Visit getVisitById(int id) {
+            LockSupport.parkNanos(latencyNanos);
+            return super.getVisitById(id);
+        }
+    }
+
+    @Benchmark
+    public int getVisitByIdOnEveryConnection(Clients clients) throws IOException {
+        return clients.exchangeAll();
+    }
+}
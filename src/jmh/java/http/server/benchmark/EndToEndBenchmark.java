@@ -0,0 +1,115 @@
+package http.server.benchmark;
+
+import http.server.HttpServer;
+import http.server.LoadGenerator;
+import http.server.ServerConfig;
+import http.server.application.InMemoryRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full request cycle over loopback: HttpServer with the in-memory repository and a keep-alive client
+ * per benchmark thread, each operation is one request and its complete answer
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Dlog4j.configurationFile=log4j2-benchmark.xml"})
+@Threads(4)
+public class EndToEndBenchmark {
+    private static final byte[] GET_BY_ID = BenchmarkRequests.byName("GET_BY_ID");
+    private static final byte[] GET_ALL = BenchmarkRequests.byName("GET_ALL");
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param("18080")
+        public int port;
+
+        @Param("2")
+        public int selectorThreads;
+
+        @Param("false")
+        public String workerUseVirtualThread;
+
+        private HttpServer httpServer;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            Properties properties = new Properties();
+            properties.setProperty("server.host", "127.0.0.1");
+            properties.setProperty("server.port", String.valueOf(port));
+            properties.setProperty("server.num_thread", String.valueOf(selectorThreads));
+            properties.setProperty("server.use_virtual_thread", "false");
+            properties.setProperty("server.worker-use-virtual-thread", workerUseVirtualThread);
+            properties.setProperty("server.max-http-request-size", "8192");
+            properties.setProperty("server.max-keep-alive-requests", "100000");
+            httpServer = new HttpServer(new ServerConfig(properties), InMemoryRepository.withVisits(200));
+            BenchmarkServers.start(httpServer, port);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            httpServer.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private final ByteBuffer input = ByteBuffer.allocate(1 << 20);
+        private SocketChannel channel;
+        private int port;
+
+        @Setup(Level.Trial)
+        public void connect(Server server) throws IOException {
+            port = server.port;
+            channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * Sends the request and reads the answer up to the end of its body (Content-Length or last chunk)
+         *
+         * @return status code of the answer
+         */
+        int exchange(byte[] request) throws IOException {
+            ByteBuffer output = ByteBuffer.wrap(request);
+            while (output.hasRemaining()) channel.write(output);
+
+            input.clear();
+            int answerLength = -1;
+            while (answerLength < 0) {
+                if (channel.read(input) < 0) throw new IOException("Connection closed by server");
+                answerLength = LoadGenerator.answerLength(input.array(), input.position());
+            }
+            int headersLength = LoadGenerator.endOfHeaders(input.array(), answerLength);
+            String head = new String(input.array(), 0, headersLength, StandardCharsets.US_ASCII);
+            if (head.contains("Connection: close")) {
+                channel.close();
+                channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+            }
+            return Integer.parseInt(head.substring(9, 12));
+        }
+    }
+
+    @Benchmark
+    public int getVisitById(Client client) throws IOException {
+        return client.exchange(GET_BY_ID);
+    }
+
+    @Benchmark
+    public int getAllVisits(Client client) throws IOException {
+        return client.exchange(GET_ALL);
+    }
+}
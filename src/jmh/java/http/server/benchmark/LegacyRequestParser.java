@@ -0,0 +1,294 @@
+package http.server.benchmark;
+
+import http.server.HttpMethod;
+import http.server.error.AppException;
+import http.server.error.ErrorFactory;
+import http.server.parser.ParsingResult;
+import http.server.parser.RequestDto;
+
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Copy of the Set&lt;Byte&gt; + StringBuilder request parser that was replaced by the table-driven
+ * {@link http.server.parser.RequestParser}, kept only as the baseline of {@link RequestParserBenchmark}.
+ *
+ * <p>The number of bytes read from the buffer is considered equal to InputByteBuffer.position(),
+ * since it is read only forward (such an implementation)
+ * InputByteBuffer processing does not use:
+ * - mark,
+ * - rewind,
+ * - position() with parameter less than current position plus 1,
+ * - more than once flip
+ */
+public class LegacyRequestParser {
+    private static final byte CR = (byte) '\r';
+    private static final byte LF = (byte) '\n';
+    private static final byte AMP = (byte) '&';
+    private static final byte EQUALITY = (byte) '=';
+    private static final byte SPACE = (byte) ' ';
+    private static final byte QUESTION = (byte) '?';
+    private static final byte COLON = (byte) ':';
+    private static final byte QUOTES = (byte) '"';
+    private static final Set<Byte> SET_EXC_FOR_PARAM = Set.of(QUESTION);
+    private static final Set<Byte> SET_FOR_URI = Set.of(QUESTION, SPACE, CR, LF);
+    private static final Set<Byte> END_LINE_WITH_SPACE = Set.of(SPACE, CR, LF);
+    private static final Set<Byte> END_LINE_WITH_ZERO = Set.of(CR, LF, (byte) 0);
+    private static final Set<Byte> END_LINE = Set.of(CR, LF);
+    private static final Set<Byte> END_PARAM_NAME = Set.of(EQUALITY, AMP, SPACE, CR, LF);
+    private static final Set<Byte> END_PARAM_VALUE = Set.of(AMP, SPACE, CR, LF);
+    private static final Charset utf8 = StandardCharsets.UTF_8;
+
+
+    private static final ThreadLocal<StringBuilder> threadLocalStringBuilder = ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+    public static byte parseParameters(RequestDto requestDto, ByteBuffer inputByteBuffer, StringBuilder stringBuilder) {
+        byte foundByte = 0;
+
+        while (inputByteBuffer.hasRemaining()) {
+            foundByte = parsePart(inputByteBuffer, END_PARAM_NAME, stringBuilder, SET_EXC_FOR_PARAM, "INCORRECT_REQUEST_PARAMETER", false);
+            if (foundByte != EQUALITY) {
+                throw ErrorFactory.badRequest("Parameter name not specified in request URI",
+                        "INCORRECT_REQUEST_PARAMETER");
+            }
+            if (stringBuilder.isEmpty()) {
+                throw ErrorFactory.badRequest("Parameter name cannot be empty in request URI",
+                        "INCORRECT_REQUEST_PARAMETER");
+            }
+            String name = URLDecoder.decode(stringBuilder.toString(), utf8);
+            foundByte = parsePart(inputByteBuffer, END_PARAM_VALUE, stringBuilder);
+            if (stringBuilder.isEmpty()) {
+                throw ErrorFactory.badRequest("Parameter value with parameter name '" +
+                        name + "' cannot be empty in request URI",
+                        "INCORRECT_REQUEST_PARAMETER");
+            }
+            requestDto.addParameter(name,  URLDecoder.decode(stringBuilder.toString(), utf8));
+            if (END_LINE_WITH_SPACE.contains(foundByte)) {
+                break;
+            }
+            if (foundByte == SPACE || foundByte == CR || foundByte == LF || foundByte == 0) {
+                break;
+            }
+        }
+        return foundByte;
+    }
+
+    public static ParsingResult parseToResult(ByteBuffer inputByteBuffer) {
+        try {
+            return ParsingResult.success(parse(inputByteBuffer));
+        } catch (AppException e) {
+            return ParsingResult.error(e);
+        }
+    }
+
+    public static RequestDto parse(ByteBuffer inputByteBuffer) throws AppException {
+        if (inputByteBuffer == null) {
+            throw ErrorFactory.internalServerError("inputByteBuffer is null");
+        }
+        inputByteBuffer.flip();
+        RequestDto requestDto = new RequestDto();
+        StringBuilder stringBuilder = threadLocalStringBuilder.get();
+        parseFirstLine(inputByteBuffer, stringBuilder, requestDto);
+        parseHeaders(requestDto, inputByteBuffer, stringBuilder);
+        requestDto.setContentLength(parseContentLength(requestDto));
+        requestDto.setBytesParsed(inputByteBuffer.position());
+        return requestDto;
+    }
+
+    /**
+     * Searches for the empty line that ends the header section among the bytes already read
+     * into the buffer (buffer in write mode, bytes from 0 to position)
+     *
+     * @return length of the header section including the empty line, or -1 if it has not been read yet
+     */
+    public static int findEndOfHeaders(ByteBuffer inputByteBuffer, int fromIndex) {
+        int end = inputByteBuffer.position();
+        for (int i = Math.max(fromIndex, 0); i + 3 < end; i++) {
+            if (inputByteBuffer.get(i) == CR && inputByteBuffer.get(i + 1) == LF
+                    && inputByteBuffer.get(i + 2) == CR && inputByteBuffer.get(i + 3) == LF) {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseContentLength(RequestDto requestDto) throws AppException {
+        String contentLength = requestDto.getValueFromHeaderIgnoreCase("Content-Length");
+        if (contentLength == null) return 0;
+        try {
+            int result = Integer.parseInt(contentLength);
+            if (result < 0) throw new NumberFormatException();
+            return result;
+        } catch (NumberFormatException e) {
+            throw ErrorFactory.badRequest("Invalid Content-Length: " + contentLength,
+                    "INCORRECT_REQUEST_HEADER");
+        }
+    }
+
+    private static void skip(ByteBuffer inputByteBuffer, int n) {
+        inputByteBuffer.position(inputByteBuffer.position() + n);
+    }
+
+    private static void skipUntil(ByteBuffer inputByteBuffer, byte stopByte) throws AppException {
+        while (inputByteBuffer.hasRemaining()) {
+            if (inputByteBuffer.get() == stopByte) return;
+        }
+        throw ErrorFactory.badRequest("Expected character with code '" + stopByte + "' not found",
+                "INCORRECT_REQUEST_PARAMETER");
+    }
+
+    private static void parseFirstLine(ByteBuffer inputByteBuffer, StringBuilder stringBuilder, RequestDto requestDto) throws AppException {
+
+        // http method
+        byte foundByte = parsePart(inputByteBuffer, END_LINE_WITH_SPACE, stringBuilder, true);
+        requestDto.setMethodRaw(stringBuilder.toString());
+
+        if (END_LINE_WITH_ZERO.contains(foundByte)) {
+            throw ErrorFactory.badRequest("HTTP request is invalid");
+        }
+
+        // uri
+        foundByte = parsePart(inputByteBuffer, SET_FOR_URI, stringBuilder, false);
+        if (END_LINE_WITH_ZERO.contains(foundByte)) {
+            throw ErrorFactory.badRequest("HTTP version not specified");
+        }
+        boolean uriCanBeEmpty = (foundByte == QUESTION);
+        if (!uriCanBeEmpty && stringBuilder.isEmpty()) {
+            throw ErrorFactory.badRequest("URI not specified");
+        }
+        requestDto.setUri(URLDecoder.decode(stringBuilder.toString(),utf8));
+        if (requestDto.getUri().length() >= 1024) {
+            throw ErrorFactory.badRequest("URI Too Long");
+        }
+
+        //This is here to have the URI read for an unknown HTTP method
+        try {
+            requestDto.setMethod(HttpMethod.valueOf(requestDto.getMethodRaw()));
+        } catch (IllegalArgumentException ex) {
+            throw ErrorFactory.badRequest(
+                    "Invalid HTTP method: " + requestDto.getMethodRaw(),
+                    requestDto.getMethodRaw(),
+                    requestDto.getUri(),
+                    ex
+            );
+        }
+
+        // parameters
+        if (foundByte == QUESTION) {
+            foundByte = parseParameters(requestDto, inputByteBuffer, stringBuilder);
+            if (END_LINE_WITH_ZERO.contains(foundByte)) {
+                throw ErrorFactory.badRequest("HTTP version not specified");
+            }
+        }
+        // http version
+        parsePart(inputByteBuffer, END_LINE, stringBuilder, false);
+        if (stringBuilder.isEmpty()) {
+            throw ErrorFactory.badRequest("HTTP request cannot be empty");
+        }
+        String httpVersion = stringBuilder.toString();
+        if (!httpVersion.equals("HTTP/1.1")) {
+            throw ErrorFactory.badRequest("Unsupported HTTP protocol version");
+        }
+        requestDto.setHttpVersion(httpVersion);
+
+    }
+
+    private static byte parsePart(ByteBuffer inputByteBuffer, Set<Byte> stopChars, StringBuilder stringBuilder) throws AppException {
+        return parsePart(inputByteBuffer, stopChars, stringBuilder, null, null, false);
+    }
+
+    private static byte parsePart(ByteBuffer inputByteBuffer,
+                                  Set<Byte> stopChars,
+                                  StringBuilder stringBuilder,
+                                  boolean onlyAscii
+    ) throws AppException {
+        return parsePart(inputByteBuffer, stopChars, stringBuilder, null, null, onlyAscii);
+    }
+
+
+    private static byte parsePart(ByteBuffer inputByteBuffer,
+                                  Set<Byte> stopChars,
+                                  StringBuilder stringBuilder,
+                                  Set<Byte> exceptionChar,
+                                  String desc,
+                                  boolean onlyAscii
+    ) throws AppException {
+        stringBuilder.setLength(0);
+        int countQuotes = 0;
+        while (inputByteBuffer.hasRemaining()) {
+            byte code_character = inputByteBuffer.get();
+
+            if (onlyAscii && (code_character < 32 || code_character > 126)) {
+                throw ErrorFactory.badRequest(
+                        "Non-ASCII character detected: 0x" + Integer.toHexString(code_character & 0xFF),
+                        "INVALID_CHARACTER"
+                );
+            }
+
+            if (exceptionChar != null ) {
+                if (code_character == QUOTES) countQuotes++;
+                if (exceptionChar.contains(code_character) && (countQuotes == 0 || countQuotes % 2 != 0)) throw ErrorFactory.badRequest(desc);
+            }
+
+            if (stopChars.contains(code_character)) {
+                switch (code_character) {
+                    case CR:
+                        if (inputByteBuffer.hasRemaining() && inputByteBuffer.get() != LF)
+                            throw ErrorFactory.badRequest("Carriage return character not at end of line");
+                        break;
+                    case LF:
+                        throw ErrorFactory.badRequest("Line break character without preceding carriage break character");
+                    default:
+                        return code_character;
+                }
+                return code_character;
+            }
+            stringBuilder.append((char) code_character);
+        }
+        return 0;
+    }
+
+
+    private static void parseHeaders(RequestDto requestDto, ByteBuffer inputByteBuffer, StringBuilder stringBuilder) throws AppException {
+        while (true) {
+            String headerName = parseHeaderName(inputByteBuffer, stringBuilder);
+            if (headerName.isEmpty()) break;
+
+            String headerValue = parseHeaderValue(inputByteBuffer, stringBuilder);
+            requestDto.addHeader(headerName, headerValue);
+        }
+    }
+
+    private static String parseHeaderName(ByteBuffer inputByteBuffer, StringBuilder stringBuilder) throws AppException {
+        stringBuilder.setLength(0);
+        while (inputByteBuffer.hasRemaining()) {
+            byte readByte = inputByteBuffer.get();
+            if (readByte == COLON) {
+                skip(inputByteBuffer, 1);
+                break;
+            }
+            if (readByte == CR) {
+                skipUntil(inputByteBuffer, LF);
+                return "";
+            }
+            stringBuilder.append((char) readByte);
+        }
+        return stringBuilder.toString().trim();
+    }
+
+    private static String parseHeaderValue(ByteBuffer inputByteBuffer, StringBuilder stringBuilder) throws AppException {
+        stringBuilder.setLength(0);
+        while (inputByteBuffer.hasRemaining()) {
+            byte readByte = inputByteBuffer.get();
+            if (readByte == CR) {
+                skipUntil(inputByteBuffer, LF);
+                break;
+            }
+            stringBuilder.append((char) readByte);
+        }
+        return stringBuilder.toString().trim();
+    }
+}
@@ -0,0 +1,66 @@
+package http.server.benchmark;
+
+import http.server.parser.RequestDto;
+import http.server.parser.RequestParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table-driven RequestParser against the previous Set&lt;Byte&gt; + StringBuilder parser
+ * on typical /visits requests. Both parsers are asked for what the router and processors use:
+ * routing key, "id" parameter and Content-Length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Dlog4j.configurationFile=log4j2-benchmark.xml"})
+@State(Scope.Thread)
+public class RequestParserBenchmark {
+
+    @Param({"GET_ALL", "GET_BY_ID", "POST", "DELETE"})
+    public String request;
+
+    @Param({"heap", "direct"})
+    public String bufferType;
+
+    private ByteBuffer buffer;
+    private int requestLength;
+
+    @Setup
+    public void setUp() {
+        byte[] bytes = BenchmarkRequests.byName(request);
+        requestLength = bytes.length;
+        buffer = bufferType.equals("direct") ? ByteBuffer.allocateDirect(8192) : ByteBuffer.allocate(8192);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Restores the state of the buffer after reading from the socket, the parser flips it
+     */
+    private ByteBuffer readBuffer() {
+        buffer.limit(buffer.capacity());
+        buffer.position(requestLength);
+        return buffer;
+    }
+
+    @Benchmark
+    public void tableDriven(Blackhole blackhole) {
+        RequestDto requestDto = RequestParser.parse(readBuffer());
+        blackhole.consume(requestDto.getRoutingKey());
+        blackhole.consume(requestDto.getParameter("id"));
+        blackhole.consume(requestDto.getContentLength());
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        RequestDto requestDto = LegacyRequestParser.parse(readBuffer());
+        blackhole.consume(requestDto.getRoutingKey());
+        blackhole.consume(requestDto.getParameter("id"));
+        String contentLength = requestDto.getValueFromHeader("Content-Length");
+        blackhole.consume(contentLength == null ? 0 : Integer.parseInt(contentLength));
+    }
+}
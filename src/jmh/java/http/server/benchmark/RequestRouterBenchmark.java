@@ -0,0 +1,85 @@
+package http.server.benchmark;
+
+import http.server.BufferPool;
+import http.server.Context;
+import http.server.HttpMethod;
+import http.server.RequestRouter;
+import http.server.Route;
+import http.server.application.InMemoryRepository;
+import http.server.parser.ParsingResult;
+import http.server.parser.RequestDto;
+import http.server.parser.RequestParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing of a parsed request: the routing key the previous router looked up, the compiled route table
+ * matched on the path bytes, and processor lookup with execution on the in-memory repository
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Dlog4j.configurationFile=log4j2-benchmark.xml"})
+@State(Scope.Thread)
+public class RequestRouterBenchmark {
+
+    @Param({"GET_BY_ID", "NOT_FOUND"})
+    public String route;
+
+    private RequestRouter requestRouter;
+    private String uri;
+    private String id;
+    private Context routingKeyContext;
+    private byte[] path;
+    private ByteBuffer request;
+    private int requestLength;
+    private final BufferPool bufferPool = new BufferPool(16, false);
+
+    @Setup
+    public void setUp() {
+        requestRouter = new RequestRouter(InMemoryRepository.withVisits(200));
+        uri = route.equals("NOT_FOUND") ? "/unknown" : "/visits";
+        id = "125";
+        routingKeyContext = context();
+        path = uri.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] bytes = ("GET " + uri + "?id=" + id + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        requestLength = bytes.length;
+        request = ByteBuffer.allocate(1024).put(bytes);
+    }
+
+    private Context context() {
+        RequestDto requestDto = new RequestDto(HttpMethod.GET, uri);
+        requestDto.addParameter("id", id);
+        Context context = new Context(bufferPool);
+        context.setParsingResult(ParsingResult.success(requestDto));
+        return context;
+    }
+
+    @Benchmark
+    public String routingKey() {
+        return routingKeyContext.getRoutingKey();
+    }
+
+    @Benchmark
+    public Route compiledMatch() {
+        return requestRouter.getRouteTable().match(path, 0, path.length);
+    }
+
+    /**
+     * Parses the request with the route table, as the server does, and executes its processor
+     */
+    @Benchmark
+    public Context routeAndExecute() throws Exception {
+        Context context = new Context(bufferPool);
+        request.limit(request.capacity()).position(requestLength);
+        context.setParsingResult(RequestParser.parseToResult(request, requestRouter.getRouteTable()));
+        requestRouter.route(context, null, null);
+        context.close();
+        return context;
+    }
+}
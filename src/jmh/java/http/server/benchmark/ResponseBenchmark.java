@@ -0,0 +1,51 @@
+package http.server.benchmark;
+
+import http.server.BufferPool;
+import http.server.Context;
+import http.server.RequestAnswer;
+import http.server.ResponseWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building of answers: status line and headers, error page, and encoding into the output buffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Dlog4j.configurationFile=log4j2-benchmark.xml"})
+@State(Scope.Thread)
+public class ResponseBenchmark {
+    private static final byte[] VISIT_JSON = BenchmarkRequests.VISIT_JSON.getBytes(StandardCharsets.UTF_8);
+    private final Context context = new Context(new BufferPool(16, false));
+    private final ByteBuffer headerBuffer = ByteBuffer.allocateDirect(256);
+
+    @Setup
+    public void setUp() {
+        context.setKeepAlive(true);
+    }
+
+    @Benchmark
+    public ByteBuffer header() {
+        return ResponseWriter.writeHeader(headerBuffer.clear(), 200, null, ResponseWriter.APPLICATION_JSON,
+                VISIT_JSON.length, true);
+    }
+
+    @Benchmark
+    public Context errorAnswer() throws Exception {
+        if (context.getRequestAnswer() != null) context.getRequestAnswer().close();
+        RequestAnswer.answerHtml(context, 404, "NOT_FOUND", "Visit not found with id: 125");
+        return context;
+    }
+
+    @Benchmark
+    public Context jsonAnswer() throws Exception {
+        if (context.getRequestAnswer() != null) context.getRequestAnswer().close();
+        RequestAnswer.answer(context, 200, ResponseWriter.APPLICATION_JSON, VISIT_JSON);
+        return context;
+    }
+}
@@ -0,0 +1,67 @@
+package http.server.benchmark;
+
+import http.server.application.InMemoryRepository;
+import http.server.application.Repository;
+import http.server.application.Visit;
+import http.server.application.VisitJson;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of visit lists and decoding of the POST/PUT body, with Gson and with the visit codec
+ * the processors use. The setup checks that both produce the same JSON and the same visit, on the benchmark
+ * data and on the edge cases of {@link VisitJsonCheck}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Dlog4j.configurationFile=log4j2-benchmark.xml"})
+@State(Scope.Thread)
+public class VisitJsonBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int visitCount;
+
+    private List<Visit> visits;
+    private final byte[] visitJson = BenchmarkRequests.VISIT_JSON.getBytes(StandardCharsets.UTF_8);
+
+    @Setup
+    public void setUp() {
+        visits = InMemoryRepository.withVisits(visitCount).getAllVisits();
+        if (!Arrays.equals(encodeList().getBytes(StandardCharsets.UTF_8), encodeListCodec())) {
+            throw new IllegalStateException("Visit codec and Gson encode the list differently");
+        }
+        Visit visit = decodeCodec();
+        if (!Repository.getGson().toJson(visit).equals(Repository.getGson().toJson(decode()))
+                || !Arrays.equals(VisitJson.toJson(visit), Repository.getGson().toJson(visit)
+                .getBytes(StandardCharsets.UTF_8))) {
+            throw new IllegalStateException("Visit codec does not read the visit back as Gson");
+        }
+        VisitJsonCheck.check();
+    }
+
+    @Benchmark
+    public String encodeList() {
+        return Repository.getGson().toJson(visits);
+    }
+
+    @Benchmark
+    public byte[] encodeListCodec() {
+        return VisitJson.toJson(visits);
+    }
+
+    @Benchmark
+    public Visit decode() {
+        return Repository.getGson().fromJson(BenchmarkRequests.VISIT_JSON, Visit.class);
+    }
+
+    @Benchmark
+    public Visit decodeCodec() {
+        return VisitJson.fromJson(visitJson, 0, visitJson.length);
+    }
+}
@@ -0,0 +1,161 @@
+package http.server.benchmark;
+
+import http.server.application.Repository;
+import http.server.application.Visit;
+import http.server.application.VisitJson;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that {@link VisitJson} writes and reads visits as {@link Repository#getGson()} does, on the inputs
+ * where the codec has its own code paths: escaped, control and non-ASCII characters, unpaired surrogates,
+ * seconds and fractions of dates, years outside 1000..9999, null fields, and the documents the reader
+ * leaves to Gson. {@link VisitJsonBenchmark} runs it in its setup, it also runs without the JMH runner
+ * and exits with 1 on the first difference:
+ * java --enable-preview -cp target/benchmarks.jar http.server.benchmark.VisitJsonCheck
+ */
+public final class VisitJsonCheck {
+    private static final String[] STRINGS = {
+            "", "Ivanov Ivan", "<script>a&b='c'</script>", "quote \" backslash \\ slash /",
+            controlCharacters(), "\u007f\u2028\u2029", "Иванов Иван", "\u0080\u07ff\u0800 € \uffff",
+            "\uD83D\uDE00 \uD834\uDD1E", "high \uD83D", "\uDE00 low", "\uDE00\uD83D reversed", "end \uD83D"
+    };
+    private static final LocalDateTime[] DATES = {
+            LocalDateTime.of(2026, 1, 2, 3, 4),
+            LocalDateTime.of(2026, 1, 2, 3, 4, 5),
+            LocalDateTime.of(2026, 1, 2, 3, 4, 0, 100_000_000),
+            LocalDateTime.of(2026, 1, 2, 3, 4, 0, 120_000),
+            LocalDateTime.of(2026, 1, 2, 3, 4, 0, 1),
+            LocalDateTime.of(2026, 12, 31, 23, 59, 59, 999_999_999),
+            LocalDateTime.of(1000, 1, 1, 0, 0),
+            LocalDateTime.of(9999, 12, 31, 23, 59, 59),
+            LocalDateTime.of(999, 6, 15, 12, 30),
+            LocalDateTime.of(1, 1, 1, 0, 0, 1),
+            LocalDateTime.of(0, 1, 1, 0, 0),
+            LocalDateTime.of(-1, 1, 1, 0, 0, 0, 5_000),
+            LocalDateTime.of(10000, 1, 1, 0, 0),
+            LocalDateTime.MIN,
+            LocalDateTime.MAX
+    };
+    private static final int[] IDS = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    /**
+     * Documents outside the plain form read by the codec itself, and plain ones at its edges
+     */
+    private static final String[] DOCUMENTS = {
+            "", "   ", "null", "{}", " { } ", "[]", "{", "{\"id\":1", "{\"id\":1,}", "{\"id\":1} x", "{'id':1}",
+            "{id:1}", "{\"id\":1,\"unknown\":2}", "{\"id\":1,\"id\":2}", "{\"id\":null}", "{\"fio\":null}",
+            "{\"id\":1.0}", "{\"id\":1e2}", "{\"id\":\"7\"}", "{\"id\":-0}", "{\"id\":007}", "{\"id\":2147483647}",
+            "{\"id\":2147483648}", "{\"id\":-2147483648}", "{\"id\":-2147483649}", "{\"id\":12345678901}",
+            "{\"fio\":\"\\u0041\\/\\b\\f\\n\\r\\t\\\"\\\\\"}", "{\"fio\":\"\\uD83D\\uDE00\"}", "{\"fio\":\"\\uD83D\"}",
+            "{\"fio\":\"a\\u00\"}", "{\"fio\":\"a\\x\"}", "{\"fio\":\"Иван\\n\"}", "{\"fio\":\"Иван\"}",
+            "{\"fio\":\"a\tb\"}", "{\"fio\":\"a\", \"contact\" : \"b\" }", "{\"fio\":1}", "{\"fio\":true}",
+            "{\"startTime\":\"2026-01-02T03:04\"}", "{\"startTime\":\"2026-01-02T03:04:05\"}",
+            "{\"startTime\":\"2026-01-02T03:04:05.5\"}", "{\"startTime\":\"2026-13-01T00:00\"}",
+            "{\"startTime\":\"2026-02-30T00:00\"}", "{\"startTime\":\"2026-01-02T24:00\"}",
+            "{\"startTime\":\"2026-01-02 03:04\"}", "{\"startTime\":\"+10000-01-01T00:00\"}",
+            "{\"startTime\":\"0999-01-01T00:00\"}", "{\"startTime\":\"2026-1-02T03:04\"}", "{\"startTime\":123}",
+            "{\"startTime\":null}", "{\"endTime\":\"2026-01-02T03:04:60\"}"
+    };
+
+    private VisitJsonCheck() {
+    }
+
+    public static void main(String[] args) {
+        try {
+            check();
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Visit codec matches Gson");
+    }
+
+    /**
+     * @throws IllegalStateException with the input on the first difference from Gson
+     */
+    public static void check() {
+        List<Visit> visits = visits();
+        for (Visit visit : visits) {
+            checkWrite(visit);
+            checkRead(Repository.getGson().toJson(visit).getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] list = Repository.getGson().toJson(visits).getBytes(StandardCharsets.UTF_8);
+        if (!Arrays.equals(VisitJson.toJson(visits), list)) {
+            throw new IllegalStateException("Visit codec and Gson write the list differently");
+        }
+        for (String document : DOCUMENTS) {
+            checkRead(document.getBytes(StandardCharsets.UTF_8));
+        }
+        checkRead(new byte[]{'{', '"', 'f', 'i', 'o', '"', ':', '"', (byte) 0xC3, '(', '"', '}'});
+        checkRead(new byte[]{'{', '"', 'f', 'i', 'o', '"', ':', '"', 'a', (byte) 0xE2, (byte) 0x82, '"', '}'});
+    }
+
+    private static List<Visit> visits() {
+        List<Visit> visits = new ArrayList<>();
+        visits.add(new Visit());
+        for (int id : IDS) {
+            visits.add(new Visit(id, "fio", "contact", DATES[0], DATES[1]));
+        }
+        for (String value : STRINGS) {
+            visits.add(new Visit(1, value, value, null, null));
+        }
+        for (LocalDateTime date : DATES) {
+            visits.add(new Visit(1, null, null, date, date));
+        }
+        visits.add(new Visit(1, null, "contact", DATES[0], DATES[1]));
+        visits.add(new Visit(1, "fio", null, DATES[0], DATES[1]));
+        visits.add(new Visit(1, "fio", "contact", null, DATES[1]));
+        visits.add(new Visit(1, "fio", "contact", DATES[0], null));
+        return visits;
+    }
+
+    private static void checkWrite(Visit visit) {
+        byte[] expected = Repository.getGson().toJson(visit).getBytes(StandardCharsets.UTF_8);
+        byte[] actual = VisitJson.toJson(visit);
+        if (!Arrays.equals(actual, expected)) {
+            throw new IllegalStateException("Visit codec writes " + new String(actual, StandardCharsets.UTF_8)
+                    + ", Gson writes " + new String(expected, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void checkRead(byte[] document) {
+        String expected = readWithGson(document);
+        String actual = readWithCodec(document);
+        if (!actual.equals(expected)) {
+            throw new IllegalStateException("Visit codec reads " + new String(document, StandardCharsets.UTF_8)
+                    + " as " + actual + ", Gson as " + expected);
+        }
+    }
+
+    private static String readWithGson(byte[] document) {
+        try {
+            return describe(Repository.getGson().fromJson(new String(document, StandardCharsets.UTF_8), Visit.class));
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    private static String readWithCodec(byte[] document) {
+        try {
+            return describe(VisitJson.fromJson(document, 0, document.length));
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    private static String describe(Visit visit) {
+        return visit == null ? "null" : Repository.getGson().toJson(visit);
+    }
+
+    private static String controlCharacters() {
+        StringBuilder characters = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) {
+            characters.append(c);
+        }
+        return characters.toString();
+    }
+}
@@ -7,15 +7,21 @@ import org.apache.logging.log4j.Logger;
 public class Application {
     private static final int EXIT_WITH_ERROR_READ_CONFIG = 1;
     private static final int EXIT_WITH_ERROR_RUN_SERVER = 2;
-    private static final Logger logger = LogManager.getLogger(Application.class);
+    private static final String LOG4J_CONFIGURATION_FILE = "log4j2.configurationFile";
+    /**
+     * Created after the logging profile is applied, log4j2 reads its configuration when the first logger is created
+     */
+    private static Logger logger;
 
     public static void main(String[] args) {
         ServerConfig serverConfig = null;
         try {
             serverConfig = new ServerConfig();
+            configureLogging(serverConfig);
+            logger = LogManager.getLogger(Application.class);
             logger.debug("server configuration loaded successfully");
         } catch (Exception e) {
-            logger.fatal("Failed to load server configuration", e);
+            LogManager.getLogger(Application.class).fatal("Failed to load server configuration", e);
             System.exit(EXIT_WITH_ERROR_READ_CONFIG);
         }
 
@@ -27,4 +33,10 @@ public class Application {
             System.exit(EXIT_WITH_ERROR_RUN_SERVER);
         }
     }
+
+    private static void configureLogging(ServerConfig serverConfig) {
+        if (System.getProperty(LOG4J_CONFIGURATION_FILE) == null) {
+            System.setProperty(LOG4J_CONFIGURATION_FILE, serverConfig.getLoggingConfigurationFile());
+        }
+    }
 }
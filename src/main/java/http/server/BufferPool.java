@@ -0,0 +1,178 @@
+package http.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct buffers for socket reads and answers.
+ *
+ * <p>Heap buffers are copied by the JDK into a temporary direct buffer on every read and write of the channel,
+ * pooled direct buffers avoid this copy and the allocation per request.
+ * <ul>
+ *   <li>Buffers are grouped in size classes (powers of two from {@value #MIN_CLASS_SIZE}
+ *   to {@value #MAX_CLASS_SIZE} bytes), the capacity of a buffer is rounded up to its class</li>
+ *   <li>When a class has no free buffer, a slab of {@value #SLAB_SIZE} bytes is allocated
+ *   and sliced into buffers of the class</li>
+ *   <li>Buffers larger than the largest class are allocated on the heap and are not pooled</li>
+ *   <li>Free lists are shared: buffers of answers are taken in worker threads and returned
+ *   in selector threads, so thread-local lists would only move buffers from one thread to another</li>
+ * </ul>
+ *
+ * <p>In debug mode every acquired buffer is tracked with the stack trace of its acquisition:
+ * double release is reported immediately, buffers not returned by the time of {@link #reportLeaks()}
+ * are reported as leaks.
+ */
+public class BufferPool {
+    private static final Logger logger = LogManager.getLogger(BufferPool.class);
+    private static final int MIN_CLASS_SIZE = 1024;
+    private static final int MAX_CLASS_SIZE = 64 * 1024;
+    private static final int SLAB_SIZE = 256 * 1024;
+    private final List<ArrayBlockingQueue<ByteBuffer>> freeBuffers = new ArrayList<>();
+    private final boolean debug;
+    private final Map<ByteBuffer, Throwable> acquired;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong unpooled = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * @param maxFreeBuffers max number of free buffers kept per size class, extra returned buffers are dropped
+     * @param debug          track acquired buffers to find leaks and double releases
+     */
+    public BufferPool(int maxFreeBuffers, boolean debug) {
+        for (int size = MIN_CLASS_SIZE; size <= MAX_CLASS_SIZE; size <<= 1) {
+            freeBuffers.add(new ArrayBlockingQueue<>(maxFreeBuffers));
+        }
+        this.debug = debug;
+        this.acquired = debug ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    /**
+     * @return cleared buffer with limit = size, direct if size fits in the largest class
+     */
+    public ByteBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            unpooled.incrementAndGet();
+            return ByteBuffer.allocate(size);
+        }
+
+        ByteBuffer buffer = freeBuffers.get(sizeClass).poll();
+        if (buffer != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            buffer = allocateSlab(sizeClass);
+        }
+        outstanding.incrementAndGet();
+        if (debug) acquired.put(buffer, new Throwable("Buffer of " + buffer.capacity() + " bytes acquired here"));
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to its size class, heap buffers and null are ignored.
+     * The caller must not use the buffer after release.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) return;
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0 || buffer.capacity() != classSize(sizeClass)) return;
+
+        if (debug && acquired.remove(buffer) == null) {
+            logger.warn("Buffer released twice or not acquired from the pool", new Throwable("Released here"));
+            return;
+        }
+        outstanding.decrementAndGet();
+        freeBuffers.get(sizeClass).offer(buffer.clear());
+    }
+
+    private ByteBuffer allocateSlab(int sizeClass) {
+        int bufferSize = classSize(sizeClass);
+        ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, bufferSize));
+        allocatedBytes.addAndGet(slab.capacity());
+        ArrayBlockingQueue<ByteBuffer> queue = freeBuffers.get(sizeClass);
+        for (int offset = bufferSize; offset + bufferSize <= slab.capacity(); offset += bufferSize) {
+            if (!queue.offer(slab.slice(offset, bufferSize))) break;
+        }
+        return slab.slice(0, bufferSize);
+    }
+
+    private static int sizeClass(int size) {
+        if (size > MAX_CLASS_SIZE) return -1;
+        int rounded = Math.max(MIN_CLASS_SIZE, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+        return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    }
+
+    private static int classSize(int sizeClass) {
+        return MIN_CLASS_SIZE << sizeClass;
+    }
+
+    /**
+     * Logs the buffers acquired and not released, only in debug mode
+     */
+    public void reportLeaks() {
+        if (!debug) return;
+        synchronized (acquired) {
+            for (Throwable acquisition : acquired.values()) {
+                logger.warn("Buffer was not returned to the pool", acquisition);
+            }
+        }
+    }
+
+    /**
+     * @return acquisitions served by a free buffer
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return acquisitions that allocated a new slab
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return acquisitions larger than the largest class, allocated on the heap
+     */
+    public long getUnpooled() {
+        return unpooled.get();
+    }
+
+    /**
+     * @return pooled buffers acquired and not released yet
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return direct memory allocated by the pool in slabs
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", unpooled=" + unpooled +
+                ", outstanding=" + outstanding +
+                ", allocatedBytes=" + allocatedBytes +
+                '}';
+    }
+}
@@ -0,0 +1,358 @@
+package http.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answer with chunked transfer encoding, produced by a worker thread while the selector thread writes it.
+ *
+ * <p>The worker writes the body through {@link #getWriter()} or {@link #getOutputStream()}, the text is encoded
+ * or the bytes are copied straight into pooled
+ * buffers of {@value #CHUNK_BUFFER_SIZE} bytes, every full buffer becomes one chunk. At most
+ * {@value #MAX_QUEUED_CHUNKS} chunks wait for the socket, when the queue is full the worker waits, so the memory
+ * of the answer does not depend on its length. A client that does not read the answer
+ * for {@value #STALL_TIMEOUT_MILLIS} ms stops the worker with an IOException.
+ *
+ * <p>When the context has an output channel (virtual thread per connection) there is no selector thread:
+ * every chunk is written to the channel by the thread producing it, without the queue.
+ *
+ * <p>The status line and headers go first, so errors after the first chunk cannot change the status:
+ * the answer is aborted and the connection is closed without the last chunk, the client sees an incomplete answer.
+ */
+public class ChunkedAnswer extends RequestAnswer {
+    private static final int CHUNK_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_QUEUED_CHUNKS = 4;
+    /**
+     * Short, the worker streaming from the database holds a pooled connection and its transaction while it waits.
+     * Also the limit of a blocked write of the virtual-thread engine.
+     */
+    static final long STALL_TIMEOUT_MILLIS = 5_000;
+    /**
+     * Chunk size in 4 hex digits and CRLF before the data, CRLF after the data
+     */
+    private static final int CHUNK_HEADER_SIZE = 6;
+    private static final int CHUNK_TRAILER_SIZE = 2;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final BufferPool bufferPool;
+    private final ArrayBlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(MAX_QUEUED_CHUNKS);
+    private final ChunkWriter writer = new ChunkWriter();
+    private final OutputStream outputStream = new ChunkOutputStream();
+    private final WritableByteChannel outputChannel;
+    /**
+     * Key of the connection, invalid once the connection is closed
+     */
+    private final SelectionKey selectionKey;
+    /**
+     * Status line and headers, enqueued before the first chunk
+     */
+    private ByteBuffer headers;
+    private volatile boolean finished;
+    private volatile boolean aborted;
+    private volatile boolean closed;
+    private boolean started;
+    private ByteBuffer current;
+    /**
+     * Key that stopped watching the channel for writing because all chunks were written, the key of the connection
+     * from the start: until the first chunk the selector does not write the answer
+     */
+    private SelectionKey waitingKey;
+
+    public ChunkedAnswer(Context context, int statusCode, String contentType) {
+        this.bufferPool = context.getBufferPool();
+        this.outputChannel = context.getOutputChannel();
+        this.selectionKey = context.getSelectionKey();
+        this.waitingKey = selectionKey;
+        this.headers = bufferPool.acquire(ResponseWriter.maxHeaderSize(statusCode, null, contentType));
+        ResponseWriter.writeHeader(headers, statusCode, null, contentType, ResponseWriter.CHUNKED, context.isKeepAlive())
+                .flip();
+    }
+
+    /**
+     * @return writer of the body, the headers are sent together with the first chunk
+     */
+    public Writer getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return stream of the body bytes, they go into the same chunks as the text of the writer
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @return true if the headers have been passed to the selector thread, after that the status cannot be changed
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Sends the rest of the body and the last chunk
+     */
+    public void finish() throws IOException {
+        writer.flush();
+        enqueue(bufferPool.acquire(LAST_CHUNK.length).put(LAST_CHUNK).flip());
+        finished = true;
+    }
+
+    /**
+     * Stops the answer after a failure of the worker. If the headers have been sent, the selector thread
+     * closes the connection, otherwise the answer has not reached the selector and can be replaced by an error.
+     */
+    public void abort() {
+        writer.release();
+        releaseHeaders();
+        if (!started) return;
+        aborted = true;
+        notifyWaitingKey();
+    }
+
+    private void start() throws IOException {
+        if (started) return;
+        started = true;
+        ByteBuffer buffer = headers;
+        headers = null;
+        enqueue(buffer);
+    }
+
+    private void enqueue(ByteBuffer buffer) throws IOException {
+        if (outputChannel != null) {
+            try {
+                while (buffer.hasRemaining()) outputChannel.write(buffer);
+            } finally {
+                bufferPool.release(buffer);
+            }
+            return;
+        }
+        long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MILLIS;
+        try {
+            while (!chunks.offer(buffer, 100, TimeUnit.MILLISECONDS)) {
+                if (closed || aborted || selectionKey != null && !selectionKey.isValid()
+                        || System.currentTimeMillis() > deadline) {
+                    bufferPool.release(buffer);
+                    throw new IOException("Client does not read the answer");
+                }
+            }
+        } catch (InterruptedException e) {
+            bufferPool.release(buffer);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending the answer", e);
+        }
+        if (closed) releaseChunks();
+        notifyWaitingKey();
+    }
+
+    private synchronized void notifyWaitingKey() {
+        if (waitingKey == null) return;
+        if (waitingKey.isValid()) {
+            waitingKey.interestOpsOr(SelectionKey.OP_WRITE);
+            waitingKey.selector().wakeup();
+        }
+        waitingKey = null;
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        if (current != null && !current.hasRemaining()) {
+            bufferPool.release(current);
+            current = null;
+        }
+        if (current == null) current = chunks.poll();
+        return current;
+    }
+
+    @Override
+    public boolean isWritten() {
+        return finished && chunks.isEmpty() && (current == null || !current.hasRemaining());
+    }
+
+    @Override
+    public boolean hasAllData() {
+        return false;
+    }
+
+    @Override
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    @Override
+    public synchronized boolean awaitData(SelectionKey key) {
+        if (!chunks.isEmpty() || aborted) return false;
+        key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        if (!finished) waitingKey = key;
+        return true;
+    }
+
+    private void releaseHeaders() {
+        if (headers != null) {
+            bufferPool.release(headers);
+            headers = null;
+        }
+    }
+
+    private void releaseChunks() {
+        ByteBuffer buffer;
+        while ((buffer = chunks.poll()) != null) {
+            bufferPool.release(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        synchronized (this) {
+            waitingKey = null;
+        }
+        if (current != null) {
+            bufferPool.release(current);
+            current = null;
+        }
+        releaseChunks();
+    }
+
+    /**
+     * UTF-8 encoder into chunk buffers, the data of a chunk is written after the place reserved for its size
+     */
+    private final class ChunkWriter extends Writer {
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer pendingSurrogate = CharBuffer.allocate(2);
+        private ByteBuffer chunk;
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            write(CharBuffer.wrap(chars, offset, length));
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            write(CharBuffer.wrap(text, offset, offset + length));
+        }
+
+        private void write(CharBuffer input) throws IOException {
+            if (pendingSurrogate.position() > 0 && input.hasRemaining()) {
+                pendingSurrogate.put(input.get()).flip();
+                encode(pendingSurrogate);
+                pendingSurrogate.clear();
+            }
+            encode(input);
+            if (input.hasRemaining()) pendingSurrogate.put(input.get());
+        }
+
+        /**
+         * Encodes the input into chunks, leaves in the input only a high surrogate waiting for its pair
+         */
+        private void encode(CharBuffer input) throws IOException {
+            while (true) {
+                acquireChunk();
+                CoderResult result = encoder.encode(input, chunk, false);
+                if (result.isOverflow()) {
+                    sendChunk();
+                } else if (result.isError()) {
+                    result.throwException();
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Copies the bytes into chunks, after the text encoded so far
+         */
+        private void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                acquireChunk();
+                int count = Math.min(length, chunk.remaining());
+                chunk.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+                if (!chunk.hasRemaining()) sendChunk();
+            }
+        }
+
+        private void acquireChunk() {
+            if (chunk == null) {
+                chunk = bufferPool.acquire(CHUNK_BUFFER_SIZE);
+                chunk.position(CHUNK_HEADER_SIZE).limit(CHUNK_BUFFER_SIZE - CHUNK_TRAILER_SIZE);
+            }
+        }
+
+        private void sendChunk() throws IOException {
+            start();
+            ByteBuffer buffer = chunk;
+            chunk = null;
+            int dataLength = buffer.position() - CHUNK_HEADER_SIZE;
+            if (dataLength == 0) {
+                bufferPool.release(buffer);
+                return;
+            }
+            buffer.limit(buffer.capacity());
+            buffer.put(0, HEX[(dataLength >> 12) & 0xF])
+                    .put(1, HEX[(dataLength >> 8) & 0xF])
+                    .put(2, HEX[(dataLength >> 4) & 0xF])
+                    .put(3, HEX[dataLength & 0xF])
+                    .put(4, (byte) '\r')
+                    .put(5, (byte) '\n')
+                    .put((byte) '\r')
+                    .put((byte) '\n')
+                    .flip();
+            enqueue(buffer);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            start();
+            if (chunk != null) sendChunk();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        private void release() {
+            if (chunk != null) {
+                bufferPool.release(chunk);
+                chunk = null;
+            }
+        }
+    }
+
+    /**
+     * Byte stream over the chunk writer, for bodies serialized straight into UTF-8
+     */
+    private final class ChunkOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            writer.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package http.server;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+
+/**
+ * State of a client connection, the attachment of its selection key. Used only by the selector thread,
+ * except the release of requests completed after the connection has been closed.
+ *
+ * <p>The input buffer is in write mode, bytes from 0 to position are received. Requests are parsed from
+ * the start of the buffer, after a request has been dispatched its bytes are dropped by {@link #compactInput()},
+ * so several pipelined requests received by one read are served one after another.
+ *
+ * <p>Dispatched requests wait in the exchange queue in the order they were received, answers are written
+ * only for the first of them, so the client gets the answers in the order of its requests
+ * even if the requests are processed in parallel.
+ */
+public class Connection implements AutoCloseable {
+    private final BufferPool bufferPool;
+    private final ArrayDeque<Context> exchanges = new ArrayDeque<>();
+    /**
+     * Buffers of the answers gathered for one write, 2 buffers for each exchange
+     */
+    private final ByteBuffer[] outBuffers;
+    private SelectionKey selectionKey;
+    private ByteBuffer inputBuffer;
+    private Context current;
+    private Context blocked;
+    private Context exclusive;
+    private int consumedLength = 0;
+    private int scanPosition = 0;
+    private int inFlight = 0;
+    private int writeAttempts = 0;
+    private int requestCount = 0;
+    private boolean lastRequestReceived;
+    private boolean isClosed;
+    private long lastActivity;
+
+    /**
+     * @param bufferPool   pool of the input buffer and of the buffers of the requests
+     * @param maxPipelined max number of dispatched requests waiting for their answers to be written
+     */
+    public Connection(BufferPool bufferPool, int maxPipelined) {
+        this.bufferPool = bufferPool;
+        this.outBuffers = new ByteBuffer[2 * maxPipelined];
+        lastActivity = System.currentTimeMillis();
+    }
+
+    public SelectionKey getSelectionKey() {
+        return selectionKey;
+    }
+
+    public void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    public ByteBuffer getInputBuffer() {
+        return inputBuffer;
+    }
+
+    public void setInputBuffer(ByteBuffer inputBuffer) {
+        this.inputBuffer = inputBuffer;
+    }
+
+    /**
+     * Request whose headers have been parsed but whose body is still being received
+     */
+    public Context getCurrent() {
+        return current;
+    }
+
+    public void setCurrent(Context current) {
+        this.current = current;
+    }
+
+    /**
+     * Request that must be processed alone and waits until the requests dispatched before it are processed
+     */
+    public Context getBlocked() {
+        return blocked;
+    }
+
+    public void setBlocked(Context blocked) {
+        this.blocked = blocked;
+    }
+
+    /**
+     * Request being processed alone, no other request of the connection is parsed until it is processed
+     */
+    public Context getExclusive() {
+        return exclusive;
+    }
+
+    public void setExclusive(Context exclusive) {
+        this.exclusive = exclusive;
+    }
+
+    /**
+     * Marks the bytes at the start of the input buffer as belonging to dispatched requests
+     */
+    public void setConsumedLength(int consumedLength) {
+        this.consumedLength = consumedLength;
+    }
+
+    /**
+     * Drops the bytes of dispatched requests, moving the bytes of the next request to the start of the input buffer
+     */
+    public void compactInput() {
+        if (consumedLength == 0 || inputBuffer == null) return;
+        inputBuffer.flip().position(consumedLength);
+        inputBuffer.compact();
+        consumedLength = 0;
+        scanPosition = 0;
+    }
+
+    /**
+     * Position of the input buffer from which the search for the end of headers continues after the next read
+     */
+    public int getScanPosition() {
+        return scanPosition;
+    }
+
+    public void setScanPosition(int scanPosition) {
+        this.scanPosition = scanPosition;
+    }
+
+    public void addExchange(Context context) {
+        exchanges.addLast(context);
+    }
+
+    /**
+     * @return the earliest request whose answer has not been written yet, null if there is none
+     */
+    public Context peekExchange() {
+        return exchanges.peekFirst();
+    }
+
+    public Context pollExchange() {
+        return exchanges.pollFirst();
+    }
+
+    public Iterable<Context> getExchanges() {
+        return exchanges;
+    }
+
+    public ByteBuffer[] getOutBuffers() {
+        return outBuffers;
+    }
+
+    /**
+     * Number of requests passed to worker threads and not processed yet
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public void incInFlight() {
+        inFlight++;
+    }
+
+    public void decInFlight() {
+        inFlight--;
+    }
+
+    /**
+     * @return true if another request can be parsed and dispatched now
+     */
+    public boolean acceptsRequests() {
+        return !lastRequestReceived && blocked == null && exclusive == null
+                && exchanges.size() < outBuffers.length / 2;
+    }
+
+    /**
+     * True after a request that closes the connection or after the client has shut down its output
+     */
+    public boolean isLastRequestReceived() {
+        return lastRequestReceived;
+    }
+
+    public void setLastRequestReceived(boolean lastRequestReceived) {
+        this.lastRequestReceived = lastRequestReceived;
+    }
+
+    public int incAndGetRequestCount() {
+        return ++requestCount;
+    }
+
+    public int incAndGetWriteAttempts() {
+        return ++writeAttempts;
+    }
+
+    public void resetWriteAttempts() {
+        writeAttempts = 0;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true if no request is being processed or answered
+     */
+    public boolean isIdle() {
+        return exchanges.isEmpty() && blocked == null;
+    }
+
+    /**
+     * @return true if a part of the next request has been received
+     */
+    public boolean hasPartialRequest() {
+        return current != null || inputBuffer != null && inputBuffer.position() > consumedLength;
+    }
+
+    public synchronized boolean isClosed() {
+        return isClosed;
+    }
+
+    /**
+     * Releases the requests of the connection and returns the input buffer to the pool.
+     * Requests still processed by workers keep their buffers: their bodies are slices of the input buffer
+     * and the workers write into their answers, so they are released by {@link #releaseAfterClose(Context)}
+     * when they complete, the input buffer goes back to the pool with the last of them.
+     */
+    @Override
+    public synchronized void close() throws Exception {
+        if (isClosed) return;
+        isClosed = true;
+        Exception failure = null;
+        for (Context context : exchanges) {
+            if (context.isProcessed()) failure = closeContext(context, failure);
+        }
+        exchanges.clear();
+        failure = closeContext(blocked, failure);
+        failure = closeContext(current, failure);
+        blocked = null;
+        current = null;
+        exclusive = null;
+        if (inFlight == 0) releaseInputBuffer();
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Releases a request completed by a worker after the connection has been closed
+     */
+    public synchronized void releaseAfterClose(Context context) throws Exception {
+        inFlight--;
+        try {
+            context.close();
+        } finally {
+            if (isClosed && inFlight == 0) releaseInputBuffer();
+        }
+    }
+
+    private void releaseInputBuffer() {
+        bufferPool.release(inputBuffer);
+        inputBuffer = null;
+    }
+
+    private static Exception closeContext(Context context, Exception failure) {
+        if (context == null) return failure;
+        try {
+            context.close();
+        } catch (Exception e) {
+            if (failure == null) return e;
+            failure.addSuppressed(e);
+        }
+        return failure;
+    }
+}
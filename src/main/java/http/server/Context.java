@@ -2,43 +2,127 @@ package http.server;
 
 import http.server.error.ErrorDto;
 import http.server.parser.ParsingResult;
+import http.server.trace.RequestTrace;
 import io.vavr.control.Either;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
 
+/**
+ * State of one request and its answer. The state of the connection (input buffer, order of answers)
+ * is kept by {@link Connection}, pipelined requests of one connection have their own contexts.
+ */
 public class Context implements AutoCloseable {
+    private final BufferPool bufferPool;
+    private SelectionKey selectionKey;
+    private Connection connection;
+    private WritableByteChannel outputChannel;
     private ParsingResult parsingResult;
-    private RequestAnswer requestAnswer;
+    private volatile RequestAnswer requestAnswer;
     private boolean isClosed;
-    private ByteBuffer inputBuffer;
-    private int lengthRequest = 0;
-    private int writeAttempts = 0;
+    private ByteBuffer bodyBuffer;
+    private ByteBuffer requestBody;
+    private volatile boolean processed;
+    private boolean keepAlive;
+    private RequestTrace trace;
 
-    public Context() {
+    /**
+     * @param bufferPool pool of the body buffer of the request and of its answer
+     */
+    public Context(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
     }
 
-    public int incAndGetWriteAttempts() {
-        return ++writeAttempts;
+    public BufferPool getBufferPool() {
+        return bufferPool;
     }
 
-    public ByteBuffer getInputBuffer() {
-        return inputBuffer;
+    /**
+     * Key of the connection in its selector, lets a chunked answer resume writing when the worker adds data
+     */
+    public SelectionKey getSelectionKey() {
+        return selectionKey;
     }
 
-    public int getLengthRequest() {
-        return lengthRequest;
+    public void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
     }
 
-    public void setLengthRequest(int lengthRequest) {
-        this.lengthRequest = lengthRequest;
+    /**
+     * Connection of the request in the selector engine, it releases the request even if it has been closed
+     * while a worker was processing the request
+     */
+    public Connection getConnection() {
+        return connection;
     }
 
-    public void incLengthRequest(int lengthRequest) {
-        this.lengthRequest += lengthRequest;
+    public void setConnection(Connection connection) {
+        this.connection = connection;
     }
 
-    public void setInputBuffer(ByteBuffer inputBuffer) {
-        this.inputBuffer = inputBuffer;
+    /**
+     * Blocking channel of the connection when the thread of the request writes the answer itself
+     * (virtual thread per connection), null when the selector thread writes it
+     */
+    public WritableByteChannel getOutputChannel() {
+        return outputChannel;
+    }
+
+    public void setOutputChannel(WritableByteChannel outputChannel) {
+        this.outputChannel = outputChannel;
+    }
+
+    /**
+     * Timestamps of the phases of the request, null when tracing is disabled
+     */
+    public RequestTrace getTrace() {
+        return trace;
+    }
+
+    public void setTrace(RequestTrace trace) {
+        this.trace = trace;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * True when the processor has finished with the request, the answer may still be partly unwritten
+     */
+    public boolean isProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(boolean processed) {
+        this.processed = processed;
+    }
+
+    /**
+     * Buffer of exactly Content-Length bytes, allocated only when the body does not fit in the input buffer
+     */
+    public ByteBuffer getBodyBuffer() {
+        return bodyBuffer;
+    }
+
+    public void setBodyBuffer(ByteBuffer bodyBuffer) {
+        this.bodyBuffer = bodyBuffer;
+    }
+
+    /**
+     * Body passed to the processor: the body buffer or a slice of the input buffer of the connection
+     */
+    public ByteBuffer getRequestBody() {
+        return requestBody;
+    }
+
+    public void setRequestBody(ByteBuffer requestBody) {
+        this.requestBody = requestBody;
     }
 
     public void setErrorParsingResult(ErrorDto errorDto) {
@@ -73,10 +157,13 @@ public class Context implements AutoCloseable {
         return parsingResult.getMethod();
     }
 
-
+    /**
+     * Releases the request and its answer, the body buffer goes back to the pool
+     */
     @Override
     public void close() throws Exception {
         if (isClosed) return;
+        bufferPool.release(bodyBuffer);
         try {
             try {
                 if (parsingResult != null) {
@@ -90,8 +177,9 @@ public class Context implements AutoCloseable {
         } finally {
             parsingResult = null;
             requestAnswer = null;
-            inputBuffer = null;
+            bodyBuffer = null;
+            requestBody = null;
             isClosed = true;
         }
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,29 @@
 package http.server;
 
 import com.zaxxer.hikari.HikariDataSource;
+import http.server.application.AsyncRepository;
+import http.server.application.BatchingRepository;
+import http.server.application.AppendLogRepository;
+import http.server.application.CachingRepository;
+import http.server.application.ConnectionPoolController;
 import http.server.application.DatabaseSource;
+import http.server.application.IndexedRepository;
+import http.server.application.PeriodIndex;
+import http.server.application.PreparedQueryCounter;
 import http.server.application.Repository;
+import http.server.application.TracingRepository;
+import http.server.application.VisitStore;
 import http.server.error.ErrorDto;
 import http.server.error.ErrorFactory;
 import http.server.error.HttpErrorType;
+import http.server.metrics.Counter;
+import http.server.metrics.HikariMetrics;
+import http.server.metrics.Metrics;
 import http.server.parser.ParsingResult;
 import http.server.parser.RequestParser;
+import http.server.postgres.PgClient;
+import http.server.trace.RequestTrace;
+import http.server.trace.SlowRequestLog;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -16,9 +32,15 @@ import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class HttpServer implements AutoCloseable {
     private static final Logger logger = LogManager.getLogger(HttpServer.class);
@@ -35,7 +57,44 @@ public class HttpServer implements AutoCloseable {
     private final int NUM_THREAD;
     private final boolean USE_VIRTUAL_THREAD;
     private final int MAX_POOL_SIZE;
+    private final int KEEP_ALIVE_TIMEOUT;
+    private final int MAX_KEEP_ALIVE_REQUESTS;
+    private final int MAX_PIPELINED_REQUESTS;
+    private final int MAX_CONNECTIONS;
+    private final boolean LEAST_CONNECTIONS_BALANCING;
+    private final int RETRY_AFTER_SECONDS;
+    private final boolean VIRTUAL_THREAD_ENGINE;
+    private static final int IDLE_CHECK_INTERVAL = 1000;
+    static final int ACCEPT_RETRY_MIN_DELAY = 10;
+    static final int ACCEPT_RETRY_MAX_DELAY = 1000;
     private final Map<Integer, Selector> workerSelectors = new ConcurrentHashMap<>();
+    private final Map<Selector, Queue<Context>> completedRequests = new ConcurrentHashMap<>();
+    private final Map<Selector, Queue<SocketChannel>> acceptedChannels = new ConcurrentHashMap<>();
+    private final Map<Selector, AtomicInteger> selectorConnections = new ConcurrentHashMap<>();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private Selector[] selectors;
+    private final Metrics metrics = new Metrics();
+    private final Map<Selector, Counter> acceptedConnections = new ConcurrentHashMap<>();
+    private final Map<HttpErrorType, Counter> parseErrors = new EnumMap<>(HttpErrorType.class);
+    private final Counter rejectedConnections;
+    private final Counter rejectedRequests;
+    private final Counter bytesReceived;
+    private final Counter bytesSent;
+    private final Counter writeRetries;
+    private final SlowRequestLog slowRequestLog;
+    private Thread acceptorThread;
+    private final RequestExecutor requestExecutor;
+    private final BufferPool bufferPool;
+    private final VisitStore repository;
+    private PreparedQueryCounter preparedQueries;
+    private AppendLogRepository appendLogRepository;
+    private PeriodIndex periodIndex;
+    private BatchingRepository batchingRepository;
+    private CachingRepository cachingRepository;
+    private ConnectionPoolController poolController;
+    private PgClient pgClient;
+    private VirtualThreadEngine virtualThreadEngine;
     private ExecutorService pool;
     private final ServerConfig serverConfig;
     private HikariDataSource hikariDataSource;
@@ -43,6 +102,13 @@ public class HttpServer implements AutoCloseable {
     private volatile boolean isRunning;
 
     public HttpServer(ServerConfig serverConfig) {
+        this(serverConfig, null);
+    }
+
+    /**
+     * @param repository store of visits, if null it is created by the storage of serverConfig
+     */
+    public HttpServer(ServerConfig serverConfig, VisitStore repository) {
         if (serverConfig == null) {
             throw new IllegalArgumentException("serverConfig must not be null");
         }
@@ -60,11 +126,176 @@ public class HttpServer implements AutoCloseable {
         NUM_THREAD = Integer.parseInt(serverConfig.getNumThread());
         USE_VIRTUAL_THREAD = Boolean.parseBoolean(serverConfig.getUseVirtualThread());
         MAX_POOL_SIZE = Integer.parseInt(serverConfig.getMaxPoolSize());
+        KEEP_ALIVE_TIMEOUT = Integer.parseInt(serverConfig.getKeepAliveTimeout());
+        MAX_KEEP_ALIVE_REQUESTS = Integer.parseInt(serverConfig.getMaxKeepAliveRequests());
+        MAX_PIPELINED_REQUESTS = Integer.parseInt(serverConfig.getMaxPipelinedRequests());
+        MAX_CONNECTIONS = Integer.parseInt(serverConfig.getMaxConnections());
+        LEAST_CONNECTIONS_BALANCING = serverConfig.getConnectionBalancing().equals("least-connections");
+        RETRY_AFTER_SECONDS = Integer.parseInt(serverConfig.getRetryAfterSeconds());
+        VIRTUAL_THREAD_ENGINE = serverConfig.getEngine().equals("virtual-thread-per-connection");
 
-        hikariDataSource = DatabaseSource.getDataSource(
-                DATABASE_URL, USER_DATABASE, PASSWORD_DATABASE, MAX_POOL_SIZE
+        if (repository == null && serverConfig.getStorage().equals("log")) {
+            try {
+                appendLogRepository = new AppendLogRepository(Path.of(serverConfig.getStorageLogPath()),
+                        Boolean.parseBoolean(serverConfig.getStorageLogSync()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open visit log", e);
+            }
+            logger.info("Visits are stored in {}", appendLogRepository);
+            repository = appendLogRepository;
+        } else if (repository == null) {
+            poolController = new ConnectionPoolController(
+                    new HikariMetrics(metrics),
+                    Boolean.parseBoolean(serverConfig.getDbPoolAutoSize()),
+                    Integer.parseInt(serverConfig.getMinPoolSize()),
+                    MAX_POOL_SIZE,
+                    Integer.parseInt(serverConfig.getDbPoolAdjustIntervalMillis()),
+                    Integer.parseInt(serverConfig.getDbAcquireTargetMillis()),
+                    Integer.parseInt(serverConfig.getDbMaxPendingAcquires()),
+                    RETRY_AFTER_SECONDS
+            );
+            hikariDataSource = DatabaseSource.getDataSource(
+                    DATABASE_URL, USER_DATABASE, PASSWORD_DATABASE,
+                    Integer.parseInt(serverConfig.getDbPrepareThreshold()),
+                    Integer.parseInt(serverConfig.getDbPreparedStatementCacheQueries()),
+                    Integer.parseInt(serverConfig.getDbPreparedStatementCacheSizeMiB()),
+                    Integer.parseInt(serverConfig.getDbConnectionTimeoutMillis()),
+                    Integer.parseInt(serverConfig.getDbLeakDetectionThresholdMillis()),
+                    poolController
+            );
+            Repository postgresRepository = new Repository(hikariDataSource);
+            preparedQueries = postgresRepository.getPreparedQueries();
+            repository = postgresRepository;
+            if (Boolean.parseBoolean(serverConfig.getDbAsync())) {
+                try {
+                    pgClient = new PgClient(DATABASE_URL, USER_DATABASE, PASSWORD_DATABASE,
+                            Integer.parseInt(serverConfig.getDbAsyncConnections()),
+                            Integer.parseInt(serverConfig.getDbConnectionTimeoutMillis()),
+                            Integer.parseInt(serverConfig.getDbAsyncMaxPending()),
+                            RETRY_AFTER_SECONDS);
+                } catch (SQLException | IOException e) {
+                    throw new IllegalStateException("Cannot open asynchronous connections to the database", e);
+                }
+                logger.info("Visits are read with pipelined queries: {}", pgClient);
+            }
+        }
+        int writeBatchSize = Integer.parseInt(serverConfig.getWriteBatchSize());
+        if (writeBatchSize > 1) {
+            batchingRepository = new BatchingRepository(repository, writeBatchSize,
+                    Integer.parseInt(serverConfig.getWriteBatchDelayMicros()));
+            repository = batchingRepository;
+        }
+        if (Boolean.parseBoolean(serverConfig.getVisitPeriodIndex())) {
+            try {
+                IndexedRepository indexedRepository = new IndexedRepository(repository);
+                periodIndex = indexedRepository.getPeriodIndex();
+                repository = indexedRepository;
+            } catch (SQLException | IOException e) {
+                throw new IllegalStateException("Cannot load periods of visits", e);
+            }
+            logger.info("Loaded periods of visits: {}", periodIndex);
+        }
+        int visitCacheSize = Integer.parseInt(serverConfig.getVisitCacheSize());
+        if (visitCacheSize > 0) {
+            cachingRepository = new CachingRepository(repository, visitCacheSize,
+                    Integer.parseInt(serverConfig.getVisitCacheListMaxBytes()));
+            repository = cachingRepository;
+        }
+        slowRequestLog = new SlowRequestLog(Integer.parseInt(serverConfig.getSlowRequestThresholdMillis()),
+                Integer.parseInt(serverConfig.getSlowRequestLogSize()));
+        if (slowRequestLog.isEnabled()) {
+            repository = new TracingRepository(repository);
+        }
+        this.repository = repository;
+        requestExecutor = new RequestExecutor(
+                Boolean.parseBoolean(serverConfig.getWorkerUseVirtualThread()),
+                Integer.parseInt(serverConfig.getWorkerPoolSize()),
+                Integer.parseInt(serverConfig.getWorkerQueueSize())
+        );
+        requestRouter = new RequestRouter(repository,
+                pgClient != null ? new AsyncRepository(pgClient, requestExecutor) : null, metrics, slowRequestLog);
+        bufferPool = new BufferPool(
+                Integer.parseInt(serverConfig.getBufferPoolMaxFreeBuffers()),
+                Boolean.parseBoolean(serverConfig.getBufferPoolDebug())
         );
-        requestRouter = new RequestRouter(new Repository(hikariDataSource));
+
+        rejectedConnections = metrics.counter("http_server_connections_rejected_total",
+                "Connections closed at once because the connection limit is reached");
+        rejectedRequests = metrics.counter("http_server_requests_rejected_total",
+                "Requests answered with 503 because the worker pool is saturated");
+        bytesReceived = metrics.counter("http_server_received_bytes_total", "Bytes read from clients");
+        bytesSent = metrics.counter("http_server_sent_bytes_total", "Bytes written to clients");
+        writeRetries = metrics.counter("http_server_write_retries_total",
+                "Writes that sent nothing because the socket buffer of the client was full");
+        for (HttpErrorType errorType : HttpErrorType.values()) {
+            parseErrors.put(errorType, metrics.counter("http_server_parse_errors_total",
+                    "Requests rejected by the parser by error type", "type", errorType.name()));
+        }
+        registerComponentMetrics();
+    }
+
+    /**
+     * Exports the statistics that the buffer pool and the storage decorators already count
+     */
+    private void registerComponentMetrics() {
+        metrics.counter("http_server_buffer_pool_hits_total", "Buffers taken from the pool", bufferPool::getHits);
+        metrics.counter("http_server_buffer_pool_misses_total", "Buffers allocated because the pool was empty",
+                bufferPool::getMisses);
+        metrics.gauge("http_server_buffer_pool_outstanding_buffers", "Buffers acquired and not released",
+                bufferPool::getOutstanding);
+        metrics.counter("http_server_slow_requests_total", "Requests slower than the slow request threshold",
+                slowRequestLog::getRecorded);
+        if (cachingRepository != null) {
+            metrics.counter("http_server_visit_cache_hits_total", "Visits found in the cache",
+                    cachingRepository::getHits);
+            metrics.counter("http_server_visit_cache_misses_total", "Visits read from the store",
+                    cachingRepository::getMisses);
+            metrics.gauge("http_server_visit_cache_hit_ratio", "Share of lookups by id answered from the cache",
+                    cachingRepository::getHitRatio);
+            metrics.counter("http_server_visit_cache_evictions_total", "Visits evicted from the full cache",
+                    cachingRepository::getEvictions);
+            metrics.gauge("http_server_visit_cache_size", "Visits in the cache", cachingRepository::getSize);
+            metrics.counter("http_server_visit_cache_list_hits_total", "Lists of all visits answered from the cache",
+                    cachingRepository::getListHits);
+            metrics.counter("http_server_visit_cache_list_misses_total",
+                    "Lists of all visits built or streamed from the store", cachingRepository::getListMisses);
+        }
+        if (preparedQueries != null) {
+            metrics.counter("http_server_statement_repeats_total",
+                    "Statements prepared with SQL the same connection has prepared before",
+                    preparedQueries::getRepeated);
+        }
+        if (batchingRepository != null) {
+            metrics.gauge("http_server_write_batch_average_size", "Average visits written in one batch",
+                    batchingRepository::getAverageBatchSize);
+        }
+        if (poolController != null) {
+            metrics.gauge("http_server_db_pool_max_connections", "Maximum pool size set by the pool controller",
+                    poolController::getPoolSize);
+            metrics.counter("http_server_db_pool_resizes_total", "Changes of the maximum pool size",
+                    poolController::getResizes);
+            metrics.counter("http_server_db_pool_shed_total",
+                    "Requests answered with 503 because no connection could be acquired soon",
+                    poolController::getShed);
+        }
+        if (pgClient != null) {
+            metrics.gauge("http_server_db_async_pending_queries", "Asynchronous queries queued or in flight",
+                    pgClient::getPending);
+            metrics.gauge("http_server_db_async_connections", "Open connections of the asynchronous client",
+                    pgClient::getOpenConnections);
+            metrics.counter("http_server_db_async_queries_total", "Asynchronous queries submitted",
+                    pgClient::getQueries);
+            metrics.counter("http_server_db_async_shed_total",
+                    "Asynchronous queries rejected with 503 because too many were pending", pgClient::getShed);
+        }
+        if (periodIndex != null) {
+            metrics.counter("http_server_period_index_conflicts_total", "Visits rejected by overlapping periods",
+                    periodIndex::getConflicts);
+        }
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     private void initialize() throws IOException {
@@ -73,8 +304,8 @@ public class HttpServer implements AutoCloseable {
         serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, BUFFER_SIZE);
         serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
         serverChannel.bind(new InetSocketAddress(HOST, PORT));
-        serverChannel.configureBlocking(false);
-        if (!USE_VIRTUAL_THREAD) pool = Executors.newFixedThreadPool(NUM_THREAD);
+        serverChannel.configureBlocking(true);
+        if (!USE_VIRTUAL_THREAD && !VIRTUAL_THREAD_ENGINE) pool = Executors.newFixedThreadPool(NUM_THREAD);
     }
 
     private void addShutdownHook() {
@@ -92,12 +323,28 @@ public class HttpServer implements AutoCloseable {
         initialize();
         this.isRunning = true;
         addShutdownHook();
+        if (VIRTUAL_THREAD_ENGINE) {
+            runVirtualThreadEngine();
+            return;
+        }
         CountDownLatch latch = new CountDownLatch(NUM_THREAD);
-        Selector selector;
-        for (int workerId = 0; workerId <= NUM_THREAD; workerId++) {
-            selector = Selector.open();
-            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
-            final Selector finalSelector = selector;
+        selectors = new Selector[NUM_THREAD];
+        for (int workerId = 0; workerId < NUM_THREAD; workerId++) {
+            Selector selector = Selector.open();
+            selectors[workerId] = selector;
+            workerSelectors.put(workerId, selector);
+            completedRequests.put(selector, new ConcurrentLinkedQueue<>());
+            acceptedChannels.put(selector, new ConcurrentLinkedQueue<>());
+            AtomicInteger connections = new AtomicInteger();
+            selectorConnections.put(selector, connections);
+            String worker = String.valueOf(workerId);
+            acceptedConnections.put(selector, metrics.counter("http_server_connections_accepted_total",
+                    "Connections passed to the worker selector", "worker", worker));
+            metrics.gauge("http_server_connections_active", "Open connections of the worker selector",
+                    connections::get, "worker", worker);
+        }
+        for (int workerId = 0; workerId < NUM_THREAD; workerId++) {
+            final Selector finalSelector = selectors[workerId];
             final Integer finalWorkerId = workerId;
             if (USE_VIRTUAL_THREAD) {
                 Thread.startVirtualThread(() -> handlerThread(finalSelector, finalWorkerId, latch));
@@ -105,8 +352,12 @@ public class HttpServer implements AutoCloseable {
                 pool.submit(() -> handlerThread(finalSelector, finalWorkerId, latch));
             }
         }
+        acceptorThread = new Thread(this::acceptLoop, "acceptor");
+        acceptorThread.start();
         String typeThreads = USE_VIRTUAL_THREAD ? "virtual" : "physical";
         logger.info("Server started on {}:{} ({} thread count started: {})", HOST, PORT, typeThreads, workerSelectors.size());
+        logger.info("Request processors run on {} worker threads",
+                requestExecutor.isUseVirtualThread() ? "virtual" : "physical");
         try {
             latch.await();
         } catch (InterruptedException e) {
@@ -119,13 +370,35 @@ public class HttpServer implements AutoCloseable {
         }
     }
 
+    /**
+     * Serves every connection with its own virtual thread instead of the selector loops and the worker pool,
+     * returns when the server is closed
+     */
+    private void runVirtualThreadEngine() {
+        virtualThreadEngine = new VirtualThreadEngine(serverConfig, serverChannel, requestRouter, bufferPool,
+                slowRequestLog, rejectedConnections, bytesReceived, bytesSent);
+        metrics.gauge("http_server_connections_active", "Open connections of the worker selector",
+                virtualThreadEngine::getActiveConnections, "worker", "virtual-thread-per-connection");
+        logger.info("Server started on {}:{} (virtual thread per connection)", HOST, PORT);
+        virtualThreadEngine.run();
+    }
+
     private void handlerThread(Selector selector, Integer workerId, CountDownLatch latch) {
         if (workerId == null || selector == null) return;
 
         try {
-            workerSelectors.put(workerId, selector);
+            long selectTimeout = Math.min(TIMEOUT_INPUT_DATA, IDLE_CHECK_INTERVAL);
+            long lastIdleCheck = System.currentTimeMillis();
             while (isRunning) {
-                if (selector.select(TIMEOUT_INPUT_DATA) == 0) continue;
+                int readyCount = selector.select(selectTimeout);
+                registerAcceptedChannels(selector);
+                writeCompletedAnswers(selector);
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+                    closeIdleConnections(selector, now);
+                    lastIdleCheck = now;
+                }
+                if (readyCount == 0) continue;
                 Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
 
                 while (keys.hasNext()) {
@@ -134,11 +407,11 @@ public class HttpServer implements AutoCloseable {
                     if (key == null || !key.isValid()) continue;
 
                     try {
-                        if (key.isAcceptable()) {
-                            accept(key);
-                        } else if (key.isReadable()) {
+                        // answers completed after select may have already switched the key to other operations
+                        int readyOps = key.readyOps() & key.interestOps();
+                        if ((readyOps & SelectionKey.OP_READ) != 0) {
                             read(key);
-                        } else if (key.isWritable()) {
+                        } else if ((readyOps & SelectionKey.OP_WRITE) != 0) {
                             write(key);
                         }
                     } catch (Exception e) {
@@ -153,119 +426,567 @@ public class HttpServer implements AutoCloseable {
             if (!isRunning) {
                 safeCloseSelector(workerId, selector);
                 workerSelectors.remove(workerId);
+                releaseCompletedRequests(completedRequests.remove(selector));
+                closeAcceptedChannels(acceptedChannels.remove(selector));
             }
         }
     }
 
-    private void accept(SelectionKey key) {
-        if (workerSelectors.size() > NUM_THREAD + (USE_VIRTUAL_THREAD ? 1 : 0)) {
-            logger.warn("Connection rejected (limit reached)");
-            return;
+    /**
+     * The only thread accepting connections: the listening channel is in blocking mode and is not
+     * registered in worker selectors, so a new connection wakes up one thread instead of all selectors.
+     * The accepted channel is passed to a worker selector through its queue, the global connection
+     * limit is checked before the channel gets to any selector. Persistent accept errors such as
+     * too many open files are retried with a growing delay instead of a busy loop.
+     */
+    private void acceptLoop() {
+        int retryDelay = ACCEPT_RETRY_MIN_DELAY;
+        while (isRunning) {
+            SocketChannel clientChannel = null;
+            try {
+                clientChannel = serverChannel.accept();
+                retryDelay = ACCEPT_RETRY_MIN_DELAY;
+                if (activeConnections.incrementAndGet() > MAX_CONNECTIONS) {
+                    activeConnections.decrementAndGet();
+                    rejectedConnections.inc();
+                    logger.warn("Connection rejected (limit {} reached)", MAX_CONNECTIONS);
+                    clientChannel.close();
+                    continue;
+                }
+                clientChannel.configureBlocking(false);
+                clientChannel.setOption(StandardSocketOptions.SO_RCVBUF, BUFFER_SIZE);
+                clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                Selector selector = nextSelector();
+                Queue<SocketChannel> queue = acceptedChannels.get(selector);
+                if (queue == null) {
+                    // the worker has stopped, the server is closing
+                    safeClose(clientChannel, null);
+                    continue;
+                }
+                selectorConnections.get(selector).incrementAndGet();
+                acceptedConnections.get(selector).inc();
+                queue.add(clientChannel);
+                selector.wakeup();
+            } catch (ClosedChannelException e) {
+                logger.debug("Listening channel closed, acceptor stopped");
+                return;
+            } catch (IOException e) {
+                handleNetworkError(e, "Accept", clientChannel);
+                safeClose(clientChannel, null);
+                if (!sleepBeforeRetry(retryDelay)) return;
+                retryDelay = Math.min(retryDelay * 2, ACCEPT_RETRY_MAX_DELAY);
+            }
         }
-        ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
-        SocketChannel clientChannel = null;
+    }
 
+    /**
+     * @return false if the thread was interrupted
+     */
+    static boolean sleepBeforeRetry(int delayMillis) {
         try {
-            clientChannel = serverChannel.accept();
-            if (clientChannel == null) return;
-
-            clientChannel.configureBlocking(false);
-            clientChannel.setOption(StandardSocketOptions.SO_RCVBUF, BUFFER_SIZE);
-            clientChannel.register(key.selector(), SelectionKey.OP_READ);
+            Thread.sleep(delayMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-        } catch (IOException e) {
-            handleNetworkError(e, "Accept", clientChannel);
+    /**
+     * Closes the channels accepted for a stopped worker but not registered in its selector yet,
+     * so they are not left open and counted in the active connections
+     */
+    private void closeAcceptedChannels(Queue<SocketChannel> queue) {
+        if (queue == null) return;
+        SocketChannel clientChannel;
+        while ((clientChannel = queue.poll()) != null) {
             safeClose(clientChannel, null);
         }
     }
 
+    private Selector nextSelector() {
+        if (!LEAST_CONNECTIONS_BALANCING) {
+            return selectors[Math.floorMod(nextWorker.getAndIncrement(), selectors.length)];
+        }
+        Selector result = selectors[0];
+        int minConnections = Integer.MAX_VALUE;
+        for (Selector selector : selectors) {
+            int connections = selectorConnections.get(selector).get();
+            if (connections < minConnections) {
+                minConnections = connections;
+                result = selector;
+            }
+        }
+        return result;
+    }
+
+    private void registerAcceptedChannels(Selector selector) {
+        Queue<SocketChannel> queue = acceptedChannels.get(selector);
+        if (queue == null) return;
+        SocketChannel clientChannel;
+        while ((clientChannel = queue.poll()) != null) {
+            try {
+                Connection connection = new Connection(bufferPool, MAX_PIPELINED_REQUESTS);
+                connection.setSelectionKey(clientChannel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                handleNetworkError(e, "Register", clientChannel);
+                safeClose(clientChannel, null);
+                selectorConnections.get(selector).decrementAndGet();
+            }
+        }
+    }
+
     private void read(SelectionKey key) throws Exception {
         SocketChannel channel = (SocketChannel) key.channel();
-        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-        int bytesRead = channel.read(buffer);
+        Connection connection = (Connection) key.attachment();
+        if (connection == null) {
+            connection = new Connection(bufferPool, MAX_PIPELINED_REQUESTS);
+            connection.setSelectionKey(key);
+            key.attach(connection);
+        }
+        if (connection.getInputBuffer() == null) {
+            connection.setInputBuffer(bufferPool.acquire(BUFFER_SIZE));
+        }
+        Context current = connection.getCurrent();
+        ByteBuffer target = current != null && current.getBodyBuffer() != null
+                ? current.getBodyBuffer()
+                : connection.getInputBuffer();
+        int bytesRead = channel.read(target);
 
         if (bytesRead > 0) {
-            Context context = new Context();
-            context.setInputBuffer(buffer);
-            context.incLengthRequest(bytesRead);
-
-            if (context.getLengthRequest() > MAX_HTTP_REQUEST_SIZE) {
-                ErrorDto error = ErrorFactory.createErrorDto(
-                        HttpErrorType.BAD_REQUEST,
-                        "REQUEST_TOO_LARGE",
-                        "Max size: " + MAX_HTTP_REQUEST_SIZE
-                );
-                context.setParsingResult(ParsingResult.error(error));
-            } else {
-                context.setParsingResult(RequestParser.parseToResult(buffer));
+            bytesReceived.add(bytesRead);
+            connection.touch();
+            processRequests(key, connection);
+        } else if (bytesRead == -1) {
+            if (connection.isIdle()) {
+                logger.debug("Client closed connection");
+                safeClose(channel, key);
+                return;
             }
+            logger.debug("Client shut down output, answering the received requests");
+            connection.setLastRequestReceived(true);
+            key.interestOpsAnd(~SelectionKey.OP_READ);
+        }
+    }
 
-            requestRouter.route(context, channel, buffer);
-            key.attach(context);
-            key.interestOps(SelectionKey.OP_WRITE);
-            key.selector().wakeup();
-        } else if (bytesRead == -1) {
-            logger.debug("Client closed connection");
-            safeClose(channel, key);
+    /**
+     * Parses the requests received on the connection one after another and dispatches them.
+     *
+     * <p>GET requests without body are dispatched at once, up to max pipelined requests per connection,
+     * and processed in parallel. Other requests change the visits, so they are processed alone:
+     * such a request waits until the requests before it are processed, and the requests after it
+     * are not parsed until it is processed. Its body stays in the input buffer meanwhile.
+     *
+     * <p>The connection is watched for reading only while it accepts more requests, a client that sends
+     * requests faster than it reads the answers is stopped by TCP flow control.
+     */
+    private void processRequests(SelectionKey key, Connection connection) throws Exception {
+        Context blocked = connection.getBlocked();
+        if (blocked != null && connection.getInFlight() == 0) {
+            connection.setBlocked(null);
+            dispatch(key, connection, blocked);
+        }
+        while (connection.acceptsRequests() && connection.getInputBuffer() != null) {
+            connection.compactInput();
+            Context context = assembleRequest(key, connection);
+            if (context == null) break;
+            connection.setCurrent(null);
+
+            context.setKeepAlive(isRunning
+                    && context.getParsingResult().isKeepAlive()
+                    && connection.incAndGetRequestCount() < MAX_KEEP_ALIVE_REQUESTS);
+            if (!context.isKeepAlive()) connection.setLastRequestReceived(true);
+
+            if (isExclusive(context) && connection.getInFlight() > 0) {
+                connection.setBlocked(context);
+                break;
+            }
+            dispatch(key, connection, context);
+        }
+        if (!key.isValid()) return;
+        if (connection.acceptsRequests()) {
+            key.interestOpsOr(SelectionKey.OP_READ);
+        } else {
+            key.interestOpsAnd(~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * @return true if the request must not be processed in parallel with other requests of the connection
+     */
+    private static boolean isExclusive(Context context) {
+        ParsingResult parsingResult = context.getParsingResult();
+        return parsingResult.isSuccess()
+                && (parsingResult.getValue().get().getMethod() != HttpMethod.GET
+                || parsingResult.getContentLength() > 0);
+    }
+
+    /**
+     * Assembles the next request from the start of the input buffer of the connection.
+     *
+     * <p>States:
+     * <ul>
+     *   <li>No current request = headers are being read, the input buffer is searched for the empty line
+     *   from the place where the previous search stopped</li>
+     *   <li>Current request without body buffer = the body fits in the input buffer
+     *   and is read after the headers</li>
+     *   <li>Body buffer = the body is larger than the input buffer, the received part is copied
+     *   once and the remaining segments are read directly into the body buffer</li>
+     * </ul>
+     *
+     * <p>When the request is complete, its body is a slice of the input buffer or the body buffer,
+     * the bytes after the request are left in the input buffer for the next request.
+     *
+     * @param connection connection with the input buffer in write mode
+     * @return the request if it is complete or rejected and can be routed, null if more data is needed
+     */
+    private Context assembleRequest(SelectionKey key, Connection connection) throws Exception {
+        ByteBuffer buffer = connection.getInputBuffer();
+        Context context = connection.getCurrent();
+
+        if (context == null) {
+            int headersLength = RequestParser.findEndOfHeaders(buffer, connection.getScanPosition());
+            if (headersLength < 0) {
+                if (!buffer.hasRemaining() || buffer.position() > MAX_HTTP_REQUEST_SIZE) {
+                    return newContext(key, connection, ParsingResult.error(requestTooLargeError()));
+                }
+                connection.setScanPosition(buffer.position() - 3);
+                return null;
+            }
+
+            RequestTrace trace = slowRequestLog.isEnabled() ? new RequestTrace(System.nanoTime()) : null;
+            int received = buffer.position();
+            ParsingResult parsingResult = RequestParser.parseToResult(buffer, requestRouter.getRouteTable());
+            buffer.limit(buffer.capacity()).position(received);
+            context = newContext(key, connection, parsingResult);
+            if (trace != null) {
+                trace.markParsed(parsingResult.getMethod(), parsingResult.getUri());
+                context.setTrace(trace);
+            }
+            if (parsingResult.isError()) return context;
+
+            int contentLength = parsingResult.getContentLength();
+            if (headersLength + contentLength > MAX_HTTP_REQUEST_SIZE) {
+                parsingResult.close();
+                context.setParsingResult(ParsingResult.error(requestTooLargeError()));
+                return context;
+            }
+            if (headersLength + contentLength > buffer.capacity()) {
+                ByteBuffer bodyBuffer = bufferPool.acquire(contentLength);
+                bodyBuffer.put(buffer.flip().position(headersLength));
+                buffer.limit(buffer.capacity()).position(headersLength);
+                context.setBodyBuffer(bodyBuffer);
+            }
+        }
+
+        ByteBuffer bodyBuffer = context.getBodyBuffer();
+        int headersLength = context.getParsingResult().getBytesParsed();
+        if (bodyBuffer != null) {
+            if (bodyBuffer.hasRemaining()) return null;
+            context.setRequestBody(bodyBuffer.flip());
+            connection.setConsumedLength(headersLength);
+            return context;
+        }
+
+        int contentLength = context.getParsingResult().getContentLength();
+        if (buffer.position() < headersLength + contentLength) return null;
+        context.setRequestBody(buffer.slice(headersLength, contentLength));
+        connection.setConsumedLength(headersLength + contentLength);
+        return context;
+    }
+
+    /**
+     * Creates the context of the request whose headers have been parsed, it stays the current request
+     * of the connection until its body is received
+     */
+    private Context newContext(SelectionKey key, Connection connection, ParsingResult parsingResult) {
+        Context context = new Context(bufferPool);
+        context.setSelectionKey(key);
+        context.setConnection(connection);
+        context.setParsingResult(parsingResult);
+        connection.setCurrent(context);
+        return context;
+    }
+
+    /**
+     * Passes the parsed request to a worker thread, the worker puts the context into the queue of completed
+     * requests of this selector and wakes the selector up. An asynchronous processor is started here instead
+     * and its future completes the request the same way, from the worker that got the result of the query.
+     * Errors of parsing do not need the database and are answered in the selector thread.
+     * If the worker pool is saturated, the request is answered with 503.
+     * In both cases the answer waits in the exchange queue until the answers before it are written.
+     */
+    private void dispatch(SelectionKey key, Connection connection, Context context) throws Exception {
+        SocketChannel channel = (SocketChannel) key.channel();
+        connection.addExchange(context);
+        ParsingResult parsingResult = context.getParsingResult();
+        if (parsingResult.isError()) {
+            parseErrors.get(parsingResult.getValue().getLeft().getErrorType()).inc();
+        }
+        if (context.getTrace() != null) context.getTrace().markDispatched();
+        if (parsingResult.isSuccess()) {
+            CompletableFuture<Void> future = requestRouter.routeAsync(context, channel, context.getRequestBody());
+            if (future != null) {
+                connection.incInFlight();
+                if (isExclusive(context)) connection.setExclusive(context);
+                future.whenComplete((result, e) -> completeRequest(context));
+                return;
+            }
+            boolean submitted = requestExecutor.trySubmit(() -> {
+                try {
+                    requestRouter.route(context, channel, context.getRequestBody());
+                } catch (Exception e) {
+                    logger.error("Error routing request", e);
+                } finally {
+                    completeRequest(context);
+                }
+            });
+            if (submitted) {
+                connection.incInFlight();
+                if (isExclusive(context)) connection.setExclusive(context);
+                return;
+            }
+
+            rejectedRequests.inc();
+            logger.warn("Request rejected, worker pool is saturated");
+            context.setErrorParsingResult(ErrorFactory.serviceUnavailableErrorDto("Server is overloaded",
+                    RETRY_AFTER_SECONDS));
+        }
+        requestRouter.route(context, channel, context.getRequestBody());
+        context.setProcessed(true);
+        key.interestOpsOr(SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Passes the request completed by a worker to its selector thread. If the selector has stopped,
+     * the request is released here, its connection has already been closed.
+     */
+    private void completeRequest(Context context) {
+        Selector selector = context.getSelectionKey().selector();
+        Queue<Context> queue = completedRequests.get(selector);
+        if (queue == null) {
+            releaseAfterClose(context);
+            return;
+        }
+        queue.add(context);
+        selector.wakeup();
+        // the selector may have stopped after the queue was taken, then nobody else drains it
+        if (!completedRequests.containsKey(selector) && queue.remove(context)) releaseAfterClose(context);
+    }
+
+    private void releaseAfterClose(Context context) {
+        try {
+            context.getConnection().releaseAfterClose(context);
+        } catch (Exception e) {
+            logger.warn("Request release failed", e);
+        }
+    }
+
+    private void releaseCompletedRequests(Queue<Context> queue) {
+        if (queue == null) return;
+        Context context;
+        while ((context = queue.poll()) != null) {
+            releaseAfterClose(context);
         }
     }
 
+    /**
+     * Writes the answers prepared by worker threads, the socket is usually ready for writing,
+     * so the answer is written without waiting for the next select.
+     * Only here the request is marked as processed: a chunked answer may be written
+     * while the worker still produces it, but it is completed only after the worker has finished.
+     * A processed request frees its place in the pipeline, so the requests waiting in the input buffer
+     * are dispatched after the write.
+     */
+    private void writeCompletedAnswers(Selector selector) {
+        Queue<Context> queue = completedRequests.get(selector);
+        if (queue == null) return;
+        Context context;
+        while ((context = queue.poll()) != null) {
+            SelectionKey key = context.getSelectionKey();
+            Connection connection = context.getConnection();
+            if (connection.isClosed() || !key.isValid()) {
+                releaseAfterClose(context);
+                continue;
+            }
+            try {
+                context.setProcessed(true);
+                connection.decInFlight();
+                if (connection.getExclusive() == context) connection.setExclusive(null);
+                write(key);
+                if (key.isValid()) processRequests(key, connection);
+            } catch (Exception e) {
+                handleOperationError(e, key);
+            }
+        }
+    }
+
+    private ErrorDto requestTooLargeError() {
+        return ErrorFactory.createErrorDto(
+                HttpErrorType.BAD_REQUEST,
+                "REQUEST_TOO_LARGE",
+                "Max size: " + MAX_HTTP_REQUEST_SIZE
+        );
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int count) {
+        for (int i = 0; i < count; i++) {
+            if (buffers[i].hasRemaining()) return true;
+        }
+        return false;
+    }
+
     /**
      * Handles writing data to the client channel.
      *
      * <p>Key operations:
      * <ol>
-     *   <li>Validates the request context (closes connection if missing)</li>
-     *   <li>Enforces maximum write attempts (3) to prevent hangs</li>
-     *   <li>Writes response data from the output buffer</li>
+     *   <li>Validates the connection (closes it if missing)</li>
+     *   <li>Enforces maximum write attempts without progress (3) to prevent hangs</li>
+     *   <li>Writes the answers in the order of the requests: the buffers of the first answer and of the
+     *   processed answers after it are gathered into one write, a chunked answer gives its buffers one by one</li>
      *   <li>Re-registers for write ops if data remains (backpressure handling)</li>
      *   <li>Ensures proper connection cleanup in all cases</li>
      * </ol>
      *
      * <p>Flow control:
      * <ul>
-     *   <li>Negative write = immediate close (connection error)</li>
+     *   <li>Negative write or aborted answer = immediate close (connection error)</li>
      *   <li>Partial write = re-register for more writes</li>
-     *   <li>Complete write = close connection</li>
+     *   <li>First request still processed by the worker = stop watching the key for writing until the answer
+     *   gets more data or the worker finishes</li>
+     *   <li>Complete answer on keep-alive connection = release the request and go to the next one,
+     *   the pipeline gets a free place for the requests waiting in the input buffer</li>
+     *   <li>Complete answer otherwise = close connection</li>
      * </ul>
      *
-     * @param key The selection key containing channel and context
+     * @param key The selection key containing channel and connection
      * @throws IOException           for low-level I/O errors
-     * @throws IllegalStateException if context structure is invalid
+     * @throws IllegalStateException if connection structure is invalid
      */
     private void write(SelectionKey key) throws Exception {
         SocketChannel channel = (SocketChannel) key.channel();
-        Context context = (Context) key.attachment();
-        if (context == null) {
-            logger.warn("Missing context for write operation");
-            safeClose(channel, key);
-            return;
-        }
-        if (context.incAndGetWriteAttempts() > 3) {
-            logger.warn("Write attempts exceeded");
+        Connection connection = (Connection) key.attachment();
+        if (connection == null) {
+            logger.warn("Missing connection for write operation");
             safeClose(channel, key);
             return;
         }
 
-        ByteBuffer out = context.getRequestAnswer().getByteBuffer();
-        int written = channel.write(out);
-        if (written < 0) {
-            safeClose(channel, key);
-            return;
+        while (true) {
+            Context context = connection.peekExchange();
+            if (context == null) {
+                if (connection.isLastRequestReceived() && connection.isIdle()) {
+                    safeClose(channel, key);
+                    return;
+                }
+                key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                return;
+            }
+            RequestAnswer answer = context.getRequestAnswer();
+            if (answer == null) {
+                if (context.isProcessed()) {
+                    logger.warn("Missing answer for write operation");
+                    safeClose(channel, key);
+                    return;
+                }
+                key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                return;
+            }
+
+            if (context.getTrace() != null) context.getTrace().markWriteStart();
+            ByteBuffer[] out = connection.getOutBuffers();
+            int count;
+            while (!answer.isAborted() && (count = gatherAnswers(connection, out)) > 0) {
+                long written = channel.write(out, 0, count);
+                if (written < 0) {
+                    safeClose(channel, key);
+                    return;
+                }
+                if (written > 0) {
+                    bytesSent.add(written);
+                    connection.resetWriteAttempts();
+                } else {
+                    writeRetries.inc();
+                    if (connection.incAndGetWriteAttempts() > 3) {
+                        logger.warn("Write attempts exceeded");
+                        safeClose(channel, key);
+                        return;
+                    }
+                }
+                boolean remaining = hasRemaining(out, count);
+                Arrays.fill(out, 0, count, null);
+                if (remaining) {
+                    if (written == 0) logger.debug("channel is not ready to receive data");
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (answer.isAborted()) {
+                logger.warn("Answer aborted, closing connection");
+                safeClose(channel, key);
+                return;
+            }
+            if (!context.isProcessed() || !answer.isWritten()) {
+                if (answer.awaitData(key)) return;
+                continue;
+            }
+
+            connection.pollExchange();
+            if (context.getTrace() != null) recordTrace(context);
+            context.close();
+            connection.touch();
+            if (!context.isKeepAlive() || !isRunning) {
+                safeClose(channel, key);
+                return;
+            }
+            processRequests(key, connection);
         }
+    }
 
-        if (out.hasRemaining()) {
-            if (written == 0) logger.debug("channel is not ready to receive data");
-            reRegisteredKey(key, SelectionKey.OP_WRITE);
-            return;
+    private void recordTrace(Context context) {
+        RequestTrace trace = context.getTrace();
+        trace.markWritten();
+        slowRequestLog.record(trace);
+    }
+
+    /**
+     * Collects the buffers ready to be written: of the first answer and, while the answers are complete,
+     * of the answers after it
+     *
+     * @return number of buffers with data put into out
+     */
+    private static int gatherAnswers(Connection connection, ByteBuffer[] out) {
+        int count = 0;
+        for (Context context : connection.getExchanges()) {
+            RequestAnswer answer = context.getRequestAnswer();
+            if (answer == null || answer.isAborted() || count + 2 > out.length) break;
+            ByteBuffer[] buffers = answer.getByteBuffers();
+            if (buffers != null) {
+                for (ByteBuffer buffer : buffers) {
+                    if (buffer.hasRemaining()) out[count++] = buffer;
+                }
+            }
+            if (!context.isProcessed() || !answer.hasAllData()) break;
         }
-        safeClose(channel, key);
+        return count;
     }
 
-    private void reRegisteredKey(SelectionKey key, int Operation) {
-        if (key != null && key.isValid()) {
-            key.interestOps(Operation);
-            key.selector().wakeup();
+    /**
+     * Closes keep-alive connections waiting for the next request longer than keep-alive timeout
+     * and connections that have not completed the started request within input data timeout
+     */
+    private void closeIdleConnections(Selector selector, long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()
+                    && key.attachment() instanceof Connection connection
+                    && connection.isIdle()
+                    && now - connection.getLastActivity() >
+                    (connection.hasPartialRequest() ? TIMEOUT_INPUT_DATA : KEEP_ALIVE_TIMEOUT)) {
+                logger.debug("Closing idle connection");
+                safeClose((SocketChannel) key.channel(), key);
+            }
         }
     }
 
@@ -331,6 +1052,9 @@ public class HttpServer implements AutoCloseable {
                     }
                 }
                 channel.close();
+                activeConnections.decrementAndGet();
+                AtomicInteger connections = key != null ? selectorConnections.get(key.selector()) : null;
+                if (connections != null) connections.decrementAndGet();
             }
         } catch (IOException e) {
             logger.debug("Channel close error", e);
@@ -339,8 +1063,12 @@ public class HttpServer implements AutoCloseable {
         }
     }
 
+    /**
+     * Closes the attachment even if the key is already cancelled by closing the channel,
+     * otherwise the buffers of the connection would not return to the pool
+     */
     private void cleanupKey(SelectionKey key) {
-        if (key == null || !key.isValid()) return;
+        if (key == null) return;
 
         try {
             Object attachment = key.attachment();
@@ -355,19 +1083,6 @@ public class HttpServer implements AutoCloseable {
         }
     }
 
-    private void cleanupServerChannelKey() {
-        for (Selector selector : workerSelectors.values()) {
-            if (selector == null || !selector.isOpen()) continue;
-
-            for (SelectionKey key : selector.keys()) {
-                if (key != null && key.channel() == serverChannel) {
-                    key.cancel();
-                    break;
-                }
-            }
-        }
-    }
-
     private void shutdownAndAwaitTermination(ExecutorService pool) {
         pool.shutdown();
         try {
@@ -390,10 +1105,15 @@ public class HttpServer implements AutoCloseable {
         logger.info("Server stopping...");
         System.out.println("Server stopping...");
         isRunning = false;
+        if (serverChannel != null) serverChannel.close();
 
-        if (!USE_VIRTUAL_THREAD && !pool.isShutdown()) {
+        if (virtualThreadEngine != null) virtualThreadEngine.close();
+        if (pool != null && !pool.isShutdown()) {
             shutdownAndAwaitTermination(pool);
         }
+        requestExecutor.close();
+        if (batchingRepository != null) batchingRepository.close();
+        if (appendLogRepository != null) appendLogRepository.close();
         workerSelectors.values().forEach(selector -> {
             if (selector != null) selector.wakeup();
         });
@@ -408,11 +1128,24 @@ public class HttpServer implements AutoCloseable {
             }
         }
 
-        cleanupServerChannelKey();
-        if (serverChannel != null) serverChannel.close();
-
         workerSelectors.forEach(this::safeCloseSelector);
         workerSelectors.clear();
+        acceptedChannels.values().forEach(this::closeAcceptedChannels);
+        acceptedChannels.clear();
+        logger.info("Buffer pool: {}", bufferPool);
+        bufferPool.reportLeaks();
+        if (preparedQueries != null) logger.info("Prepared queries: {}", preparedQueries);
+        if (batchingRepository != null) logger.info("Write batches: {}", batchingRepository);
+        if (periodIndex != null) logger.info("Period index: {}", periodIndex);
+        if (cachingRepository != null) logger.info("Visit cache: {}", cachingRepository);
+        if (poolController != null) {
+            logger.info("Connection pool: {}", poolController);
+            poolController.close();
+        }
+        if (pgClient != null) {
+            logger.info("Asynchronous database client: {}", pgClient);
+            pgClient.close();
+        }
         DatabaseSource.closePool();
         System.out.println("Server stopped");
     }
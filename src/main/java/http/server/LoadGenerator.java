@@ -0,0 +1,530 @@
+package http.server;
+
+import com.google.gson.GsonBuilder;
+import http.server.application.InMemoryRepository;
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for the /visits endpoints.
+ *
+ * <p>All connections are served by one selector thread, each connection keeps up to "pipeline" requests in flight.
+ * <ul>
+ *   <li>Closed loop (rate = 0): every connection sends the next request as soon as an answer arrives.
+ *   The corrected histogram is built with the mean latency as the expected interval between requests</li>
+ *   <li>Open loop (rate &gt; 0): requests are scheduled at a constant total rate, latency is measured
+ *   from the scheduled time, so a stalled server is not hidden by requests that were not sent (coordinated omission)</li>
+ * </ul>
+ *
+ * <p>Example: --port 8080 --connections 64 --pipeline 4 --rate 20000 --duration 60
+ * --mix GET=80,GET_ALL=5,POST=5,PUT=5,DELETE=5 --output build-123.json
+ *
+ * <p>GET and PUT use the ids 1..ids, DELETE uses ids+1..2*ids, so deletes do not turn the reads into 404.
+ * With --embedded the server is started in the same process on the in-memory repository with 2*ids visits.
+ *
+ * <p>Requests lost when a connection is closed are counted as errors and recorded in the latency
+ * up to the moment of the loss, so a stall that ends in a reset is not hidden.
+ */
+public class LoadGenerator {
+    private static final Logger logger = LogManager.getLogger(LoadGenerator.class);
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final LoadOptions options;
+    private final InetSocketAddress address;
+    private final RequestType[] requestTypes;
+    private final int[] cumulativeWeights;
+    private final Histogram latency = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram serviceTime = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Map<String, Long> statusCounts = new TreeMap<>();
+    private final Map<RequestType, Long> typeCounts = new EnumMap<>(RequestType.class);
+    private final List<Connection> connections = new ArrayList<>();
+    private final ArrayDeque<Long> scheduled = new ArrayDeque<>();
+    private long errors;
+    private long measureStart;
+    private int nextConnection;
+
+    enum RequestType {
+        GET, GET_ALL, POST, PUT, DELETE
+    }
+
+    public LoadGenerator(LoadOptions options) {
+        this.options = options;
+        this.address = new InetSocketAddress(options.host, options.port);
+        this.requestTypes = options.mix.keySet().toArray(new RequestType[0]);
+        this.cumulativeWeights = new int[requestTypes.length];
+        int total = 0;
+        for (int i = 0; i < requestTypes.length; i++) {
+            total += options.mix.get(requestTypes[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options = LoadOptions.parse(args);
+        HttpServer embeddedServer = options.embedded ? startEmbeddedServer(options) : null;
+        try {
+            Map<String, Object> report = new LoadGenerator(options).run();
+            String json = new GsonBuilder().setPrettyPrinting().create().toJson(report);
+            if (options.output == null) {
+                System.out.println(json);
+            } else {
+                try (Writer writer = Files.newBufferedWriter(Path.of(options.output), StandardCharsets.UTF_8)) {
+                    writer.write(json);
+                }
+                logger.info("Load report written to {}", options.output);
+            }
+        } finally {
+            if (embeddedServer != null) embeddedServer.close();
+        }
+    }
+
+    private static HttpServer startEmbeddedServer(LoadOptions options) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("server.host", options.host);
+        properties.setProperty("server.port", String.valueOf(options.port));
+        properties.setProperty("server.max-http-request-size", "8192");
+        properties.setProperty("server.max-keep-alive-requests", "100000");
+        properties.setProperty("server.num_thread", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        HttpServer httpServer = new HttpServer(new ServerConfig(properties), InMemoryRepository.withVisits(options.ids * 2));
+        Thread serverThread = new Thread(() -> {
+            try {
+                httpServer.run();
+            } catch (Exception e) {
+                logger.error("Embedded server failed", e);
+            }
+        }, "embedded-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        waitForPort(options.host, options.port, 10_000);
+        return httpServer;
+    }
+
+    /**
+     * Connects until the server accepts connections on the port
+     *
+     * @throws IOException if it does not within timeoutMillis
+     */
+    public static void waitForPort(String host, int port, long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = SocketChannel.open(new InetSocketAddress(host, port));
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Server did not start on " + host + ":" + port, e);
+                }
+                Thread.sleep(50);
+                continue;
+            }
+            channel.close();
+            return;
+        }
+    }
+
+    public Map<String, Object> run() throws IOException {
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < options.connections; i++) {
+                connections.add(new Connection(selector));
+            }
+
+            long start = System.nanoTime();
+            measureStart = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+            long end = measureStart + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+            long interval = options.rate > 0 ? TimeUnit.SECONDS.toNanos(1) / options.rate : 0;
+            long nextScheduled = start;
+
+            long now = start;
+            while (now < end) {
+                if (interval > 0) {
+                    while (nextScheduled <= now) {
+                        scheduled.add(nextScheduled);
+                        nextScheduled += interval;
+                    }
+                    sendScheduled(now);
+                } else {
+                    for (Connection connection : connections) {
+                        while (connection.canSend()) connection.send(now, now);
+                    }
+                }
+
+                long timeoutMillis = interval > 0 ? Math.max(1, (nextScheduled - now) / 1_000_000) : 100;
+                selector.select(timeoutMillis);
+                now = System.nanoTime();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((Connection) key.attachment()).handle(key, now);
+                }
+            }
+            for (Connection connection : connections) connection.close();
+            return report(TimeUnit.NANOSECONDS.toMillis(end - measureStart));
+        }
+    }
+
+    /**
+     * Passes requests whose time has come to connections with free pipeline slots,
+     * requests without a free connection stay in the queue and their waiting time is counted in latency
+     */
+    private void sendScheduled(long now) throws IOException {
+        while (!scheduled.isEmpty()) {
+            Connection connection = nextFreeConnection();
+            if (connection == null) return;
+            connection.send(scheduled.poll(), now);
+        }
+    }
+
+    private Connection nextFreeConnection() {
+        for (int i = 0; i < connections.size(); i++) {
+            Connection connection = connections.get(nextConnection);
+            nextConnection = (nextConnection + 1) % connections.size();
+            if (connection.canSend()) return connection;
+        }
+        return null;
+    }
+
+    private RequestType nextRequestType() {
+        int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) return requestTypes[i];
+        }
+        return requestTypes[requestTypes.length - 1];
+    }
+
+    private byte[] buildRequest(RequestType type) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int id = random.nextInt(1, options.ids + 1);
+        String host = "Host: " + options.host + ":" + options.port + "\r\n";
+        String request = switch (type) {
+            case GET -> "GET /visits?id=" + id + " HTTP/1.1\r\n" + host + "\r\n";
+            case GET_ALL -> "GET /visits HTTP/1.1\r\n" + host + "\r\n";
+            case DELETE -> "DELETE /visits?id=" + (options.ids + id) + " HTTP/1.1\r\n" + host + "\r\n";
+            case POST, PUT -> {
+                LocalDateTime startTime = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                        .plusHours(3 + random.nextInt(24 * 4));
+                String body = "{" + (type == RequestType.PUT ? "\"id\":" + id + "," : "")
+                        + "\"fio\":\"Load Generator\",\"contact\":\"load@localhost\","
+                        + "\"startTime\":\"" + startTime + "\",\"endTime\":\"" + startTime.plusHours(1) + "\"}";
+                byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+                yield type.name() + " /visits HTTP/1.1\r\n" + host
+                        + "Content-Type: application/json\r\nContent-Length: " + bodyBytes.length + "\r\n\r\n" + body;
+            }
+        };
+        return request.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void record(InFlight request, int statusCode, long now) {
+        if (request.scheduledTime < measureStart) return;
+        latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - request.scheduledTime), HIGHEST_TRACKABLE_MICROS));
+        serviceTime.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - request.sendTime), HIGHEST_TRACKABLE_MICROS));
+        statusCounts.merge(String.valueOf(statusCode), 1L, Long::sum);
+        typeCounts.merge(request.type, 1L, Long::sum);
+    }
+
+    /**
+     * Records a request left without answer when its connection was closed
+     */
+    private void recordLost(InFlight request, long now) {
+        if (request.scheduledTime < measureStart) return;
+        errors++;
+        latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - request.scheduledTime), HIGHEST_TRACKABLE_MICROS));
+        serviceTime.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - request.sendTime), HIGHEST_TRACKABLE_MICROS));
+        statusCounts.merge("lost", 1L, Long::sum);
+        typeCounts.merge(request.type, 1L, Long::sum);
+    }
+
+    private Map<String, Object> report(long measuredMillis) {
+        Histogram corrected = latency;
+        if (options.rate == 0 && serviceTime.getTotalCount() > 0) {
+            corrected = serviceTime.copyCorrectedForCoordinatedOmission(Math.max(1, (long) serviceTime.getMean()));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("mode", options.rate > 0 ? "open-loop" : "closed-loop");
+        report.put("options", options.toMap());
+        report.put("measuredMillis", measuredMillis);
+        report.put("requests", serviceTime.getTotalCount());
+        report.put("throughputPerSecond", measuredMillis == 0 ? 0 : serviceTime.getTotalCount() * 1000.0 / measuredMillis);
+        report.put("errors", errors);
+        report.put("statusCounts", statusCounts);
+        report.put("requestTypeCounts", typeCounts);
+        report.put("latencyMicros", percentiles(corrected));
+        report.put("serviceTimeMicros", percentiles(serviceTime));
+        return report;
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mean", histogram.getMean());
+        result.put("p50", histogram.getValueAtPercentile(50));
+        result.put("p90", histogram.getValueAtPercentile(90));
+        result.put("p99", histogram.getValueAtPercentile(99));
+        result.put("p99.9", histogram.getValueAtPercentile(99.9));
+        result.put("p99.99", histogram.getValueAtPercentile(99.99));
+        result.put("max", histogram.getMaxValue());
+        return result;
+    }
+
+    /**
+     * @param bytes  received bytes starting with an answer
+     * @param length number of received bytes
+     * @return length of the answer with its body (Content-Length or chunked), -1 if the answer is not complete
+     */
+    public static int answerLength(byte[] bytes, int length) {
+        int headersLength = endOfHeaders(bytes, length);
+        if (headersLength < 0) return -1;
+        String head = new String(bytes, 0, headersLength, StandardCharsets.ISO_8859_1);
+        if (!head.contains("Transfer-Encoding: chunked")) {
+            int answerLength = headersLength + contentLength(head);
+            return length < answerLength ? -1 : answerLength;
+        }
+
+        int position = headersLength;
+        while (true) {
+            int lineEnd = indexOfLineEnd(bytes, position, length);
+            if (lineEnd < 0) return -1;
+            int chunkSize = Integer.parseInt(
+                    new String(bytes, position, lineEnd - position, StandardCharsets.ISO_8859_1).trim(), 16);
+            position = lineEnd + 2 + chunkSize + 2;
+            if (position > length) return -1;
+            if (chunkSize == 0) return position;
+        }
+    }
+
+    /**
+     * @return length of the status line and headers with the empty line, -1 if they are not complete
+     */
+    public static int endOfHeaders(byte[] bytes, int length) {
+        for (int i = 0; i + 3 < length; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfLineEnd(byte[] bytes, int from, int length) {
+        for (int i = from; i + 1 < length; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static int contentLength(String head) {
+        int start = head.indexOf("Content-Length: ");
+        if (start < 0) return 0;
+        start += "Content-Length: ".length();
+        return Integer.parseInt(head.substring(start, head.indexOf('\r', start)));
+    }
+
+    private static final class InFlight {
+        private final RequestType type;
+        private final long scheduledTime;
+        private final long sendTime;
+
+        private InFlight(RequestType type, long scheduledTime, long sendTime) {
+            this.type = type;
+            this.scheduledTime = scheduledTime;
+            this.sendTime = sendTime;
+        }
+    }
+
+    /**
+     * Keep-alive connection with pipelined requests, answers are matched to requests in order
+     */
+    private final class Connection {
+        private final Selector selector;
+        private final ArrayDeque<InFlight> inFlight = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        private ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+        private SocketChannel channel;
+        private SelectionKey key;
+        private boolean connected;
+
+        private Connection(Selector selector) throws IOException {
+            this.selector = selector;
+            open();
+        }
+
+        private void open() throws IOException {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            connected = channel.connect(address);
+            key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            input.clear();
+        }
+
+        private boolean canSend() {
+            return connected && inFlight.size() < options.pipeline;
+        }
+
+        private void send(long scheduledTime, long now) throws IOException {
+            RequestType type = nextRequestType();
+            inFlight.add(new InFlight(type, scheduledTime, now));
+            output.add(ByteBuffer.wrap(buildRequest(type)));
+            flush();
+        }
+
+        private void flush() throws IOException {
+            while (!output.isEmpty()) {
+                ByteBuffer buffer = output.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                output.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void handle(SelectionKey key, long now) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    connected = true;
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                if (key.isWritable()) flush();
+                if (key.isReadable()) read(now);
+            } catch (IOException e) {
+                logger.debug("Connection failed: {}", e.getMessage());
+                reconnect(now);
+            }
+        }
+
+        private void read(long now) throws IOException {
+            if (!input.hasRemaining()) {
+                input = ByteBuffer.allocate(input.capacity() * 2).put(input.flip());
+            }
+            if (channel.read(input) < 0) throw new IOException("Connection closed by server");
+
+            boolean closeRequested = false;
+            while (!inFlight.isEmpty()) {
+                int answerLength = answerLength(input.array(), input.position());
+                if (answerLength < 0) break;
+                int headersLength = endOfHeaders(input.array(), input.position());
+                String head = new String(input.array(), 0, headersLength, StandardCharsets.ISO_8859_1);
+
+                record(inFlight.poll(), Integer.parseInt(head.substring(9, 12)), now);
+                closeRequested |= head.contains("Connection: close");
+                input.flip().position(answerLength);
+                input.compact();
+            }
+            if (closeRequested) reconnect(now);
+        }
+
+        /**
+         * Requests left without answers are recorded as lost, their scheduled slots are not sent again
+         */
+        private void reconnect(long now) {
+            InFlight request;
+            while ((request = inFlight.poll()) != null) recordLost(request, now);
+            output.clear();
+            close();
+            try {
+                open();
+            } catch (IOException e) {
+                logger.warn("Reconnect failed: {}", e.getMessage());
+                connected = false;
+            }
+        }
+
+        private void close() {
+            try {
+                key.cancel();
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Close failed", e);
+            }
+        }
+    }
+
+    public static class LoadOptions {
+        private String host = "localhost";
+        private int port = 8080;
+        private int connections = 16;
+        private int pipeline = 1;
+        private int rate = 0;
+        private int durationSeconds = 30;
+        private int warmupSeconds = 5;
+        private int ids = 100;
+        private boolean embedded;
+        private String output;
+        private final Map<RequestType, Integer> mix = new EnumMap<>(RequestType.class);
+
+        public static LoadOptions parse(String[] args) {
+            LoadOptions options = new LoadOptions();
+            String mix = "GET=90,GET_ALL=2,POST=4,PUT=2,DELETE=2";
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (name.equals("--embedded")) {
+                    options.embedded = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) throw new IllegalArgumentException("No value for option " + name);
+                String value = args[++i];
+                switch (name) {
+                    case "--host" -> options.host = value;
+                    case "--port" -> options.port = Integer.parseInt(value);
+                    case "--connections" -> options.connections = Integer.parseInt(value);
+                    case "--pipeline" -> options.pipeline = Integer.parseInt(value);
+                    case "--rate" -> options.rate = Integer.parseInt(value);
+                    case "--duration" -> options.durationSeconds = Integer.parseInt(value);
+                    case "--warmup" -> options.warmupSeconds = Integer.parseInt(value);
+                    case "--ids" -> options.ids = Integer.parseInt(value);
+                    case "--mix" -> mix = value;
+                    case "--output" -> options.output = value;
+                    default -> throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            for (String part : mix.split(",")) {
+                String[] typeWeight = part.trim().split("=", 2);
+                int weight = Integer.parseInt(typeWeight[1].trim());
+                if (weight > 0) options.mix.put(RequestType.valueOf(typeWeight[0].trim()), weight);
+            }
+            if (options.mix.isEmpty()) throw new IllegalArgumentException("Request mix must not be empty");
+            if (options.connections < 1 || options.pipeline < 1 || options.ids < 1 || options.rate < 0
+                    || options.durationSeconds < 1 || options.warmupSeconds < 0) {
+                throw new IllegalArgumentException("connections, pipeline, ids, duration must be > 0, " +
+                        "rate and warmup must be >= 0");
+            }
+            return options;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("host", host);
+            result.put("port", port);
+            result.put("connections", connections);
+            result.put("pipeline", pipeline);
+            result.put("rate", rate);
+            result.put("durationSeconds", durationSeconds);
+            result.put("warmupSeconds", warmupSeconds);
+            result.put("ids", ids);
+            result.put("embedded", embedded);
+            result.put("mix", mix);
+            return result;
+        }
+    }
+}
@@ -2,27 +2,154 @@ package http.server;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.charset.StandardCharsets;
 
 public class RequestAnswer implements AutoCloseable {
+    private static final byte[] EMPTY_BODY = new byte[0];
     boolean isClosed;
     private ByteBuffer byteBuffer;
+    /**
+     * View of a body shared between answers (e.g. a cached list of visits), written after byteBuffer, not pooled
+     */
+    private ByteBuffer sharedBody;
+    private BufferPool bufferPool;
+    private final ByteBuffer[] headerAndBody = new ByteBuffer[2];
+    private final ByteBuffer[] single = new ByteBuffer[1];
 
     public RequestAnswer() {
     }
 
+    /**
+     * @param bufferPool pool to which the buffer of the answer is returned on close
+     */
+    public RequestAnswer(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @return buffer to be written to the channel next, null if there is nothing to write yet
+     */
     public ByteBuffer getByteBuffer() {
+        if (sharedBody != null && byteBuffer != null && !byteBuffer.hasRemaining()) return sharedBody;
         return byteBuffer;
     }
 
+    /**
+     * @return buffers to be written to the channel next with one gathering write, null if there is nothing
+     * to write yet. The array is reused by the answer.
+     */
+    public ByteBuffer[] getByteBuffers() {
+        if (sharedBody != null && byteBuffer != null && byteBuffer.hasRemaining()) {
+            headerAndBody[0] = byteBuffer;
+            headerAndBody[1] = sharedBody;
+            return headerAndBody;
+        }
+        ByteBuffer buffer = getByteBuffer();
+        if (buffer == null) return null;
+        single[0] = buffer;
+        return single;
+    }
+
+    /**
+     * @return true if the whole answer has been written to the channel
+     */
+    public boolean isWritten() {
+        return (byteBuffer == null || !byteBuffer.hasRemaining())
+                && (sharedBody == null || !sharedBody.hasRemaining());
+    }
+
+    /**
+     * @return true if {@link #getByteBuffers()} gives the whole rest of the answer once the request is processed,
+     * so the answer of the next request can be written in the same write
+     */
+    public boolean hasAllData() {
+        return true;
+    }
+
+    /**
+     * @return true if the answer cannot be completed and the connection must be closed
+     */
+    public boolean isAborted() {
+        return false;
+    }
+
+    /**
+     * Called by the selector thread when everything produced so far has been written,
+     * but the answer is not complete yet.
+     *
+     * @return true if the key has stopped watching the channel for writing until the answer gets more data,
+     * false if data has arrived and can be written now
+     */
+    public boolean awaitData(SelectionKey key) {
+        key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        return true;
+    }
+
     public void setByteBuffer(ByteBuffer byteBuffer) {
         this.byteBuffer = byteBuffer;
     }
 
-    public static void answer(Context context, String responce) {
-        RequestAnswer requestAnswer = new RequestAnswer();
-        requestAnswer.setByteBuffer(ByteBuffer.wrap(responce.getBytes(StandardCharsets.UTF_8)));
+    /**
+     * Answer without body
+     */
+    public static void answer(Context context, int statusCode, String contentType) {
+        answer(context, statusCode, contentType, EMPTY_BODY);
+    }
+
+    /**
+     * Answer with the standard reason phrase, headers and body written into one pooled buffer
+     */
+    public static void answer(Context context, int statusCode, String contentType, byte[] body) {
+        BufferPool bufferPool = context.getBufferPool();
+        ByteBuffer buffer = bufferPool.acquire(ResponseWriter.maxHeaderSize(statusCode, null, contentType) + body.length);
+        ResponseWriter.writeHeader(buffer, statusCode, null, contentType, body.length, context.isKeepAlive());
+        answer(context, buffer.put(body).flip());
+    }
+
+    /**
+     * Answer with a body prepared once and shared between answers, only the headers are written,
+     * the channel gets the headers and the body in one gathering write without copying the body
+     *
+     * @param body body from position to limit, the buffer itself is not changed
+     */
+    public static void answer(Context context, int statusCode, String contentType, ByteBuffer body) {
+        BufferPool bufferPool = context.getBufferPool();
+        ByteBuffer buffer = bufferPool.acquire(ResponseWriter.maxHeaderSize(statusCode, null, contentType));
+        ResponseWriter.writeHeader(buffer, statusCode, null, contentType, body.remaining(), context.isKeepAlive());
+        RequestAnswer requestAnswer = answer(context, buffer.flip());
+        requestAnswer.sharedBody = body.duplicate();
+    }
+
+    /**
+     * Answer with an HTML page showing the message, as error answers are sent
+     *
+     * @param reason reason phrase, null for the standard one of the status code
+     */
+    public static void answerHtml(Context context, int statusCode, String reason, String message) {
+        answerHtml(context, statusCode, reason, message, 0);
+    }
+
+    /**
+     * @param retryAfterSeconds value of the Retry-After header, 0 for none
+     */
+    public static void answerHtml(Context context, int statusCode, String reason, String message,
+                                  int retryAfterSeconds) {
+        byte[] messageBytes = message == null ? EMPTY_BODY : message.getBytes(StandardCharsets.UTF_8);
+        int bodySize = message == null ? 0 : ResponseWriter.htmlBodySize(messageBytes);
+        ByteBuffer buffer = context.getBufferPool()
+                .acquire(ResponseWriter.maxHeaderSize(statusCode, reason, ResponseWriter.TEXT_HTML) + bodySize);
+        ResponseWriter.writeHeader(buffer, statusCode, reason, ResponseWriter.TEXT_HTML, bodySize, context.isKeepAlive(),
+                retryAfterSeconds);
+        if (message != null) ResponseWriter.writeHtmlBody(buffer, messageBytes);
+        answer(context, buffer.flip());
+    }
+
+    private static RequestAnswer answer(Context context, ByteBuffer buffer) {
+        RequestAnswer requestAnswer = new RequestAnswer(context.getBufferPool());
+        requestAnswer.setByteBuffer(buffer);
         context.setRequestAnswer(requestAnswer);
+        return requestAnswer;
     }
 
     @Override
@@ -30,9 +157,14 @@ public class RequestAnswer implements AutoCloseable {
         if (isClosed) return;
         try {
             if (byteBuffer != null) {
-                byteBuffer.clear();
+                if (bufferPool != null) {
+                    bufferPool.release(byteBuffer);
+                } else {
+                    byteBuffer.clear();
+                }
                 byteBuffer = null;
             }
+            sharedBody = null;
         } finally {
             isClosed = true;
         }
@@ -0,0 +1,98 @@
+package http.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes request processors outside selector threads, so that blocking database calls
+ * do not stop I/O of other connections of the same selector.
+ *
+ * <p>The number of tasks in progress (running and waiting in the queue) is limited by
+ * poolSize + queueSize, when the limit is reached the task is not accepted
+ * and the caller answers 503 instead of queueing the request indefinitely.
+ *
+ * <p>As an {@link Executor} it runs the continuations of asynchronous requests, which were accepted before.
+ */
+public class RequestExecutor implements Executor, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(RequestExecutor.class);
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final boolean useVirtualThread;
+
+    public RequestExecutor(boolean useVirtualThread, int poolSize, int queueSize) {
+        this.useVirtualThread = useVirtualThread;
+        this.permits = new Semaphore(poolSize + queueSize);
+        this.executor = useVirtualThread
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(poolSize, workerThreadFactory());
+    }
+
+    private static ThreadFactory workerThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "request-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return false if the executor is saturated or stopped and the task was not accepted
+     */
+    public boolean trySubmit(Runnable task) {
+        if (!permits.tryAcquire()) return false;
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            return false;
+        }
+    }
+
+    /**
+     * Runs the continuation of an accepted request without the limit: the request already waited for its result,
+     * answering it is cheaper than rejecting it
+     *
+     * @throws RejectedExecutionException if the executor is stopped
+     */
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public boolean isUseVirtualThread() {
+        return useVirtualThread;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(3, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+                if (!executor.awaitTermination(3, TimeUnit.SECONDS)) {
+                    logger.error("Request executor did not terminate");
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,97 +1,213 @@
 package http.server;
 
-import http.server.application.Repository;
+import http.server.application.AsyncVisitStore;
+import http.server.application.VisitStore;
 import http.server.error.AppException;
 import http.server.error.ErrorDto;
 import http.server.error.ErrorFactory;
 import http.server.error.HttpErrorType;
+import http.server.metrics.Histogram;
+import http.server.metrics.Metrics;
+import http.server.parser.ParsingResult;
+import http.server.parser.RequestDto;
 import http.server.processors.*;
+import http.server.trace.RequestTrace;
+import http.server.trace.SlowRequestLog;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+/**
+ * Finds the processor of a request in the compiled route table: the parser has already matched the path,
+ * the router takes the processor of the method from the route.
+ * With an asynchronous store the reads of visits are routed to {@link AsyncRequestProcessor}s,
+ * which {@link #routeAsync} runs without a worker thread.
+ */
 public class RequestRouter {
     private static final Logger logger = LogManager.getLogger(RequestRouter.class);
-    private static Map<String, RequestProcessor> processors;
-    private static RequestProcessor errorProcessor;
-    private static Set<String> paths;
+    private static final String UNMATCHED_ROUTE = "unmatched";
+    private final RouteTable routeTable = new RouteTable();
+    private final RequestProcessor errorProcessor = new ErrorProcessor();
+    /**
+     * Processing time by processor, labelled with method and route pattern,
+     * requests without processor are counted as unmatched
+     */
+    private final Map<RequestProcessor, Histogram> durations = new IdentityHashMap<>();
+    private final Histogram unmatchedDuration;
 
 
-    public RequestRouter(Repository repository) {
-        processors = Map.copyOf(initProcessors(repository));
-        paths = Set.copyOf(splitProcessors(processors, 1));
-        errorProcessor = processors.get(ErrorProcessor.class.getSimpleName());
-        if (errorProcessor == null) {
-            throw new RuntimeException("ErrorProcessor must be registered in processors");
-        }
+    public RequestRouter(VisitStore repository) {
+        this(repository, new Metrics(), new SlowRequestLog(0, 1));
     }
 
-    private static RequestProcessor getErrorProcessor() {
-        return errorProcessor;
+    public RequestRouter(VisitStore repository, Metrics metrics, SlowRequestLog slowRequestLog) {
+        this(repository, null, metrics, slowRequestLog);
     }
 
-    private static RequestProcessor getProcessor(String routingKey) {
-        return processors.get(routingKey);
+    /**
+     * @param asyncRepository store of the GET requests of visits, null to read them with the repository
+     */
+    public RequestRouter(VisitStore repository, AsyncVisitStore asyncRepository, Metrics metrics,
+                         SlowRequestLog slowRequestLog) {
+        durations.put(errorProcessor, requestDuration(metrics, ErrorProcessor.class.getSimpleName()));
+        unmatchedDuration = requestDuration(metrics, UNMATCHED_ROUTE);
+
+        addRoute(metrics, HttpMethod.GET, "/visits", getVisitsProcessor(repository, asyncRepository));
+        addRoute(metrics, HttpMethod.POST, "/visits", new CreateVisitProcessor(repository));
+        addRoute(metrics, HttpMethod.DELETE, "/visits", new DeleteVisitProcessor(repository));
+        addRoute(metrics, HttpMethod.PUT, "/visits", new PutVisitProcessor(repository));
+        addRoute(metrics, HttpMethod.GET, "/visits/{id}", getVisitsProcessor(repository, asyncRepository));
+        addRoute(metrics, HttpMethod.DELETE, "/visits/{id}", new DeleteVisitProcessor(repository));
+        addRoute(metrics, HttpMethod.GET, "/metrics", new MetricsProcessor(metrics));
+        addRoute(metrics, HttpMethod.GET, "/debug/slow-requests", new SlowRequestsProcessor(slowRequestLog));
     }
 
-    private Map<String, RequestProcessor> initProcessors(Repository repository) {
-        Map<String, RequestProcessor> result = new HashMap<>(6);
-        result.put(ErrorProcessor.class.getSimpleName(), new ErrorProcessor());
-        result.put("GET /visits", new GetVisitsProcessor(repository));
-        result.put("POST /visits", new CreateVisitProcessor(repository));
-        result.put("DELETE /visits", new DeleteVisitProcessor(repository));
-        result.put("PUT /visits", new PutVisitProcessor(repository));
+    private static RequestProcessor getVisitsProcessor(VisitStore repository, AsyncVisitStore asyncRepository) {
+        GetVisitsProcessor getVisitsProcessor = new GetVisitsProcessor(repository);
+        return asyncRepository != null
+                ? new AsyncGetVisitsProcessor(asyncRepository, getVisitsProcessor)
+                : getVisitsProcessor;
+    }
 
-        return result;
+    private void addRoute(Metrics metrics, HttpMethod method, String pattern, RequestProcessor processor) {
+        routeTable.add(method, pattern, processor);
+        durations.put(processor, requestDuration(metrics, method + " " + pattern));
     }
 
-    private Set<String> splitProcessors(Map<String, RequestProcessor> processors, int index) {
-        Set<String> result = new HashSet<>();
-        for (String key : processors.keySet()) {
-            String[] keySplitted = key.split(" ", 2);
-            if (keySplitted.length > index)
-                result.add(keySplitted[index]);
-        }
-        return result;
+    private static Histogram requestDuration(Metrics metrics, String route) {
+        return metrics.histogram("http_server_request_duration_seconds",
+                "Time of processing requests by route", "route", route);
+    }
+
+    /**
+     * Route table the parser matches request paths against
+     */
+    public RouteTable getRouteTable() {
+        return routeTable;
     }
 
     public void route(Context context, SocketChannel clientChannel, ByteBuffer inputByteBuffer) throws Exception {
-        String routingKey = context.getRoutingKey();
-        RequestProcessor requestProcessor = getProcessor(routingKey);
+        long start = System.nanoTime();
+        RequestProcessor requestProcessor = findProcessor(context);
+        Histogram duration = durations.getOrDefault(requestProcessor, unmatchedDuration);
+        RequestTrace trace = context.getTrace();
+        if (trace != null) {
+            trace.markProcessing();
+            RequestTrace.setCurrent(trace);
+        }
+        try {
+            process(context, clientChannel, inputByteBuffer, requestProcessor);
+        } finally {
+            duration.recordNanos(System.nanoTime() - start);
+            if (trace != null) {
+                RequestTrace.setCurrent(null);
+                trace.markProcessed();
+            }
+        }
+    }
+
+    /**
+     * Starts the request if its processor is asynchronous. The processing time and the trace are recorded
+     * when the future completes, an error is answered by the error processor before that.
+     *
+     * @return future completed when the answer is set, null without side effects if the processor is not
+     * asynchronous for the request and it has to be routed by {@link #route} in a worker thread
+     */
+    public CompletableFuture<Void> routeAsync(Context context, SocketChannel clientChannel,
+                                              ByteBuffer inputByteBuffer) {
+        ParsingResult parsingResult = context.getParsingResult();
+        if (!parsingResult.isSuccess()) return null;
+        RequestDto requestDto = parsingResult.getValue().get();
+        Route route = requestDto.isRouted() ? requestDto.getRoute() : routeTable.match(requestDto.getUri());
+        if (route == null
+                || !(route.getProcessor(requestDto.getMethod()) instanceof AsyncRequestProcessor requestProcessor)
+                || !requestProcessor.isAsync(requestDto)) {
+            return null;
+        }
 
-        if ((requestProcessor == null || requestProcessor == getErrorProcessor()) && paths.contains(context.getUri())) {
-            ErrorDto errorDto = ErrorFactory.createErrorDto(HttpErrorType.METHOD_NOT_ALLOWED,
-                    "METHOD NOT ALLOWED");
-            context.setErrorParsingResult(errorDto);
-            requestProcessor = getErrorProcessor();
+        long start = System.nanoTime();
+        Histogram duration = durations.get(requestProcessor);
+        RequestTrace trace = context.getTrace();
+        if (trace != null) trace.markProcessing();
+        CompletableFuture<Void> future;
+        try {
+            future = requestProcessor.executeAsync(context, inputByteBuffer);
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.handle((result, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                try {
+                    handleError(context, clientChannel, inputByteBuffer,
+                            cause instanceof Exception exception ? exception : new CompletionException(cause));
+                } catch (Exception errorProcessorException) {
+                    logger.error("Error answering failed request", errorProcessorException);
+                }
+            }
+            duration.recordNanos(System.nanoTime() - start);
+            if (trace != null) trace.markProcessed();
+            return null;
+        });
+    }
+
+    /**
+     * @return processor of the method of the matched route, null if the path or the method is not supported,
+     * the error processor for rejected requests
+     */
+    private RequestProcessor findProcessor(Context context) {
+        ParsingResult parsingResult = context.getParsingResult();
+        if (!parsingResult.isSuccess()) return errorProcessor;
 
-        } else if (requestProcessor == null) {
-            requestProcessor = getErrorProcessor();
+        RequestDto requestDto = parsingResult.getValue().get();
+        Route route = requestDto.isRouted() ? requestDto.getRoute() : routeTable.match(requestDto.getUri());
+        if (route == null) {
             logger.warn("Processor not found by routingKey '{}', process processed by processor '{}'",
-                    routingKey, requestProcessor.getClass().getSimpleName());
-            ErrorDto errorDto = ErrorFactory.notFoundErrorDto("RESOURCE NOT FOUND");
-            context.setErrorParsingResult(errorDto);
+                    context.getRoutingKey(), ErrorProcessor.class.getSimpleName());
+            context.setErrorParsingResult(ErrorFactory.notFoundErrorDto("RESOURCE NOT FOUND"));
+            return null;
+        }
+        RequestProcessor requestProcessor = route.getProcessor(requestDto.getMethod());
+        if (requestProcessor == null) {
+            context.setErrorParsingResult(ErrorFactory.createErrorDto(HttpErrorType.METHOD_NOT_ALLOWED,
+                    "METHOD NOT ALLOWED"));
         }
+        return requestProcessor;
+    }
 
+    private void process(Context context, SocketChannel clientChannel, ByteBuffer inputByteBuffer,
+                         RequestProcessor requestProcessor) throws Exception {
+        if (requestProcessor == null) requestProcessor = errorProcessor;
         try {
             requestProcessor.execute(context, clientChannel, inputByteBuffer);
         } catch (Exception e) {
+            handleError(context, clientChannel, inputByteBuffer, e);
+        }
+    }
+
+    /**
+     * Answers the failed request with the status of the AppException, 500 for other exceptions
+     */
+    private void handleError(Context context, SocketChannel clientChannel, ByteBuffer inputByteBuffer,
+                             Exception e) throws Exception {
+        if (e instanceof AppException appException && appException.isClientError()) {
+            logger.warn("Request {} rejected: {}", context.getRoutingKey(), e.getMessage());
+        } else {
             logger.error("Error in requestProcessor.execute", e);
-            RequestProcessor errorProcessor = getErrorProcessor();
-            ErrorDto errorDto;
-            if (e instanceof AppException appException) {
-                errorDto = ErrorFactory.createErrorDto(appException);
-            } else {
-                errorDto = ErrorFactory.createErrorDto(HttpErrorType.INTERNAL_SERVER_ERROR, e.getMessage());
-            }
-            context.setErrorParsingResult(errorDto);
-            errorProcessor.execute(context, clientChannel, inputByteBuffer);
         }
+        ErrorDto errorDto;
+        if (e instanceof AppException appException) {
+            errorDto = ErrorFactory.createErrorDto(appException);
+        } else {
+            errorDto = ErrorFactory.createErrorDto(HttpErrorType.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+        context.setErrorParsingResult(errorDto);
+        errorProcessor.execute(context, clientChannel, inputByteBuffer);
     }
 }
@@ -0,0 +1,177 @@
+package http.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the status line and headers of answers straight into byte buffers.
+ *
+ * <p>Status lines of known codes and common headers are encoded once, Content-Length is written digit by digit,
+ * so an answer needs no String.format and no intermediate Strings. A reason phrase or a content type that is
+ * not prepared in advance is copied char by char, it must be ASCII. Status codes have 3 digits and numbers
+ * are not negative, other values are rejected with IllegalArgumentException.
+ */
+public final class ResponseWriter {
+    public static final String APPLICATION_JSON = "application/json";
+    public static final String TEXT_HTML = "text/html";
+    /**
+     * Content length of an answer with chunked transfer encoding
+     */
+    public static final int CHUNKED = -1;
+    private static final int MAX_STATUS_CODE = 599;
+    private static final String UNKNOWN_REASON = "Unknown";
+    private static final byte[][] STATUS_LINES = new byte[MAX_STATUS_CODE + 1][];
+    private static final byte[] CONTENT_TYPE_JSON = ascii("Content-Type: application/json\r\n");
+    private static final byte[] CONTENT_TYPE_HTML = ascii("Content-Type: text/html\r\n");
+    private static final byte[] CONTENT_TYPE = ascii("Content-Type: ");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+    private static final byte[] RETRY_AFTER = ascii("Retry-After: ");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n\r\n");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n\r\n");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] HTML_START = ascii("<html><body><h1>");
+    private static final byte[] HTML_END = ascii("</h1></body></html>");
+    /**
+     * Length of the longest line with a number: "Content-Length: " with 10 digits and CRLF
+     */
+    private static final int MAX_NUMBER_LINE_SIZE = CONTENT_LENGTH.length + 10 + CRLF.length;
+
+    static {
+        statusLine(200, "OK");
+        statusLine(201, "Created");
+        statusLine(204, "No Content");
+        statusLine(400, "Bad Request");
+        statusLine(404, "Not Found");
+        statusLine(405, "Method Not Allowed");
+        statusLine(413, "Payload Too Large");
+        statusLine(500, "Internal Server Error");
+        statusLine(503, "Service Unavailable");
+    }
+
+    private ResponseWriter() {
+    }
+
+    private static void statusLine(int statusCode, String reason) {
+        STATUS_LINES[statusCode] = ascii("HTTP/1.1 " + statusCode + " " + reason + "\r\n");
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return max number of bytes written by {@link #writeHeader} with these arguments
+     */
+    public static int maxHeaderSize(int statusCode, String reason, String contentType) {
+        int statusLineSize = reason == null && isPrepared(statusCode)
+                ? STATUS_LINES[statusCode].length
+                : "HTTP/1.1 000 \r\n".length() + (reason == null ? UNKNOWN_REASON : reason).length();
+        int contentTypeSize = contentType == null || contentType.equals(TEXT_HTML) ? CONTENT_TYPE_HTML.length
+                : contentType.equals(APPLICATION_JSON) ? CONTENT_TYPE_JSON.length
+                : CONTENT_TYPE.length + contentType.length() + CRLF.length;
+        return statusLineSize + contentTypeSize
+                + Math.max(MAX_NUMBER_LINE_SIZE, TRANSFER_ENCODING_CHUNKED.length)
+                + MAX_NUMBER_LINE_SIZE
+                + CONNECTION_KEEP_ALIVE.length;
+    }
+
+    /**
+     * Writes the status line, Content-Type, Content-Length or Transfer-Encoding, Retry-After if it is set,
+     * Connection and the empty line
+     *
+     * @param reason            reason phrase, null for the standard one of the status code
+     * @param contentType       null for text/html
+     * @param contentLength     length of the body, {@link #CHUNKED} for chunked transfer encoding
+     * @param retryAfterSeconds value of Retry-After, 0 for none
+     * @return target
+     */
+    public static ByteBuffer writeHeader(ByteBuffer target, int statusCode, String reason, String contentType,
+                                         int contentLength, boolean keepAlive, int retryAfterSeconds) {
+        if (statusCode < 100 || statusCode > 999) {
+            throw new IllegalArgumentException("Status code must have 3 digits: " + statusCode);
+        }
+        if (contentLength < 0 && contentLength != CHUNKED) {
+            throw new IllegalArgumentException("Content length must not be negative: " + contentLength);
+        }
+        if (reason == null && isPrepared(statusCode)) {
+            target.put(STATUS_LINES[statusCode]);
+        } else {
+            target.put((byte) 'H').put((byte) 'T').put((byte) 'T').put((byte) 'P')
+                    .put((byte) '/').put((byte) '1').put((byte) '.').put((byte) '1').put((byte) ' ');
+            putNumber(target, statusCode);
+            target.put((byte) ' ');
+            putAscii(target, reason != null ? reason : UNKNOWN_REASON);
+            target.put(CRLF);
+        }
+
+        if (contentType == null || contentType.equals(TEXT_HTML)) {
+            target.put(CONTENT_TYPE_HTML);
+        } else if (contentType.equals(APPLICATION_JSON)) {
+            target.put(CONTENT_TYPE_JSON);
+        } else {
+            target.put(CONTENT_TYPE);
+            putAscii(target, contentType);
+            target.put(CRLF);
+        }
+
+        if (contentLength == CHUNKED) {
+            target.put(TRANSFER_ENCODING_CHUNKED);
+        } else {
+            target.put(CONTENT_LENGTH);
+            putNumber(target, contentLength);
+            target.put(CRLF);
+        }
+        if (retryAfterSeconds > 0) {
+            target.put(RETRY_AFTER);
+            putNumber(target, retryAfterSeconds);
+            target.put(CRLF);
+        }
+        return target.put(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+    }
+
+    /**
+     * Writes the headers of an answer without Retry-After
+     */
+    public static ByteBuffer writeHeader(ByteBuffer target, int statusCode, String reason, String contentType,
+                                         int contentLength, boolean keepAlive) {
+        return writeHeader(target, statusCode, reason, contentType, contentLength, keepAlive, 0);
+    }
+
+    /**
+     * @return length of the HTML page with the message written by {@link #writeHtmlBody}
+     */
+    public static int htmlBodySize(byte[] message) {
+        return HTML_START.length + message.length + HTML_END.length;
+    }
+
+    public static ByteBuffer writeHtmlBody(ByteBuffer target, byte[] message) {
+        return target.put(HTML_START).put(message).put(HTML_END);
+    }
+
+    private static boolean isPrepared(int statusCode) {
+        return statusCode >= 0 && statusCode <= MAX_STATUS_CODE && STATUS_LINES[statusCode] != null;
+    }
+
+    private static void putAscii(ByteBuffer target, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            target.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * @param value not negative
+     */
+    private static void putNumber(ByteBuffer target, int value) {
+        if (value < 0) throw new IllegalArgumentException("Number must not be negative: " + value);
+        if (value < 10) {
+            target.put((byte) ('0' + value));
+            return;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            target.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+}
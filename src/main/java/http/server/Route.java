@@ -0,0 +1,97 @@
+package http.server;
+
+import http.server.processors.RequestProcessor;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * Path of the route table with the processors of its methods.
+ *
+ * <p>The pattern consists of literal segments and parameters in braces, for example /visits/{id}.
+ * Parameter values are passed to the processors as request parameters.
+ */
+public final class Route {
+    private final String pattern;
+    private final String[] segments;
+    private final String[] parameterNames;
+    private final int[] parameterSegments;
+    private final EnumMap<HttpMethod, RequestProcessor> processors = new EnumMap<>(HttpMethod.class);
+
+    Route(String pattern) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+        }
+        this.pattern = pattern;
+        this.segments = pattern.substring(1).split("/", -1);
+        List<String> names = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < segments.length; i++) {
+            if (isParameter(segments[i])) {
+                names.add(segments[i].substring(1, segments[i].length() - 1));
+                indexes.add(i);
+            }
+        }
+        this.parameterNames = names.toArray(new String[0]);
+        this.parameterSegments = indexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    static boolean isParameter(String segment) {
+        return segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    String[] getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return processor of the method, null if the path does not support the method
+     */
+    public RequestProcessor getProcessor(HttpMethod method) {
+        return processors.get(method);
+    }
+
+    void setProcessor(HttpMethod method, RequestProcessor processor) {
+        if (processors.putIfAbsent(method, processor) != null) {
+            throw new IllegalArgumentException("Route " + method + " " + pattern + " is already registered");
+        }
+    }
+
+    public String[] getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * @param start start of the path matched by this route, after it the segments are read
+     * @param base  position the slices are counted from
+     * @return start and end of every parameter value relative to base, null if the route has no parameters
+     */
+    public int[] findParameters(byte[] bytes, int start, int end, int base) {
+        if (parameterNames.length == 0) return null;
+        int[] slices = new int[parameterNames.length * 2];
+        int segment = 0;
+        int parameter = 0;
+        int position = start + 1;
+        while (parameter < parameterSegments.length) {
+            int segmentEnd = RouteTable.segmentEnd(bytes, position, end);
+            if (segment == parameterSegments[parameter]) {
+                slices[parameter * 2] = position - base;
+                slices[parameter * 2 + 1] = segmentEnd - base;
+                parameter++;
+            }
+            segment++;
+            position = segmentEnd + 1;
+        }
+        return slices;
+    }
+
+    @Override
+    public String toString() {
+        return pattern + " " + processors.keySet();
+    }
+}
@@ -0,0 +1,102 @@
+package http.server;
+
+import http.server.processors.RequestProcessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Routes compiled into a trie of path segments, matched on the raw bytes of the request path
+ * while the request line is parsed, so no String is created to find the processor.
+ *
+ * <p>Literal segments are compared byte by byte, a parameter segment ({name}) matches any non-empty
+ * segment. Literal segments are tried first, if the rest of the path does not match after them,
+ * the parameter is tried. Routes are added at startup, before the table is used by parsers.
+ */
+public final class RouteTable {
+    private static final byte SLASH = (byte) '/';
+    private final Node root = new Node();
+
+    public void add(HttpMethod method, String pattern, RequestProcessor processor) {
+        Node node = root;
+        Route route = new Route(pattern);
+        for (String segment : route.getSegments()) {
+            node = Route.isParameter(segment) ? node.parameterChild() : node.literalChild(segment);
+        }
+        if (node.route == null) {
+            node.route = route;
+        } else if (!node.route.getPattern().equals(pattern)) {
+            throw new IllegalArgumentException("Route " + pattern + " conflicts with " + node.route.getPattern());
+        }
+        node.route.setProcessor(method, processor);
+    }
+
+    /**
+     * @param start start of the path (first '/')
+     * @param end   end of the path, without query
+     * @return route of the path, null if none matches
+     */
+    public Route match(byte[] bytes, int start, int end) {
+        if (start == end || bytes[start] != SLASH) return null;
+        return match(root, bytes, start + 1, end);
+    }
+
+    /**
+     * Matches a path that was not parsed from bytes, for requests created in code
+     */
+    public Route match(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        return match(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param position start of the next segment, after '/'
+     */
+    private static Route match(Node node, byte[] bytes, int position, int end) {
+        int segmentEnd = segmentEnd(bytes, position, end);
+        for (int i = 0; i < node.segments.length; i++) {
+            byte[] segment = node.segments[i];
+            if (Arrays.equals(bytes, position, segmentEnd, segment, 0, segment.length)) {
+                Route route = next(node.children[i], bytes, segmentEnd, end);
+                if (route != null) return route;
+            }
+        }
+        if (node.parameter != null && segmentEnd > position) {
+            return next(node.parameter, bytes, segmentEnd, end);
+        }
+        return null;
+    }
+
+    private static Route next(Node node, byte[] bytes, int segmentEnd, int end) {
+        return segmentEnd == end ? node.route : match(node, bytes, segmentEnd + 1, end);
+    }
+
+    static int segmentEnd(byte[] bytes, int position, int end) {
+        while (position < end && bytes[position] != SLASH) position++;
+        return position;
+    }
+
+    private static final class Node {
+        private byte[][] segments = new byte[0][];
+        private Node[] children = new Node[0];
+        private Node parameter;
+        private Route route;
+
+        private Node literalChild(String segment) {
+            byte[] bytes = segment.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < segments.length; i++) {
+                if (Arrays.equals(segments[i], bytes)) return children[i];
+            }
+            segments = Arrays.copyOf(segments, segments.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            segments[segments.length - 1] = bytes;
+            children[children.length - 1] = new Node();
+            return children[children.length - 1];
+        }
+
+        private Node parameterChild() {
+            if (parameter == null) parameter = new Node();
+            return parameter;
+        }
+    }
+}
@@ -21,6 +21,13 @@ public class ServerConfig {
         }
     }
 
+    public ServerConfig(Properties properties) {
+        if (properties == null) {
+            throw new IllegalArgumentException("properties must not be null");
+        }
+        this.properties = properties;
+    }
+
     public String getPasswordDatabase() {
         return properties.getProperty("server.passwordDatabase", "1234");
     }
@@ -65,7 +72,201 @@ public class ServerConfig {
         return properties.getProperty("server.use_virtual_thread", "false");
     }
 
+    /**
+     * @return selector for NIO selector loops with a worker pool, virtual-thread-per-connection for blocking
+     * channels served by one virtual thread each
+     */
+    public String getEngine() {
+        return properties.getProperty("server.engine", "selector");
+    }
+
     public String getMaxPoolSize() {
         return properties.getProperty("server.max-pool-size", "10");
     }
-}
\ No newline at end of file
+
+    public String getKeepAliveTimeout() {
+        return properties.getProperty("server.keep-alive-timeout", "15000");
+    }
+
+    public String getMaxKeepAliveRequests() {
+        return properties.getProperty("server.max-keep-alive-requests", "100");
+    }
+
+    public String getMaxPipelinedRequests() {
+        return properties.getProperty("server.max-pipelined-requests", "16");
+    }
+
+    public String getWorkerUseVirtualThread() {
+        return properties.getProperty("server.worker-use-virtual-thread", "false");
+    }
+
+    public String getWorkerPoolSize() {
+        return properties.getProperty("server.worker-pool-size", "16");
+    }
+
+    public String getWorkerQueueSize() {
+        return properties.getProperty("server.worker-queue-size", "1000");
+    }
+
+    public String getMaxConnections() {
+        return properties.getProperty("server.max-connections", "10000");
+    }
+
+    public String getConnectionBalancing() {
+        return properties.getProperty("server.connection-balancing", "round-robin");
+    }
+
+    public String getBufferPoolMaxFreeBuffers() {
+        return properties.getProperty("server.buffer-pool-max-free-buffers", "1024");
+    }
+
+    public String getBufferPoolDebug() {
+        return properties.getProperty("server.buffer-pool-debug", "false");
+    }
+
+    public String getDbPrepareThreshold() {
+        return properties.getProperty("server.db-prepare-threshold", "1");
+    }
+
+    public String getDbPreparedStatementCacheQueries() {
+        return properties.getProperty("server.db-prepared-statement-cache-queries", "256");
+    }
+
+    public String getDbPreparedStatementCacheSizeMiB() {
+        return properties.getProperty("server.db-prepared-statement-cache-size-mib", "5");
+    }
+
+    public String getVisitCacheSize() {
+        return properties.getProperty("server.visit-cache-size", "10000");
+    }
+
+    public String getVisitCacheListMaxBytes() {
+        return properties.getProperty("server.visit-cache-list-max-bytes", "4194304");
+    }
+
+    public String getVisitPeriodIndex() {
+        return properties.getProperty("server.visit-period-index", "true");
+    }
+
+    public String getWriteBatchSize() {
+        return properties.getProperty("server.write-batch-size", "64");
+    }
+
+    public String getWriteBatchDelayMicros() {
+        return properties.getProperty("server.write-batch-delay-micros", "200");
+    }
+
+    public String getStorage() {
+        return properties.getProperty("server.storage", "postgres");
+    }
+
+    public String getStorageLogPath() {
+        return properties.getProperty("server.storage-log-path", "data/visits.log");
+    }
+
+    public String getStorageLogSync() {
+        return properties.getProperty("server.storage-log-sync", "true");
+    }
+
+    /**
+     * Logging profile, applied by {@link Application} before the first logger is created:
+     * <ul>
+     *   <li>development - log4j2.xml: synchronous appenders, TRACE level with line numbers, for debugging</li>
+     *   <li>production - log4j2-production.xml: asynchronous loggers, INFO level, garbage-free layouts
+     *   without location, per-request errors rate-limited. Use it for load tests and deployment:
+     *   in the development profile logging costs more than processing the request</li>
+     * </ul>
+     * A configuration passed with -Dlog4j2.configurationFile takes precedence over the profile.
+     */
+    /**
+     * @return min time of a request, in milliseconds, to keep its trace for GET /debug/slow-requests,
+     * 0 disables tracing
+     */
+    public String getSlowRequestThresholdMillis() {
+        return properties.getProperty("server.slow-request-threshold-millis", "0");
+    }
+
+    public String getSlowRequestLogSize() {
+        return properties.getProperty("server.slow-request-log-size", "100");
+    }
+
+    /**
+     * @return lower bound of the pool size when it is adjusted automatically
+     */
+    public String getMinPoolSize() {
+        return properties.getProperty("server.min-pool-size", "2");
+    }
+
+    public String getDbConnectionTimeoutMillis() {
+        return properties.getProperty("server.db-connection-timeout-millis", "1000");
+    }
+
+    /**
+     * @return time a connection may be held before a leak is logged, 0 disables the detection
+     */
+    public String getDbLeakDetectionThresholdMillis() {
+        return properties.getProperty("server.db-leak-detection-threshold-millis", "5000");
+    }
+
+    /**
+     * @return true to adjust the pool size between min-pool-size and max-pool-size by the acquire wait
+     */
+    public String getDbPoolAutoSize() {
+        return properties.getProperty("server.db-pool-auto-size", "true");
+    }
+
+    public String getDbPoolAdjustIntervalMillis() {
+        return properties.getProperty("server.db-pool-adjust-interval-millis", "1000");
+    }
+
+    /**
+     * @return mean wait for a connection above which the pool grows
+     */
+    public String getDbAcquireTargetMillis() {
+        return properties.getProperty("server.db-acquire-target-millis", "10");
+    }
+
+    /**
+     * @return threads waiting for a connection at which new requests are answered with 503
+     */
+    public String getDbMaxPendingAcquires() {
+        return properties.getProperty("server.db-max-pending-acquires", "32");
+    }
+
+    /**
+     * @return value of Retry-After in 503 answers
+     */
+    public String getRetryAfterSeconds() {
+        return properties.getProperty("server.retry-after-seconds", "1");
+    }
+
+    /**
+     * @return true to read visits from Postgres with pipelined queries of one event loop thread,
+     * used only with the postgres storage
+     */
+    public String getDbAsync() {
+        return properties.getProperty("server.db-async", "false");
+    }
+
+    public String getDbAsyncConnections() {
+        return properties.getProperty("server.db-async-connections", "2");
+    }
+
+    /**
+     * @return asynchronous queries queued or in flight at which new requests are answered with 503
+     */
+    public String getDbAsyncMaxPending() {
+        return properties.getProperty("server.db-async-max-pending", "1024");
+    }
+
+    public String getLoggingProfile() {
+        return properties.getProperty("server.logging-profile", "development");
+    }
+
+    /**
+     * @return log4j2 configuration file of the logging profile
+     */
+    public String getLoggingConfigurationFile() {
+        return getLoggingProfile().equals("production") ? "log4j2-production.xml" : "log4j2.xml";
+    }
+}
@@ -99,6 +99,14 @@ public class ServerValidator {
             throw new IllegalArgumentException("Use virtual threads must be true or false");
         }
 
+        String engine = serverConfig.getEngine();
+        if (engine == null || engine.trim().isEmpty()) {
+            throw new IllegalArgumentException("Engine must be not empty");
+        }
+        if (!engine.equals("selector") && !engine.equals("virtual-thread-per-connection")) {
+            throw new IllegalArgumentException("Engine must be selector or virtual-thread-per-connection");
+        }
+
         String maxPoolSize = serverConfig.getMaxPoolSize();
         if (maxPoolSize == null || maxPoolSize.trim().isEmpty()) {
             throw new IllegalArgumentException("maxPoolSize must be not empty");
@@ -110,5 +118,385 @@ public class ServerValidator {
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Maximum pool size must be >= 1 and <= 50");
         }
+
+        String keepAliveTimeout = serverConfig.getKeepAliveTimeout();
+        if (keepAliveTimeout == null || keepAliveTimeout.trim().isEmpty()) {
+            throw new IllegalArgumentException("Keep-alive timeout must be not empty");
+        }
+        try {
+            int keepAliveTimeoutInt = Integer.parseInt(keepAliveTimeout);
+            if (keepAliveTimeoutInt < 1000 || keepAliveTimeoutInt > 300000)
+                throw new IllegalArgumentException("Keep-alive timeout must be >= 1000 and <= 300000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Keep-alive timeout must be >= 1000 and <= 300000");
+        }
+
+        String maxKeepAliveRequests = serverConfig.getMaxKeepAliveRequests();
+        if (maxKeepAliveRequests == null || maxKeepAliveRequests.trim().isEmpty()) {
+            throw new IllegalArgumentException("Max keep-alive requests must be not empty");
+        }
+        try {
+            int maxKeepAliveRequestsInt = Integer.parseInt(maxKeepAliveRequests);
+            if (maxKeepAliveRequestsInt < 1 || maxKeepAliveRequestsInt > 100000)
+                throw new IllegalArgumentException("Max keep-alive requests must be >= 1 and <= 100000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Max keep-alive requests must be >= 1 and <= 100000");
+        }
+
+        String maxPipelinedRequests = serverConfig.getMaxPipelinedRequests();
+        if (maxPipelinedRequests == null || maxPipelinedRequests.trim().isEmpty()) {
+            throw new IllegalArgumentException("Max pipelined requests must be not empty");
+        }
+        try {
+            int maxPipelinedRequestsInt = Integer.parseInt(maxPipelinedRequests);
+            if (maxPipelinedRequestsInt < 1 || maxPipelinedRequestsInt > 1024)
+                throw new IllegalArgumentException("Max pipelined requests must be >= 1 and <= 1024");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Max pipelined requests must be >= 1 and <= 1024");
+        }
+
+        String workerUseVirtualThread = serverConfig.getWorkerUseVirtualThread();
+        if (workerUseVirtualThread == null || workerUseVirtualThread.trim().isEmpty()) {
+            throw new IllegalArgumentException("Worker use virtual threads must be not empty");
+        }
+        if (!workerUseVirtualThread.equals("false") && !workerUseVirtualThread.equals("true")) {
+            throw new IllegalArgumentException("Worker use virtual threads must be true or false");
+        }
+
+        String workerPoolSize = serverConfig.getWorkerPoolSize();
+        if (workerPoolSize == null || workerPoolSize.trim().isEmpty()) {
+            throw new IllegalArgumentException("Worker pool size must be not empty");
+        }
+        try {
+            int workerPoolSizeInt = Integer.parseInt(workerPoolSize);
+            if (workerPoolSizeInt < 1 || workerPoolSizeInt > 1000)
+                throw new IllegalArgumentException("Worker pool size must be >= 1 and <= 1000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Worker pool size must be >= 1 and <= 1000");
+        }
+
+        String workerQueueSize = serverConfig.getWorkerQueueSize();
+        if (workerQueueSize == null || workerQueueSize.trim().isEmpty()) {
+            throw new IllegalArgumentException("Worker queue size must be not empty");
+        }
+        try {
+            int workerQueueSizeInt = Integer.parseInt(workerQueueSize);
+            if (workerQueueSizeInt < 1 || workerQueueSizeInt > 100000)
+                throw new IllegalArgumentException("Worker queue size must be >= 1 and <= 100000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Worker queue size must be >= 1 and <= 100000");
+        }
+
+        String maxConnections = serverConfig.getMaxConnections();
+        if (maxConnections == null || maxConnections.trim().isEmpty()) {
+            throw new IllegalArgumentException("Max connections must be not empty");
+        }
+        try {
+            int maxConnectionsInt = Integer.parseInt(maxConnections);
+            if (maxConnectionsInt < 1 || maxConnectionsInt > 1000000)
+                throw new IllegalArgumentException("Max connections must be >= 1 and <= 1000000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Max connections must be >= 1 and <= 1000000");
+        }
+
+        String connectionBalancing = serverConfig.getConnectionBalancing();
+        if (connectionBalancing == null || connectionBalancing.trim().isEmpty()) {
+            throw new IllegalArgumentException("Connection balancing must be not empty");
+        }
+        if (!connectionBalancing.equals("round-robin") && !connectionBalancing.equals("least-connections")) {
+            throw new IllegalArgumentException("Connection balancing must be round-robin or least-connections");
+        }
+
+        String bufferPoolMaxFreeBuffers = serverConfig.getBufferPoolMaxFreeBuffers();
+        if (bufferPoolMaxFreeBuffers == null || bufferPoolMaxFreeBuffers.trim().isEmpty()) {
+            throw new IllegalArgumentException("Buffer pool max free buffers must be not empty");
+        }
+        try {
+            int bufferPoolMaxFreeBuffersInt = Integer.parseInt(bufferPoolMaxFreeBuffers);
+            if (bufferPoolMaxFreeBuffersInt < 1 || bufferPoolMaxFreeBuffersInt > 100000)
+                throw new IllegalArgumentException("Buffer pool max free buffers must be >= 1 and <= 100000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Buffer pool max free buffers must be >= 1 and <= 100000");
+        }
+
+        String bufferPoolDebug = serverConfig.getBufferPoolDebug();
+        if (bufferPoolDebug == null || bufferPoolDebug.trim().isEmpty()) {
+            throw new IllegalArgumentException("Buffer pool debug must be not empty");
+        }
+        if (!bufferPoolDebug.equals("true") && !bufferPoolDebug.equals("false")) {
+            throw new IllegalArgumentException("Buffer pool debug must be true or false");
+        }
+
+        String dbPrepareThreshold = serverConfig.getDbPrepareThreshold();
+        if (dbPrepareThreshold == null || dbPrepareThreshold.trim().isEmpty()) {
+            throw new IllegalArgumentException("Db prepare threshold must be not empty");
+        }
+        try {
+            int dbPrepareThresholdInt = Integer.parseInt(dbPrepareThreshold);
+            if (dbPrepareThresholdInt < 0 || dbPrepareThresholdInt > 1000)
+                throw new IllegalArgumentException("Db prepare threshold must be >= 0 and <= 1000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Db prepare threshold must be >= 0 and <= 1000");
+        }
+
+        String dbPreparedStatementCacheQueries = serverConfig.getDbPreparedStatementCacheQueries();
+        if (dbPreparedStatementCacheQueries == null || dbPreparedStatementCacheQueries.trim().isEmpty()) {
+            throw new IllegalArgumentException("Db prepared statement cache queries must be not empty");
+        }
+        try {
+            int dbPreparedStatementCacheQueriesInt = Integer.parseInt(dbPreparedStatementCacheQueries);
+            if (dbPreparedStatementCacheQueriesInt < 1 || dbPreparedStatementCacheQueriesInt > 100000)
+                throw new IllegalArgumentException("Db prepared statement cache queries must be >= 1 and <= 100000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Db prepared statement cache queries must be >= 1 and <= 100000");
+        }
+
+        String dbPreparedStatementCacheSizeMiB = serverConfig.getDbPreparedStatementCacheSizeMiB();
+        if (dbPreparedStatementCacheSizeMiB == null || dbPreparedStatementCacheSizeMiB.trim().isEmpty()) {
+            throw new IllegalArgumentException("Db prepared statement cache size(MiB) must be not empty");
+        }
+        try {
+            int dbPreparedStatementCacheSizeMiBInt = Integer.parseInt(dbPreparedStatementCacheSizeMiB);
+            if (dbPreparedStatementCacheSizeMiBInt < 1 || dbPreparedStatementCacheSizeMiBInt > 1024)
+                throw new IllegalArgumentException("Db prepared statement cache size(MiB) must be >= 1 and <= 1024");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Db prepared statement cache size(MiB) must be >= 1 and <= 1024");
+        }
+
+        String visitCacheSize = serverConfig.getVisitCacheSize();
+        if (visitCacheSize == null || visitCacheSize.trim().isEmpty()) {
+            throw new IllegalArgumentException("Visit cache size must be not empty");
+        }
+        try {
+            int visitCacheSizeInt = Integer.parseInt(visitCacheSize);
+            if (visitCacheSizeInt < 0 || visitCacheSizeInt > 10000000)
+                throw new IllegalArgumentException("Visit cache size must be >= 0 and <= 10000000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Visit cache size must be >= 0 and <= 10000000");
+        }
+
+        String visitCacheListMaxBytes = serverConfig.getVisitCacheListMaxBytes();
+        if (visitCacheListMaxBytes == null || visitCacheListMaxBytes.trim().isEmpty()) {
+            throw new IllegalArgumentException("Visit cache list max bytes must be not empty");
+        }
+        try {
+            int visitCacheListMaxBytesInt = Integer.parseInt(visitCacheListMaxBytes);
+            if (visitCacheListMaxBytesInt < 0 || visitCacheListMaxBytesInt > 1073741824)
+                throw new IllegalArgumentException("Visit cache list max bytes must be >= 0 and <= 1073741824");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Visit cache list max bytes must be >= 0 and <= 1073741824");
+        }
+
+        String visitPeriodIndex = serverConfig.getVisitPeriodIndex();
+        if (visitPeriodIndex == null || visitPeriodIndex.trim().isEmpty()) {
+            throw new IllegalArgumentException("Visit period index must be not empty");
+        }
+        if (!visitPeriodIndex.equals("true") && !visitPeriodIndex.equals("false")) {
+            throw new IllegalArgumentException("Visit period index must be true or false");
+        }
+
+        String writeBatchSize = serverConfig.getWriteBatchSize();
+        if (writeBatchSize == null || writeBatchSize.trim().isEmpty()) {
+            throw new IllegalArgumentException("Write batch size must be not empty");
+        }
+        try {
+            int writeBatchSizeInt = Integer.parseInt(writeBatchSize);
+            if (writeBatchSizeInt < 0 || writeBatchSizeInt > 10000)
+                throw new IllegalArgumentException("Write batch size must be >= 0 and <= 10000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Write batch size must be >= 0 and <= 10000");
+        }
+
+        String writeBatchDelayMicros = serverConfig.getWriteBatchDelayMicros();
+        if (writeBatchDelayMicros == null || writeBatchDelayMicros.trim().isEmpty()) {
+            throw new IllegalArgumentException("Write batch delay micros must be not empty");
+        }
+        try {
+            int writeBatchDelayMicrosInt = Integer.parseInt(writeBatchDelayMicros);
+            if (writeBatchDelayMicrosInt < 0 || writeBatchDelayMicrosInt > 1000000)
+                throw new IllegalArgumentException("Write batch delay micros must be >= 0 and <= 1000000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Write batch delay micros must be >= 0 and <= 1000000");
+        }
+
+        String storage = serverConfig.getStorage();
+        if (storage == null || storage.trim().isEmpty()) {
+            throw new IllegalArgumentException("Storage must be not empty");
+        }
+        if (!storage.equals("postgres") && !storage.equals("log")) {
+            throw new IllegalArgumentException("Storage must be postgres or log");
+        }
+
+        String storageLogPath = serverConfig.getStorageLogPath();
+        if (storageLogPath == null || storageLogPath.trim().isEmpty()) {
+            throw new IllegalArgumentException("Storage log path must be not empty");
+        }
+
+        String storageLogSync = serverConfig.getStorageLogSync();
+        if (storageLogSync == null || storageLogSync.trim().isEmpty()) {
+            throw new IllegalArgumentException("Storage log sync must be not empty");
+        }
+        if (!storageLogSync.equals("true") && !storageLogSync.equals("false")) {
+            throw new IllegalArgumentException("Storage log sync must be true or false");
+        }
+
+        String slowRequestThresholdMillis = serverConfig.getSlowRequestThresholdMillis();
+        if (slowRequestThresholdMillis == null || slowRequestThresholdMillis.trim().isEmpty()) {
+            throw new IllegalArgumentException("Slow request threshold must be not empty");
+        }
+        try {
+            int slowRequestThresholdMillisInt = Integer.parseInt(slowRequestThresholdMillis);
+            if (slowRequestThresholdMillisInt < 0 || slowRequestThresholdMillisInt > 60000)
+                throw new IllegalArgumentException("Slow request threshold must be >= 0 and <= 60000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Slow request threshold must be >= 0 and <= 60000");
+        }
+
+        String slowRequestLogSize = serverConfig.getSlowRequestLogSize();
+        if (slowRequestLogSize == null || slowRequestLogSize.trim().isEmpty()) {
+            throw new IllegalArgumentException("Slow request log size must be not empty");
+        }
+        try {
+            int slowRequestLogSizeInt = Integer.parseInt(slowRequestLogSize);
+            if (slowRequestLogSizeInt < 1 || slowRequestLogSizeInt > 10000)
+                throw new IllegalArgumentException("Slow request log size must be >= 1 and <= 10000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Slow request log size must be >= 1 and <= 10000");
+        }
+
+        String minPoolSize = serverConfig.getMinPoolSize();
+        if (minPoolSize == null || minPoolSize.trim().isEmpty()) {
+            throw new IllegalArgumentException("Minimum pool size must be not empty");
+        }
+        try {
+            int minPoolSizeInt = Integer.parseInt(minPoolSize);
+            if (minPoolSizeInt < 1 || minPoolSizeInt > 50)
+                throw new IllegalArgumentException("Minimum pool size must be >= 1 and <= 50");
+            if (minPoolSizeInt > Integer.parseInt(serverConfig.getMaxPoolSize()))
+                throw new IllegalArgumentException("Minimum pool size must be <= maximum pool size");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Minimum pool size must be >= 1 and <= 50");
+        }
+
+        String dbConnectionTimeoutMillis = serverConfig.getDbConnectionTimeoutMillis();
+        if (dbConnectionTimeoutMillis == null || dbConnectionTimeoutMillis.trim().isEmpty()) {
+            throw new IllegalArgumentException("DB connection timeout must be not empty");
+        }
+        try {
+            int dbConnectionTimeoutMillisInt = Integer.parseInt(dbConnectionTimeoutMillis);
+            if (dbConnectionTimeoutMillisInt < 250 || dbConnectionTimeoutMillisInt > 30000)
+                throw new IllegalArgumentException("DB connection timeout must be >= 250 and <= 30000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("DB connection timeout must be >= 250 and <= 30000");
+        }
+
+        String dbLeakDetectionThresholdMillis = serverConfig.getDbLeakDetectionThresholdMillis();
+        if (dbLeakDetectionThresholdMillis == null || dbLeakDetectionThresholdMillis.trim().isEmpty()) {
+            throw new IllegalArgumentException("DB leak detection threshold must be not empty");
+        }
+        try {
+            int dbLeakDetectionThresholdMillisInt = Integer.parseInt(dbLeakDetectionThresholdMillis);
+            if (dbLeakDetectionThresholdMillisInt != 0
+                    && (dbLeakDetectionThresholdMillisInt < 2000 || dbLeakDetectionThresholdMillisInt > 1800000))
+                throw new IllegalArgumentException("DB leak detection threshold must be 0 or >= 2000 and <= 1800000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("DB leak detection threshold must be 0 or >= 2000 and <= 1800000");
+        }
+
+        String dbPoolAutoSize = serverConfig.getDbPoolAutoSize();
+        if (dbPoolAutoSize == null || dbPoolAutoSize.trim().isEmpty()) {
+            throw new IllegalArgumentException("DB pool auto size must be not empty");
+        }
+        if (!dbPoolAutoSize.equals("true") && !dbPoolAutoSize.equals("false")) {
+            throw new IllegalArgumentException("DB pool auto size must be true or false");
+        }
+
+        String dbPoolAdjustIntervalMillis = serverConfig.getDbPoolAdjustIntervalMillis();
+        if (dbPoolAdjustIntervalMillis == null || dbPoolAdjustIntervalMillis.trim().isEmpty()) {
+            throw new IllegalArgumentException("DB pool adjust interval must be not empty");
+        }
+        try {
+            int dbPoolAdjustIntervalMillisInt = Integer.parseInt(dbPoolAdjustIntervalMillis);
+            if (dbPoolAdjustIntervalMillisInt < 100 || dbPoolAdjustIntervalMillisInt > 60000)
+                throw new IllegalArgumentException("DB pool adjust interval must be >= 100 and <= 60000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("DB pool adjust interval must be >= 100 and <= 60000");
+        }
+
+        String dbAcquireTargetMillis = serverConfig.getDbAcquireTargetMillis();
+        if (dbAcquireTargetMillis == null || dbAcquireTargetMillis.trim().isEmpty()) {
+            throw new IllegalArgumentException("DB acquire target must be not empty");
+        }
+        try {
+            int dbAcquireTargetMillisInt = Integer.parseInt(dbAcquireTargetMillis);
+            if (dbAcquireTargetMillisInt < 1 || dbAcquireTargetMillisInt > 10000)
+                throw new IllegalArgumentException("DB acquire target must be >= 1 and <= 10000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("DB acquire target must be >= 1 and <= 10000");
+        }
+
+        String dbMaxPendingAcquires = serverConfig.getDbMaxPendingAcquires();
+        if (dbMaxPendingAcquires == null || dbMaxPendingAcquires.trim().isEmpty()) {
+            throw new IllegalArgumentException("DB max pending acquires must be not empty");
+        }
+        try {
+            int dbMaxPendingAcquiresInt = Integer.parseInt(dbMaxPendingAcquires);
+            if (dbMaxPendingAcquiresInt < 1 || dbMaxPendingAcquiresInt > 10000)
+                throw new IllegalArgumentException("DB max pending acquires must be >= 1 and <= 10000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("DB max pending acquires must be >= 1 and <= 10000");
+        }
+
+        String retryAfterSeconds = serverConfig.getRetryAfterSeconds();
+        if (retryAfterSeconds == null || retryAfterSeconds.trim().isEmpty()) {
+            throw new IllegalArgumentException("Retry after seconds must be not empty");
+        }
+        try {
+            int retryAfterSecondsInt = Integer.parseInt(retryAfterSeconds);
+            if (retryAfterSecondsInt < 1 || retryAfterSecondsInt > 3600)
+                throw new IllegalArgumentException("Retry after seconds must be >= 1 and <= 3600");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Retry after seconds must be >= 1 and <= 3600");
+        }
+
+        String dbAsync = serverConfig.getDbAsync();
+        if (dbAsync == null || dbAsync.trim().isEmpty()) {
+            throw new IllegalArgumentException("DB async must be not empty");
+        }
+        if (!dbAsync.equals("true") && !dbAsync.equals("false")) {
+            throw new IllegalArgumentException("DB async must be true or false");
+        }
+
+        String dbAsyncConnections = serverConfig.getDbAsyncConnections();
+        if (dbAsyncConnections == null || dbAsyncConnections.trim().isEmpty()) {
+            throw new IllegalArgumentException("DB async connections must be not empty");
+        }
+        try {
+            int dbAsyncConnectionsInt = Integer.parseInt(dbAsyncConnections);
+            if (dbAsyncConnectionsInt < 1 || dbAsyncConnectionsInt > 64)
+                throw new IllegalArgumentException("DB async connections must be >= 1 and <= 64");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("DB async connections must be >= 1 and <= 64");
+        }
+
+        String dbAsyncMaxPending = serverConfig.getDbAsyncMaxPending();
+        if (dbAsyncMaxPending == null || dbAsyncMaxPending.trim().isEmpty()) {
+            throw new IllegalArgumentException("DB async max pending must be not empty");
+        }
+        try {
+            int dbAsyncMaxPendingInt = Integer.parseInt(dbAsyncMaxPending);
+            if (dbAsyncMaxPendingInt < 1 || dbAsyncMaxPendingInt > 100000)
+                throw new IllegalArgumentException("DB async max pending must be >= 1 and <= 100000");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("DB async max pending must be >= 1 and <= 100000");
+        }
+
+        String loggingProfile = serverConfig.getLoggingProfile();
+        if (loggingProfile == null || loggingProfile.trim().isEmpty()) {
+            throw new IllegalArgumentException("Logging profile must be not empty");
+        }
+        if (!loggingProfile.equals("development") && !loggingProfile.equals("production")) {
+            throw new IllegalArgumentException("Logging profile must be development or production");
+        }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,450 @@
+package http.server;
+
+import http.server.error.ErrorDto;
+import http.server.error.ErrorFactory;
+import http.server.error.HttpErrorType;
+import http.server.metrics.Counter;
+import http.server.parser.ParsingResult;
+import http.server.parser.RequestParser;
+import http.server.trace.RequestTrace;
+import http.server.trace.SlowRequestLog;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Engine serving every connection with its own virtual thread over a blocking channel: the thread reads a request,
+ * routes it, writes the answer and reads the next one. A processor blocked on JDBC parks its virtual thread
+ * and frees the carrier, so there is neither a worker pool nor a hand-off between threads.
+ *
+ * <p>Pipelined requests are answered one after another in the order they arrive. A blocked read has no timeout,
+ * so connections waiting for a request longer than the keep-alive timeout (the input data timeout for a started
+ * request) are closed by a reaper thread, which ends their read. Writes are blocking too: a write that makes
+ * no progress for the stall timeout of {@link ChunkedAnswer} is ended the same way.
+ */
+final class VirtualThreadEngine implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(VirtualThreadEngine.class);
+    private static final int IDLE_CHECK_INTERVAL = 1000;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+    /**
+     * Bytes of one blocking write, the reaper sees the progress of a larger answer between the writes
+     */
+    private static final int MAX_WRITE_SIZE = 64 * 1024;
+    private final ServerSocketChannel serverChannel;
+    private final RequestRouter requestRouter;
+    private final BufferPool bufferPool;
+    private final SlowRequestLog slowRequestLog;
+    private final int bufferSize;
+    private final int maxHttpRequestSize;
+    private final int timeoutInputData;
+    private final int keepAliveTimeout;
+    private final int maxKeepAliveRequests;
+    private final int maxConnections;
+    private final Counter rejectedConnections;
+    private final Counter bytesReceived;
+    private final Counter bytesSent;
+    private final ThreadFactory connectionThreads = Thread.ofVirtual().name("connection-", 1).factory();
+    private final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private volatile boolean isRunning;
+
+    /**
+     * @param rejectedConnections counter of connections closed at once because maxConnections are open
+     * @param bytesReceived       counter of bytes read from clients
+     * @param bytesSent           counter of bytes written to clients
+     */
+    VirtualThreadEngine(ServerConfig serverConfig, ServerSocketChannel serverChannel, RequestRouter requestRouter,
+                        BufferPool bufferPool, SlowRequestLog slowRequestLog, Counter rejectedConnections,
+                        Counter bytesReceived, Counter bytesSent) {
+        this.serverChannel = serverChannel;
+        this.requestRouter = requestRouter;
+        this.bufferPool = bufferPool;
+        this.slowRequestLog = slowRequestLog;
+        this.bufferSize = Integer.parseInt(serverConfig.getBufferSize());
+        this.maxHttpRequestSize = Integer.parseInt(serverConfig.getMaxHttpRequestSize());
+        this.timeoutInputData = Integer.parseInt(serverConfig.getTimeoutInputData());
+        this.keepAliveTimeout = Integer.parseInt(serverConfig.getKeepAliveTimeout());
+        this.maxKeepAliveRequests = Integer.parseInt(serverConfig.getMaxKeepAliveRequests());
+        this.maxConnections = Integer.parseInt(serverConfig.getMaxConnections());
+        this.rejectedConnections = rejectedConnections;
+        this.bytesReceived = bytesReceived;
+        this.bytesSent = bytesSent;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Accepts connections in the calling thread until the listening channel is closed
+     */
+    void run() {
+        isRunning = true;
+        Thread.ofVirtual().name("idle-connection-reaper").start(this::closeIdleConnections);
+        int retryDelay = HttpServer.ACCEPT_RETRY_MIN_DELAY;
+        while (isRunning) {
+            SocketChannel channel = null;
+            try {
+                channel = serverChannel.accept();
+                retryDelay = HttpServer.ACCEPT_RETRY_MIN_DELAY;
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, bufferSize);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (activeConnections.incrementAndGet() > maxConnections) {
+                    activeConnections.decrementAndGet();
+                    rejectedConnections.inc();
+                    logger.warn("Connection rejected (limit {} reached)", maxConnections);
+                    channel.close();
+                    continue;
+                }
+                ClientConnection connection = new ClientConnection(channel);
+                connections.add(connection);
+                connectionThreads.newThread(() -> serve(connection)).start();
+            } catch (ClosedChannelException e) {
+                logger.debug("Listening channel closed, acceptor stopped");
+                return;
+            } catch (IOException e) {
+                logger.warn("Accept failed: {}", e.getMessage());
+                closeQuietly(channel);
+                if (!HttpServer.sleepBeforeRetry(retryDelay)) return;
+                retryDelay = Math.min(retryDelay * 2, HttpServer.ACCEPT_RETRY_MAX_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Reads, routes and answers the requests of the connection one by one until the connection
+     * is not kept alive, the client closes it or the server stops
+     */
+    private void serve(ClientConnection connection) {
+        ByteBuffer input = bufferPool.acquire(bufferSize);
+        int requestCount = 0;
+        try {
+            while (isRunning) {
+                Context context = readRequest(connection, input);
+                if (context == null) return;
+                try {
+                    ParsingResult parsingResult = context.getParsingResult();
+                    context.setKeepAlive(isRunning
+                            && parsingResult.isKeepAlive()
+                            && ++requestCount < maxKeepAliveRequests);
+                    if (context.getTrace() != null) context.getTrace().markDispatched();
+                    requestRouter.route(context, connection.channel, context.getRequestBody());
+                    context.setProcessed(true);
+                    if (!writeAnswer(connection, context) || !context.isKeepAlive()) return;
+                } finally {
+                    context.close();
+                }
+                if (connection.consumedLength > 0) {
+                    input.flip().position(connection.consumedLength);
+                    input.compact();
+                    connection.consumedLength = 0;
+                }
+            }
+        } catch (AsynchronousCloseException e) {
+            logger.debug("Idle connection closed");
+        } catch (IOException e) {
+            logger.debug("Connection failed: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("Operation processing error", e);
+        } finally {
+            bufferPool.release(input);
+            connection.close();
+        }
+    }
+
+    /**
+     * Reads the next request into the input buffer, as {@code HttpServer.assembleRequest} does for the selector
+     * engine: the body is a slice of the input buffer, or a body buffer of exactly Content-Length bytes
+     * if it does not fit. The bytes of the request are dropped from the input only after its answer.
+     *
+     * @param input buffer in write mode, may already contain the start of the request
+     * @return complete or rejected request, null if the client has closed the connection
+     */
+    private Context readRequest(ClientConnection connection, ByteBuffer input) throws Exception {
+        int scanPosition = 0;
+        int headersLength;
+        while ((headersLength = RequestParser.findEndOfHeaders(input, scanPosition)) < 0) {
+            if (!input.hasRemaining() || input.position() > maxHttpRequestSize) {
+                return newContext(connection, ParsingResult.error(requestTooLargeError()), null);
+            }
+            scanPosition = Math.max(0, input.position() - 3);
+            if (!connection.read(input, input.position() > 0)) return null;
+        }
+
+        RequestTrace trace = slowRequestLog.isEnabled() ? new RequestTrace(System.nanoTime()) : null;
+        int received = input.position();
+        ParsingResult parsingResult = RequestParser.parseToResult(input, requestRouter.getRouteTable());
+        input.limit(input.capacity()).position(received);
+        Context context = newContext(connection, parsingResult, trace);
+        if (trace != null) trace.markParsed(parsingResult.getMethod(), parsingResult.getUri());
+        if (parsingResult.isError()) return context;
+
+        int contentLength = parsingResult.getContentLength();
+        if (headersLength + contentLength > maxHttpRequestSize) {
+            parsingResult.close();
+            context.setParsingResult(ParsingResult.error(requestTooLargeError()));
+            return context;
+        }
+        if (headersLength + contentLength > input.capacity()) {
+            ByteBuffer bodyBuffer = bufferPool.acquire(contentLength);
+            context.setBodyBuffer(bodyBuffer);
+            bodyBuffer.put(input.flip().position(headersLength));
+            input.clear();
+            while (bodyBuffer.hasRemaining()) {
+                if (!connection.read(bodyBuffer, true)) {
+                    context.close();
+                    return null;
+                }
+            }
+            context.setRequestBody(bodyBuffer.flip());
+            return context;
+        }
+        while (input.position() < headersLength + contentLength) {
+            if (!connection.read(input, true)) {
+                context.close();
+                return null;
+            }
+        }
+        context.setRequestBody(input.slice(headersLength, contentLength));
+        connection.consumedLength = headersLength + contentLength;
+        return context;
+    }
+
+    private Context newContext(ClientConnection connection, ParsingResult parsingResult, RequestTrace trace) {
+        Context context = new Context(bufferPool);
+        context.setParsingResult(parsingResult);
+        context.setOutputChannel(connection);
+        context.setTrace(trace);
+        return context;
+    }
+
+    /**
+     * Writes the rest of the answer, a chunked answer has already written its chunks
+     *
+     * @return false if the answer is missing or incomplete and the connection must be closed
+     */
+    private boolean writeAnswer(ClientConnection connection, Context context) throws IOException {
+        RequestAnswer answer = context.getRequestAnswer();
+        if (answer == null) {
+            logger.warn("Missing answer for write operation");
+            return false;
+        }
+        RequestTrace trace = context.getTrace();
+        if (trace != null) trace.markWriteStart();
+        ByteBuffer[] buffers;
+        while (!answer.isAborted() && !answer.isWritten() && (buffers = answer.getByteBuffers()) != null) {
+            connection.write(buffers);
+        }
+        if (answer.isAborted() || !answer.isWritten()) {
+            logger.warn("Answer aborted, closing connection");
+            return false;
+        }
+        connection.lastActivity = System.currentTimeMillis();
+        if (trace != null) {
+            trace.markWritten();
+            slowRequestLog.record(trace);
+        }
+        return true;
+    }
+
+    private ErrorDto requestTooLargeError() {
+        return ErrorFactory.createErrorDto(
+                HttpErrorType.BAD_REQUEST,
+                "REQUEST_TOO_LARGE",
+                "Max size: " + maxHttpRequestSize
+        );
+    }
+
+    /**
+     * Closes connections waiting for the next request longer than keep-alive timeout,
+     * connections that have not completed the started request within input data timeout
+     * and connections whose client has not taken any bytes of the answer within the stall timeout
+     */
+    private void closeIdleConnections() {
+        while (isRunning) {
+            try {
+                Thread.sleep(IDLE_CHECK_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (ClientConnection connection : connections) {
+                if (connection.reading && now - connection.lastActivity >
+                        (connection.partialRequest ? timeoutInputData : keepAliveTimeout)) {
+                    logger.debug("Closing idle connection");
+                    connection.close();
+                } else if (connection.writing && now - connection.lastActivity > ChunkedAnswer.STALL_TIMEOUT_MILLIS) {
+                    logger.debug("Closing connection, the client does not read the answer");
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the connections waiting for a request at once, the connections processing a request
+     * are closed after its answer or after {@value #STOP_TIMEOUT_MILLIS} ms
+     */
+    @Override
+    public void close() {
+        isRunning = false;
+        for (ClientConnection connection : connections) {
+            if (connection.reading && !connection.partialRequest) connection.close();
+        }
+        long stopTime = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+        while (!connections.isEmpty() && System.currentTimeMillis() < stopTime) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        connections.forEach(ClientConnection::close);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Channel close error", e);
+        }
+    }
+
+    /**
+     * Blocking channel of one client with the state the reaper looks at. As the output channel of the contexts
+     * it writes the whole buffer and counts the sent bytes.
+     */
+    private final class ClientConnection implements WritableByteChannel {
+        private final SocketChannel channel;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long lastActivity = System.currentTimeMillis();
+        /**
+         * True while the thread of the connection waits in a read
+         */
+        private volatile boolean reading;
+        /**
+         * True while the thread of the connection waits in a write
+         */
+        private volatile boolean writing;
+        private volatile boolean partialRequest;
+        /**
+         * Bytes of the current request at the start of the input buffer, dropped after its answer
+         */
+        private int consumedLength;
+
+        private ClientConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @param partialRequest true if a part of the request has been received, the wait is limited
+         *                       by the input data timeout instead of the keep-alive timeout
+         * @return false if the client has closed the connection
+         */
+        private boolean read(ByteBuffer buffer, boolean partialRequest) throws IOException {
+            this.partialRequest = partialRequest;
+            reading = true;
+            int bytesRead;
+            try {
+                bytesRead = channel.read(buffer);
+            } finally {
+                reading = false;
+            }
+            if (bytesRead < 0) return false;
+            bytesReceived.add(bytesRead);
+            lastActivity = System.currentTimeMillis();
+            return true;
+        }
+
+        @Override
+        public int write(ByteBuffer buffer) throws IOException {
+            int written = 0;
+            while (buffer.hasRemaining()) written += writeSlice(buffer);
+            return written;
+        }
+
+        /**
+         * Writes all the buffers, in one gathering write if they are small
+         */
+        private void write(ByteBuffer[] buffers) throws IOException {
+            long size = 0;
+            for (ByteBuffer buffer : buffers) size += buffer.remaining();
+            if (size > MAX_WRITE_SIZE) {
+                for (ByteBuffer buffer : buffers) write(buffer);
+                return;
+            }
+            writing = true;
+            lastActivity = System.currentTimeMillis();
+            long written = 0;
+            try {
+                while (written < size) written += channel.write(buffers);
+            } finally {
+                writing = false;
+            }
+            bytesSent.add(written);
+            lastActivity = System.currentTimeMillis();
+        }
+
+        /**
+         * Writes at most {@value #MAX_WRITE_SIZE} bytes of the buffer, the write is watched by the reaper
+         */
+        private int writeSlice(ByteBuffer buffer) throws IOException {
+            int limit = buffer.limit();
+            buffer.limit(Math.min(limit, buffer.position() + MAX_WRITE_SIZE));
+            writing = true;
+            lastActivity = System.currentTimeMillis();
+            int written;
+            try {
+                written = channel.write(buffer);
+            } finally {
+                writing = false;
+                buffer.limit(limit);
+            }
+            bytesSent.add(written);
+            lastActivity = System.currentTimeMillis();
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        /**
+         * Shuts the socket down before closing it, as the selector engine does, so the client receives
+         * the last answer even if its unread request bytes are left
+         */
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            if (channel.isConnected()) {
+                try {
+                    channel.shutdownInput();
+                } catch (IOException ignored) {
+                }
+                try {
+                    channel.shutdownOutput();
+                } catch (IOException ignored) {
+                }
+            }
+            closeQuietly(channel);
+            connections.remove(this);
+            activeConnections.decrementAndGet();
+        }
+    }
+}
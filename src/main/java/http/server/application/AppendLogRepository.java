@@ -0,0 +1,460 @@
+package http.server.application;
+
+import http.server.error.AppException;
+import http.server.error.ErrorFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Store keeping all visits in memory, with an append-only write-ahead log in a memory-mapped file.
+ *
+ * <ul>
+ *   <li>Visits are kept in an array indexed by id, ids are given in sequence, so lookups are one array access</li>
+ *   <li>Every write appends a record to the log before it changes the memory: length, CRC32C, then
+ *   PUT with the whole visit or DELETE with the id</li>
+ *   <li>With syncWrites the mapped file is forced to disk before the write returns, {@link #writeVisits}
+ *   forces once for the whole batch</li>
+ *   <li>On start the log is replayed up to the first incomplete or corrupted record, then compacted:
+ *   a new log with one PUT per live visit replaces the old one</li>
+ * </ul>
+ *
+ * <p>The log is mapped as one buffer, it is limited to 2 GB between restarts.
+ * Overlap checks scan all visits, the period index of {@link IndexedRepository} answers them without a scan.
+ */
+public class AppendLogRepository implements VisitStore, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(AppendLogRepository.class);
+    private static final int MAGIC = 0x56495354;
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * Magic, format version, sequence of ids at compaction, reserved
+     */
+    private static final int HEADER_SIZE = 16;
+    /**
+     * Length and CRC of the payload
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int MIN_MAPPED_SIZE = 1024 * 1024;
+
+    private final Path path;
+    private final boolean syncWrites;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(1024);
+    private Visit[] visits = new Visit[1024];
+    private int sequence;
+    private FileChannel channel;
+    private MappedByteBuffer log;
+
+    /**
+     * Loads the visits from the log, creating it if it does not exist
+     *
+     * @param syncWrites force every write to disk before it is acknowledged
+     */
+    public AppendLogRepository(Path path, boolean syncWrites) throws IOException {
+        this.path = path;
+        this.syncWrites = syncWrites;
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        if (Files.exists(path)) replay();
+        compact();
+    }
+
+    private void replay() throws IOException {
+        try (FileChannel readChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("File " + path + " is not a visit log of version " + FORMAT_VERSION);
+            }
+            sequence = buffer.getInt();
+            buffer.getInt();
+            int records = 0;
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0) break;
+                if (length > buffer.remaining() || checksum(buffer.slice(buffer.position(), length)) != checksum) {
+                    logger.warn("Visit log {} is cut at offset {}: incomplete or corrupted record", path, start);
+                    break;
+                }
+                apply(buffer.slice(buffer.position(), length));
+                buffer.position(buffer.position() + length);
+                records++;
+            }
+            logger.info("Replayed {} records of visit log {}", records, path);
+        }
+    }
+
+    private void apply(ByteBuffer payload) {
+        byte type = payload.get();
+        int id = payload.getInt();
+        sequence = Math.max(sequence, id);
+        if (type == PUT) {
+            String fio = getString(payload);
+            String contact = getString(payload);
+            store(new Visit(id, fio, contact, getDateTime(payload), getDateTime(payload)));
+        } else if (type == DELETE) {
+            if (id < visits.length) visits[id] = null;
+        }
+    }
+
+    /**
+     * Writes the live visits into a new log and replaces the old log with it, then maps it for appends
+     */
+    private void compact() throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel output = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            output.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION)
+                    .putInt(sequence).putInt(0).flip());
+            for (int id = 1; id <= sequence; id++) {
+                if (get(id) == null) continue;
+                encodePut(visits[id], id);
+                output.write(recordBuffer);
+            }
+            output.force(true);
+        }
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(MIN_MAPPED_SIZE, size * 2));
+        log.position((int) size);
+    }
+
+    @Override
+    public boolean checkExistVisitById(int id) {
+        lock.readLock().lock();
+        try {
+            return get(id) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Visit getVisitById(int id) {
+        lock.readLock().lock();
+        try {
+            return get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteVisitById(int id) throws AppException {
+        if (id <= 0) {
+            throw ErrorFactory.internalServerError("id for delete must be > 0");
+        }
+        lock.writeLock().lock();
+        try {
+            if (get(id) == null) return false;
+            int start = log.position();
+            try {
+                encodeDelete(id);
+                append();
+                sync(start);
+            } catch (RuntimeException e) {
+                truncate(start);
+                throw e;
+            }
+            visits[id] = null;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Visit> getAllVisits() {
+        lock.readLock().lock();
+        try {
+            List<Visit> result = new ArrayList<>();
+            for (int id = 1; id <= sequence; id++) {
+                Visit visit = get(id);
+                if (visit != null) result.add(visit);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes a copy of the list of visits: the consumer may write to the socket, the lock is not held meanwhile
+     */
+    @Override
+    public void forEachVisit(VisitConsumer consumer) throws IOException {
+        for (Visit visit : getAllVisits()) {
+            consumer.accept(visit);
+        }
+    }
+
+    /**
+     * Collects the page under the lock and passes it to the consumer after, as {@link #forEachVisit(VisitConsumer)}
+     */
+    @Override
+    public void forEachVisit(VisitQuery query, VisitConsumer consumer) throws IOException {
+        List<Visit> page = new ArrayList<>(Math.min(query.getLimit(), 1024));
+        lock.readLock().lock();
+        try {
+            for (int id = Math.max(query.getAfterId(), 0) + 1; id <= sequence && page.size() < query.getLimit(); id++) {
+                Visit visit = get(id);
+                if (visit != null && query.matchesPeriod(visit)) page.add(visit);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Visit visit : page) {
+            consumer.accept(visit);
+        }
+    }
+
+    @Override
+    public boolean insertVisit(Visit visit) throws AppException {
+        if (visit == null) {
+            throw ErrorFactory.internalServerError("Null Visit passed to insertVisit");
+        }
+        return writeVisits(List.of(visit), new boolean[]{true})[0];
+    }
+
+    @Override
+    public boolean updateVisit(Visit visit) throws AppException {
+        if (visit == null) {
+            throw ErrorFactory.internalServerError("Null Visit passed to updateVisit");
+        }
+        return writeVisits(List.of(visit), new boolean[]{false})[0];
+    }
+
+    /**
+     * Appends the records of all visits and forces the log once, then changes the memory.
+     * If the log cannot be written, nothing is changed.
+     */
+    @Override
+    public boolean[] writeVisits(List<Visit> visits, boolean[] inserts) throws AppException {
+        boolean[] written = new boolean[visits.size()];
+        lock.writeLock().lock();
+        try {
+            int start = log.position();
+            int nextId = sequence;
+            int[] ids = new int[visits.size()];
+            try {
+                for (int i = 0; i < visits.size(); i++) {
+                    Visit visit = visits.get(i);
+                    if (inserts[i]) {
+                        ids[i] = ++nextId;
+                    } else if (get(visit.getId()) != null) {
+                        ids[i] = visit.getId();
+                    } else {
+                        continue;
+                    }
+                    encodePut(visit, ids[i]);
+                    append();
+                    written[i] = true;
+                }
+                sync(start);
+            } catch (RuntimeException e) {
+                truncate(start);
+                throw e;
+            }
+            sequence = nextId;
+            for (int i = 0; i < visits.size(); i++) {
+                if (!written[i]) continue;
+                Visit visit = visits.get(i);
+                if (inserts[i]) visit.setId(ids[i]);
+                store(new Visit(ids[i], visit.getFio(), visit.getContact(), visit.getStartTime(), visit.getEndTime()));
+            }
+            return written;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean checkOverlapsPeriod(LocalDateTime startPeriod, LocalDateTime endPeriod, int excludeId)
+            throws AppException {
+        if (startPeriod == null || endPeriod == null) {
+            throw ErrorFactory.internalServerError("Null startPeriod or null endPeriod passed to checkOverlapsPeriod");
+        }
+        lock.readLock().lock();
+        try {
+            for (int id = 1; id <= sequence; id++) {
+                Visit visit = get(id);
+                if (visit != null && id != excludeId
+                        && visit.getStartTime().isBefore(endPeriod)
+                        && visit.getEndTime().isAfter(startPeriod)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Visit get(int id) {
+        return id > 0 && id < visits.length ? visits[id] : null;
+    }
+
+    private void store(Visit visit) {
+        if (visit.getId() >= visits.length) {
+            visits = Arrays.copyOf(visits, Math.max(visits.length * 2, visit.getId() + 1));
+        }
+        visits[visit.getId()] = visit;
+    }
+
+    private void encodePut(Visit visit, int id) {
+        byte[] fio = visit.getFio() == null ? null : visit.getFio().getBytes(StandardCharsets.UTF_8);
+        byte[] contact = visit.getContact() == null ? null : visit.getContact().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + stringSize(fio) + stringSize(contact) + 2 * 12;
+        startRecord(length);
+        recordBuffer.put(PUT).putInt(id);
+        putString(fio);
+        putString(contact);
+        putDateTime(visit.getStartTime());
+        putDateTime(visit.getEndTime());
+        finishRecord();
+    }
+
+    private void encodeDelete(int id) {
+        startRecord(1 + 4);
+        recordBuffer.put(DELETE).putInt(id);
+        finishRecord();
+    }
+
+    private void startRecord(int payloadLength) {
+        if (recordBuffer.capacity() < RECORD_HEADER_SIZE + payloadLength) {
+            recordBuffer = ByteBuffer.allocate(Integer.highestOneBit(RECORD_HEADER_SIZE + payloadLength) << 1);
+        }
+        recordBuffer.clear().putInt(payloadLength).putInt(0);
+    }
+
+    private void finishRecord() {
+        recordBuffer.flip();
+        int length = recordBuffer.getInt(0);
+        recordBuffer.putInt(4, checksum(recordBuffer.slice(RECORD_HEADER_SIZE, length)));
+    }
+
+    private int checksum(ByteBuffer payload) {
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Copies the encoded record to the log, mapping a larger region of the file if the record does not fit
+     */
+    private void append() throws AppException {
+        if (log.remaining() < recordBuffer.remaining()) {
+            int position = log.position();
+            long size = Math.max((long) log.capacity() * 2, (long) position + recordBuffer.remaining());
+            if (size > Integer.MAX_VALUE) {
+                throw ErrorFactory.internalServerError("Visit log " + path + " is full, restart the server to compact it");
+            }
+            try {
+                log = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                throw ErrorFactory.internalServerError("Cannot extend visit log " + path, e);
+            }
+            log.position(position);
+        }
+        log.put(recordBuffer);
+    }
+
+    /**
+     * Forces the records appended from start to disk if writes are synced
+     */
+    private void sync(int start) throws AppException {
+        if (!syncWrites || log.position() == start) return;
+        try {
+            log.force(start, log.position() - start);
+        } catch (UncheckedIOException e) {
+            throw ErrorFactory.internalServerError("Cannot write visit log " + path, e);
+        }
+    }
+
+    /**
+     * Removes the records appended from start after a failed write. The bytes are zeroed,
+     * so that a later shorter record cannot leave a complete stale record after it.
+     */
+    private void truncate(int start) {
+        for (int position = start; position < log.position(); position++) {
+            log.put(position, (byte) 0);
+        }
+        log.position(start);
+    }
+
+    private static int stringSize(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private void putString(byte[] bytes) {
+        recordBuffer.putInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null) recordBuffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) return null;
+        String value = StandardCharsets.UTF_8.decode(payload.slice(payload.position(), length)).toString();
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    private void putDateTime(LocalDateTime dateTime) {
+        recordBuffer.putLong(dateTime.toEpochSecond(ZoneOffset.UTC)).putInt(dateTime.getNano());
+    }
+
+    private static LocalDateTime getDateTime(ByteBuffer payload) {
+        return LocalDateTime.ofEpochSecond(payload.getLong(), payload.getInt(), ZoneOffset.UTC);
+    }
+
+    /**
+     * Forces the log to disk and closes it, the visits stay readable
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!channel.isOpen()) return;
+            log.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return "AppendLogRepository{" +
+                    "path=" + path +
+                    ", sequence=" + sequence +
+                    ", logBytes=" + log.position() +
+                    '}';
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package http.server.application;
+
+import http.server.postgres.PgClient;
+import http.server.postgres.PgRow;
+import http.server.postgres.RowMapper;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads visits from Postgres with pipelined queries of {@link PgClient}, the same queries as {@link Repository}.
+ * The results are passed from the event loop of the client to the executor.
+ */
+public class AsyncRepository implements AsyncVisitStore {
+    private static final RowMapper<Visit> VISIT_MAPPER = AsyncRepository::readVisit;
+    private final PgClient client;
+    private final Executor executor;
+
+    /**
+     * @param executor executor completing the futures
+     */
+    public AsyncRepository(PgClient client, Executor executor) {
+        this.client = client;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Visit> getVisitById(int id) {
+        return client.query(Constants.SELECT_VISIT_BY_ID_QUERY,
+                        row -> new Visit(id, row.getString(0), row.getString(1),
+                                row.getLocalDateTime(2), row.getLocalDateTime(3)),
+                        id)
+                .thenApplyAsync(visits -> visits.isEmpty() ? null : visits.get(0), executor);
+    }
+
+    @Override
+    public CompletableFuture<List<Visit>> getVisits(VisitQuery query) {
+        int variant = (query.getFrom() != null ? 1 : 0) | (query.getTo() != null ? 2 : 0);
+        Object[] parameters = new Object[Integer.bitCount(variant) + 2];
+        int index = 0;
+        parameters[index++] = query.getAfterId();
+        if (query.getFrom() != null) parameters[index++] = query.getFrom();
+        if (query.getTo() != null) parameters[index++] = query.getTo();
+        parameters[index] = query.getLimit();
+        return client.query(Repository.PAGE_QUERIES[variant], VISIT_MAPPER, parameters)
+                .thenApplyAsync(visits -> visits, executor);
+    }
+
+    private static Visit readVisit(PgRow row) {
+        return new Visit(row.getInt(0), row.getString(1), row.getString(2),
+                row.getLocalDateTime(3), row.getLocalDateTime(4));
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncRepository{" + client + '}';
+    }
+}
@@ -0,0 +1,24 @@
+package http.server.application;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads of visits that do not block the calling thread, the futures complete when the results arrive.
+ *
+ * <p>The futures are completed on the executor given to the store, not on the thread reading the database,
+ * so their continuations may serialize and answer. All visits are not read this way: the list has no bound,
+ * it is streamed by {@link VisitStore#forEachVisit}.
+ */
+public interface AsyncVisitStore {
+
+    /**
+     * @return visit with the id, null if there is none
+     */
+    CompletableFuture<Visit> getVisitById(int id);
+
+    /**
+     * @return visits of the page ordered by id
+     */
+    CompletableFuture<List<Visit>> getVisits(VisitQuery query);
+}
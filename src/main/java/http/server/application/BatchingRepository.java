@@ -0,0 +1,240 @@
+package http.server.application;
+
+import http.server.error.AppException;
+import http.server.error.ErrorFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Repository that groups concurrent inserts and updates of visits into one transaction (group commit).
+ *
+ * <p>Request threads put their writes into a queue and wait for the result. One writer thread takes the first
+ * waiting write, collects more for at most maxDelayMicros or up to maxBatchSize writes and passes them
+ * to {@link VisitStore#writeVisits} as one batch, so a burst of writes pays for one commit.
+ *
+ * <p>If the batch fails, the writes are repeated one by one in their own transactions,
+ * so every request gets its own result or exception, as without batching.
+ */
+public class BatchingRepository implements VisitStore, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(BatchingRepository.class);
+    private final VisitStore repository;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * @param repository     repository with the visits
+     * @param maxBatchSize   max number of writes in one transaction
+     * @param maxDelayMicros max time the first write of a batch waits for other writes
+     */
+    public BatchingRepository(VisitStore repository, int maxBatchSize, int maxDelayMicros) {
+        this.repository = repository;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.writerThread = new Thread(this::writeLoop, "visit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public boolean checkExistVisitById(int id) throws SQLException {
+        return repository.checkExistVisitById(id);
+    }
+
+    @Override
+    public Visit getVisitById(int id) throws SQLException {
+        return repository.getVisitById(id);
+    }
+
+    @Override
+    public boolean deleteVisitById(int id) throws SQLException {
+        return repository.deleteVisitById(id);
+    }
+
+    @Override
+    public List<Visit> getAllVisits() throws SQLException {
+        return repository.getAllVisits();
+    }
+
+    @Override
+    public ByteBuffer getAllVisitsJson() throws SQLException {
+        return repository.getAllVisitsJson();
+    }
+
+    @Override
+    public void forEachVisit(VisitConsumer consumer) throws SQLException, IOException {
+        repository.forEachVisit(consumer);
+    }
+
+    @Override
+    public void forEachVisit(VisitQuery query, VisitConsumer consumer) throws SQLException, IOException {
+        repository.forEachVisit(query, consumer);
+    }
+
+    @Override
+    public boolean checkOverlapsPeriod(LocalDateTime startPeriod, LocalDateTime endPeriod, int excludeId)
+            throws AppException, SQLException {
+        return repository.checkOverlapsPeriod(startPeriod, endPeriod, excludeId);
+    }
+
+    @Override
+    public boolean[] writeVisits(List<Visit> visits, boolean[] inserts) throws SQLException {
+        return repository.writeVisits(visits, inserts);
+    }
+
+    @Override
+    public boolean insertVisit(Visit visit) throws AppException, SQLException {
+        if (visit == null) {
+            throw ErrorFactory.internalServerError("Null Visit passed to insertVisit");
+        }
+        return write(visit, true);
+    }
+
+    @Override
+    public boolean updateVisit(Visit visit) throws AppException, SQLException {
+        if (visit == null) {
+            throw ErrorFactory.internalServerError("Null Visit passed to updateVisit");
+        }
+        return write(visit, false);
+    }
+
+    private boolean write(Visit visit, boolean insert) throws AppException, SQLException {
+        if (!running) {
+            throw ErrorFactory.internalServerError("Repository is closed");
+        }
+        PendingWrite pendingWrite = new PendingWrite(visit, insert);
+        queue.add(pendingWrite);
+        if (!running && queue.remove(pendingWrite)) {
+            throw ErrorFactory.internalServerError("Repository is closed");
+        }
+        try {
+            return pendingWrite.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ErrorFactory.internalServerError("Interrupted while writing Visit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sqlException) throw sqlException;
+            if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+            throw ErrorFactory.internalServerError(cause.getMessage(), cause);
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    PendingWrite next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) continue;
+            }
+            writeBatch(batch);
+            batch.clear();
+        }
+        PendingWrite pendingWrite;
+        while ((pendingWrite = queue.poll()) != null) {
+            pendingWrite.result.completeExceptionally(ErrorFactory.internalServerError("Repository is closed"));
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        List<Visit> visits = new ArrayList<>(batch.size());
+        boolean[] inserts = new boolean[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            visits.add(batch.get(i).visit);
+            inserts[i] = batch.get(i).insert;
+        }
+        batches.increment();
+        writes.add(batch.size());
+        try {
+            boolean[] written = repository.writeVisits(visits, inserts);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(written[i]);
+            }
+            return;
+        } catch (SQLException | RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            failedBatches.increment();
+            logger.warn("Batch of {} writes failed, writing them one by one: {}", batch.size(), e.getMessage());
+        }
+        for (PendingWrite pendingWrite : batch) {
+            try {
+                pendingWrite.result.complete(pendingWrite.insert
+                        ? repository.insertVisit(pendingWrite.visit)
+                        : repository.updateVisit(pendingWrite.visit));
+            } catch (SQLException | RuntimeException e) {
+                pendingWrite.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return average number of writes per transaction
+     */
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) writes.sum() / count;
+    }
+
+    /**
+     * Stops accepting writes, the writes already queued are written
+     */
+    @Override
+    public void close() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BatchingRepository{" +
+                "batches=" + batches +
+                ", writes=" + writes +
+                ", failedBatches=" + failedBatches +
+                '}';
+    }
+
+    private static final class PendingWrite {
+        private final Visit visit;
+        private final boolean insert;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        private PendingWrite(Visit visit, boolean insert) {
+            this.visit = visit;
+            this.insert = insert;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package http.server.application;
+
+import http.server.error.AppException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Read-through cache in front of a repository.
+ *
+ * <ul>
+ *   <li>Visits by id are kept in an LRU map of at most maxVisits entries</li>
+ *   <li>The JSON array of all visits is kept in a heap buffer if it is not larger than maxListBytes,
+ *   answers share it. After a write the first request rebuilds it, the requests that miss meanwhile
+ *   wait for that rebuild instead of reading all visits again</li>
+ *   <li>Inserts, updates and deletes go to the repository, then drop the entry of the visit and the list,
+ *   the next read fills it: concurrent writes of one visit may finish in another order than they commit</li>
+ * </ul>
+ *
+ * <p>Every write increments the version of the cache, a value read from the repository is stored only
+ * if no write happened while it was read, so a slow read cannot put back a visit replaced by a write.
+ * Visits returned by the cache are shared and must not be changed.
+ */
+public class CachingRepository implements VisitStore {
+    private final VisitStore repository;
+    private final int maxListBytes;
+    private final LinkedHashMap<Integer, Visit> visits;
+    private final Object lock = new Object();
+    private long version;
+    private ByteBuffer allVisitsJson;
+    private long tooLargeListVersion = -1;
+    /**
+     * Rebuild of the list in progress, completed with null if the list could not be built
+     */
+    private CompletableFuture<ByteBuffer> listBuild;
+    private long listBuildVersion;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long listHits;
+    private long listMisses;
+
+    /**
+     * @param repository   repository with the visits
+     * @param maxVisits    max number of visits cached by id
+     * @param maxListBytes max size of the cached JSON of all visits, larger lists are streamed from the repository
+     */
+    public CachingRepository(VisitStore repository, int maxVisits, int maxListBytes) {
+        this.repository = repository;
+        this.maxListBytes = maxListBytes;
+        this.visits = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Visit> eldest) {
+                if (size() <= maxVisits) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public boolean checkExistVisitById(int id) throws SQLException {
+        synchronized (lock) {
+            if (visits.containsKey(id)) {
+                hits++;
+                return true;
+            }
+            misses++;
+        }
+        return repository.checkExistVisitById(id);
+    }
+
+    @Override
+    public Visit getVisitById(int id) throws SQLException {
+        long readVersion;
+        synchronized (lock) {
+            Visit visit = visits.get(id);
+            if (visit != null) {
+                hits++;
+                return visit;
+            }
+            misses++;
+            readVersion = version;
+        }
+        Visit visit = repository.getVisitById(id);
+        if (visit != null) {
+            synchronized (lock) {
+                if (version == readVersion) visits.put(id, visit);
+            }
+        }
+        return visit;
+    }
+
+    @Override
+    public ByteBuffer getAllVisitsJson() throws SQLException {
+        long readVersion;
+        CompletableFuture<ByteBuffer> build;
+        boolean builder;
+        synchronized (lock) {
+            if (allVisitsJson != null) {
+                listHits++;
+                return allVisitsJson.duplicate();
+            }
+            listMisses++;
+            if (tooLargeListVersion == version) return null;
+            if (listBuild != null && listBuildVersion == version) {
+                build = listBuild;
+                builder = false;
+            } else {
+                build = listBuild = new CompletableFuture<>();
+                listBuildVersion = version;
+                builder = true;
+            }
+            readVersion = version;
+        }
+        if (!builder) {
+            ByteBuffer json = build.join();
+            return json == null ? null : json.duplicate();
+        }
+
+        ByteBuffer json = null;
+        boolean tooLarge = false;
+        try {
+            json = serializeAllVisits();
+        } catch (ListTooLargeException e) {
+            tooLarge = true;
+        } catch (IOException e) {
+            // streamed by the caller
+        } finally {
+            synchronized (lock) {
+                if (version == readVersion) {
+                    if (json != null) allVisitsJson = json;
+                    if (tooLarge) tooLargeListVersion = readVersion;
+                }
+                if (listBuild == build) listBuild = null;
+            }
+            build.complete(json);
+        }
+        return json == null ? null : json.duplicate();
+    }
+
+    /**
+     * @throws ListTooLargeException if the JSON is larger than maxListBytes
+     */
+    private ByteBuffer serializeAllVisits() throws SQLException, IOException {
+        VisitJson json = new VisitJson(Math.min(maxListBytes, 64 * 1024) + 1);
+        json.beginArray();
+        repository.forEachVisit(visit -> {
+            json.write(visit);
+            if (json.length() >= maxListBytes) throw new ListTooLargeException();
+        });
+        json.endArray();
+        if (json.length() > maxListBytes) throw new ListTooLargeException();
+        return json.toByteBuffer();
+    }
+
+    @Override
+    public void forEachVisit(VisitConsumer consumer) throws SQLException, IOException {
+        repository.forEachVisit(consumer);
+    }
+
+    @Override
+    public void forEachVisit(VisitQuery query, VisitConsumer consumer) throws SQLException, IOException {
+        repository.forEachVisit(query, consumer);
+    }
+
+    @Override
+    public List<Visit> getAllVisits() throws SQLException {
+        return repository.getAllVisits();
+    }
+
+    @Override
+    public boolean checkOverlapsPeriod(LocalDateTime startPeriod, LocalDateTime endPeriod, int excludeId)
+            throws AppException, SQLException {
+        return repository.checkOverlapsPeriod(startPeriod, endPeriod, excludeId);
+    }
+
+    @Override
+    public boolean insertVisit(Visit visit) throws AppException, SQLException {
+        try {
+            return repository.insertVisit(visit);
+        } finally {
+            written(visit == null ? 0 : visit.getId());
+        }
+    }
+
+    @Override
+    public boolean updateVisit(Visit visit) throws AppException, SQLException {
+        try {
+            return repository.updateVisit(visit);
+        } finally {
+            written(visit == null ? 0 : visit.getId());
+        }
+    }
+
+    @Override
+    public boolean deleteVisitById(int id) throws SQLException {
+        try {
+            return repository.deleteVisitById(id);
+        } finally {
+            written(id);
+        }
+    }
+
+    /**
+     * Called after every write, also a failed one: the state of the visit in the repository is not known.
+     * The visit is not stored here, the write that finishes last may not be the one committed last.
+     */
+    private void written(int id) {
+        synchronized (lock) {
+            version++;
+            allVisitsJson = null;
+            visits.remove(id);
+        }
+    }
+
+    public long getHits() {
+        synchronized (lock) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (lock) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return share of lookups by id answered from the cache, 0 if there were no lookups
+     */
+    public double getHitRatio() {
+        synchronized (lock) {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (lock) {
+            return evictions;
+        }
+    }
+
+    public int getSize() {
+        synchronized (lock) {
+            return visits.size();
+        }
+    }
+
+    public long getListHits() {
+        synchronized (lock) {
+            return listHits;
+        }
+    }
+
+    public long getListMisses() {
+        synchronized (lock) {
+            return listMisses;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "CachingRepository{" +
+                    "size=" + visits.size() +
+                    ", hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", listHits=" + listHits +
+                    ", listMisses=" + listMisses +
+                    ", listBytes=" + (allVisitsJson == null ? 0 : allVisitsJson.capacity()) +
+                    '}';
+        }
+    }
+
+    /**
+     * Unchecked to pass through the visit consumer and the store as is
+     */
+    private static final class ListTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ListTooLargeException() {
+            super("List of visits is larger than the cache limit", null, false, false);
+        }
+    }
+}
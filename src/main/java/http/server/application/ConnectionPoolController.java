@@ -0,0 +1,233 @@
+package http.server.application;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import http.server.error.AppException;
+import http.server.error.ErrorFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sizes the HikariCP pool by the wait for connections and sheds requests the pool cannot serve soon.
+ *
+ * <p>Every adjust interval the mean acquire wait of the interval is compared with the target. Above it,
+ * or with threads waiting, the maximum pool size grows by the number of waiting threads; with short waits
+ * and less than half of the connections in use it shrinks by one, never leaving [minSize, maxSize].
+ * The pool does not grow while connections are held more than twice as long as usual: the database itself
+ * is slow then, more connections would only add to its load, so the pool shrinks instead. The usual hold time
+ * follows the measured one slowly, so a lasting change of the database becomes the new usual after a few intervals.
+ *
+ * <p>A thread asking for a connection while maxPending threads already wait, or whose wait timed out,
+ * gets a 503 with Retry-After instead of waiting for the whole connection timeout.
+ */
+public final class ConnectionPoolController implements MetricsTrackerFactory, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(ConnectionPoolController.class);
+    private static final double BASELINE_WEIGHT = 0.1;
+    private static final double SLOW_HOLD_FACTOR = 2.0;
+    private final MetricsTrackerFactory delegate;
+    private final boolean autoSize;
+    private final int minSize;
+    private final int maxSize;
+    private final long adjustIntervalMillis;
+    private final long acquireTargetNanos;
+    private final int maxPending;
+    private final int retryAfterSeconds;
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAdder usages = new LongAdder();
+    private final LongAdder usageMillis = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder resizes = new LongAdder();
+    private volatile int poolSize;
+    /**
+     * Usual time a connection is held, -1 until the first interval with connections returned
+     */
+    private double baselineHoldMillis = -1;
+    private volatile HikariDataSource dataSource;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param delegate   receives the pool statistics as well, may be null
+     * @param autoSize   false to keep the pool at maxSize and only shed requests
+     * @param maxPending threads waiting for a connection at which new requests are rejected
+     */
+    public ConnectionPoolController(MetricsTrackerFactory delegate, boolean autoSize, int minSize, int maxSize,
+                                    long adjustIntervalMillis, long acquireTargetMillis, int maxPending,
+                                    int retryAfterSeconds) {
+        this.delegate = delegate;
+        this.autoSize = autoSize;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.adjustIntervalMillis = adjustIntervalMillis;
+        this.acquireTargetNanos = TimeUnit.MILLISECONDS.toNanos(acquireTargetMillis);
+        this.maxPending = maxPending;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.poolSize = autoSize ? minSize : maxSize;
+    }
+
+    /**
+     * Creates the data source of the config with the initial pool size, its connections are requested
+     * through the controller
+     */
+    HikariDataSource createDataSource(HikariConfig config) {
+        config.setMaximumPoolSize(poolSize);
+        config.setMinimumIdle(Math.min(minSize, poolSize));
+        config.setMetricsTrackerFactory(this);
+        HikariDataSource source = new HikariDataSource(config) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                checkPending();
+                try {
+                    return super.getConnection();
+                } catch (SQLTransientConnectionException e) {
+                    shed.increment();
+                    throw ErrorFactory.serviceUnavailable("No database connection available", retryAfterSeconds, e);
+                }
+            }
+        };
+        dataSource = source;
+        if (autoSize) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "db-pool-controller");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::adjust, adjustIntervalMillis, adjustIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        return source;
+    }
+
+    private void checkPending() throws AppException {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool != null && pool.getThreadsAwaitingConnection() >= maxPending) {
+            shed.increment();
+            throw ErrorFactory.serviceUnavailable("Database is overloaded", retryAfterSeconds, null);
+        }
+    }
+
+    private void adjust() {
+        try {
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            if (pool == null) return;
+            long intervalAcquires = acquires.sumThenReset();
+            long intervalAcquireNanos = acquireNanos.sumThenReset();
+            long intervalUsages = usages.sumThenReset();
+            long intervalUsageMillis = usageMillis.sumThenReset();
+            long intervalTimeouts = timeouts.sumThenReset();
+            int pending = pool.getThreadsAwaitingConnection();
+            double meanWaitNanos = intervalAcquires == 0 ? 0 : (double) intervalAcquireNanos / intervalAcquires;
+            double meanHoldMillis = intervalUsages == 0 ? -1 : (double) intervalUsageMillis / intervalUsages;
+
+            boolean saturated = pending > 0 || intervalTimeouts > 0 || meanWaitNanos > acquireTargetNanos;
+            boolean slowDatabase = baselineHoldMillis >= 0
+                    && meanHoldMillis > Math.max(baselineHoldMillis, 1) * SLOW_HOLD_FACTOR;
+            if (meanHoldMillis >= 0) {
+                baselineHoldMillis = baselineHoldMillis < 0 ? meanHoldMillis
+                        : baselineHoldMillis + BASELINE_WEIGHT * (meanHoldMillis - baselineHoldMillis);
+            }
+
+            int size = poolSize;
+            int newSize = size;
+            if (saturated && !slowDatabase) {
+                newSize = Math.min(maxSize, size + Math.max(1, pending));
+            } else if (slowDatabase || pool.getActiveConnections() < size / 2) {
+                newSize = Math.max(minSize, size - 1);
+            }
+            if (newSize == size) return;
+            dataSource.getHikariConfigMXBean().setMaximumPoolSize(newSize);
+            poolSize = newSize;
+            resizes.increment();
+            logger.info("Connection pool resized from {} to {}: acquire wait {} ms, waiting threads {}," +
+                            " hold time {} ms (usual {} ms)", size, newSize,
+                    String.format("%.2f", meanWaitNanos / 1_000_000), pending,
+                    String.format("%.2f", meanHoldMillis), String.format("%.2f", baselineHoldMillis));
+        } catch (RuntimeException e) {
+            logger.error("Adjusting the connection pool failed", e);
+        }
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        IMetricsTracker tracker = delegate == null ? new IMetricsTracker() {
+        } : delegate.create(poolName, poolStats);
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                tracker.recordConnectionCreatedMillis(connectionCreatedMillis);
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquires.increment();
+                acquireNanos.add(elapsedAcquiredNanos);
+                tracker.recordConnectionAcquiredNanos(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usages.increment();
+                usageMillis.add(elapsedBorrowedMillis);
+                tracker.recordConnectionUsageMillis(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+                tracker.recordConnectionTimeout();
+            }
+
+            @Override
+            public void close() {
+                tracker.close();
+            }
+        };
+    }
+
+    /**
+     * @return current maximum size of the pool
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @return requests rejected because too many threads waited for a connection or the wait timed out
+     */
+    public long getShed() {
+        return shed.sum();
+    }
+
+    public long getResizes() {
+        return resizes.sum();
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolController{" +
+                "poolSize=" + poolSize +
+                ", minSize=" + minSize +
+                ", maxSize=" + maxSize +
+                ", resizes=" + resizes.sum() +
+                ", shed=" + shed.sum() +
+                '}';
+    }
+}
@@ -25,6 +25,19 @@ public class Constants {
                     "from db_spec.visit " +
                     "where id != ? and not(start_time >= ? or end_time <= ?)";
 
+    /**
+     * Keyset page: id > ?, then the optional conditions on start_time, then the order and the limit
+     */
+    public static final String SELECT_VISITS_PAGE_QUERY =
+            "select id, fio, contact, start_time, end_time \n" +
+                    "from db_spec.visit where id > ?";
+
+    public static final String VISITS_PAGE_FROM_CONDITION = " and start_time >= ?";
+
+    public static final String VISITS_PAGE_TO_CONDITION = " and start_time < ?";
+
+    public static final String VISITS_PAGE_ORDER = " order by id asc limit ?";
+
     public static final String SELECT_All_VISIT_QUERY =
             "select id, fio, contact, start_time, end_time \n" +
                     "from db_spec.visit order by id asc";
@@ -13,7 +13,21 @@ public class DatabaseSource {
 
     private DatabaseSource() {}
 
-    public static HikariDataSource getDataSource(String dbUrl, String dbUser, String dbPassword, int maxPoolSize){
+    /**
+     * @param prepareThreshold            executions of a statement before pgjdbc switches it to a server-side
+     *                                    prepared statement, 0 disables server-side prepare
+     * @param preparedStatementCacheQueries max number of prepared queries cached by pgjdbc per connection
+     * @param preparedStatementCacheSizeMiB max memory of the query cache per connection
+     * @param connectionTimeoutMillis     max wait for a connection before the request is answered with 503
+     * @param leakDetectionThresholdMillis time a connection may be held before a leak is logged, 0 disables it
+     * @param poolController              sizes the pool between its bounds and sheds requests, receives
+     *                                    the pool statistics
+     */
+    public static HikariDataSource getDataSource(String dbUrl, String dbUser, String dbPassword,
+                                                 int prepareThreshold, int preparedStatementCacheQueries,
+                                                 int preparedStatementCacheSizeMiB,
+                                                 int connectionTimeoutMillis, int leakDetectionThresholdMillis,
+                                                 ConnectionPoolController poolController){
         if (instanceHikariDataSource != null && !instanceHikariDataSource.isClosed())
             return instanceHikariDataSource;
 
@@ -26,14 +40,15 @@ public class DatabaseSource {
             config.setUsername(dbUser);
             config.setPassword(dbPassword);
 
-            config.setMaximumPoolSize(maxPoolSize);
-            config.setMinimumIdle(5);
-            config.setConnectionTimeout(5000);
+            config.setConnectionTimeout(connectionTimeoutMillis);
             config.setIdleTimeout(300000);
             config.setMaxLifetime(1800000);
-            config.setLeakDetectionThreshold(5000);
+            config.setLeakDetectionThreshold(leakDetectionThresholdMillis);
             config.setPoolName("MyHikariPool");
-            instanceHikariDataSource = new HikariDataSource(config);
+            config.addDataSourceProperty("prepareThreshold", prepareThreshold);
+            config.addDataSourceProperty("preparedStatementCacheQueries", preparedStatementCacheQueries);
+            config.addDataSourceProperty("preparedStatementCacheSizeMiB", preparedStatementCacheSizeMiB);
+            instanceHikariDataSource = poolController.createDataSource(config);
         }
         return instanceHikariDataSource;
     }
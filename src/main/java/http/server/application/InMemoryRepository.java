@@ -0,0 +1,104 @@
+package http.server.application;
+
+import http.server.error.AppException;
+import http.server.error.ErrorFactory;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Repository stand-in keeping visits in memory, for benchmarks and load tests of the server without Postgres
+ */
+public class InMemoryRepository implements VisitStore {
+    private final ConcurrentSkipListMap<Integer, Visit> visits = new ConcurrentSkipListMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    /**
+     * Fills the repository with one-hour visits following each other from tomorrow 9:00
+     */
+    public static InMemoryRepository withVisits(int count) {
+        InMemoryRepository repository = new InMemoryRepository();
+        LocalDateTime startTime = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).plusDays(1).plusHours(9);
+        for (int i = 0; i < count; i++) {
+            repository.insertVisit(new Visit("Ivanov Ivan Ivanovich " + i, "+7999000" + i,
+                    startTime.plusHours(i), startTime.plusHours(i + 1)));
+        }
+        return repository;
+    }
+
+    @Override
+    public boolean checkExistVisitById(int id) {
+        return visits.containsKey(id);
+    }
+
+    @Override
+    public Visit getVisitById(int id) {
+        return visits.get(id);
+    }
+
+    @Override
+    public boolean deleteVisitById(int id) {
+        if (id <= 0) {
+            throw ErrorFactory.internalServerError("id for delete must be > 0");
+        }
+        return visits.remove(id) != null;
+    }
+
+    @Override
+    public List<Visit> getAllVisits() {
+        return new ArrayList<>(visits.values());
+    }
+
+    @Override
+    public void forEachVisit(VisitConsumer consumer) throws IOException {
+        for (Visit visit : visits.values()) {
+            consumer.accept(visit);
+        }
+    }
+
+    @Override
+    public void forEachVisit(VisitQuery query, VisitConsumer consumer) throws IOException {
+        int count = 0;
+        for (Visit visit : visits.tailMap(query.getAfterId(), false).values()) {
+            if (count >= query.getLimit()) return;
+            if (!query.matchesPeriod(visit)) continue;
+            consumer.accept(visit);
+            count++;
+        }
+    }
+
+    @Override
+    public boolean insertVisit(Visit visit) throws AppException {
+        if (visit == null) {
+            throw ErrorFactory.internalServerError("Null Visit passed to insertVisit");
+        }
+        visit.setId(sequence.incrementAndGet());
+        visits.put(visit.getId(), visit);
+        return true;
+    }
+
+    @Override
+    public boolean checkOverlapsPeriod(LocalDateTime startPeriod, LocalDateTime endPeriod, int excludeId) {
+        for (Visit visit : visits.values()) {
+            if (visit.getId() != excludeId
+                    && visit.getStartTime().isBefore(endPeriod)
+                    && visit.getEndTime().isAfter(startPeriod)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean updateVisit(Visit visit) throws AppException {
+        if (visit == null) {
+            throw ErrorFactory.internalServerError("Null Visit passed to updateVisit");
+        }
+        return visits.replace(visit.getId(), visit) != null;
+    }
+}
@@ -0,0 +1,131 @@
+package http.server.application;
+
+import http.server.error.AppException;
+import http.server.error.ErrorFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Repository that checks overlaps of periods with a {@link PeriodIndex} loaded at startup.
+ *
+ * <p>Inserts and updates reserve the period in the index before the write, a request whose period was taken
+ * by a concurrent request after its validation fails with the same error as the validation.
+ * The index only sees writes made through this server, other writers of the table require the database check.
+ *
+ * <p>Updates and deletes of one id are serialized from the write to the change of the index (by a lock of a stripe
+ * of ids), so the index ends with the period of the write committed last.
+ */
+public class IndexedRepository implements VisitStore {
+    private static final int WRITE_LOCK_STRIPES = 64;
+    private final VisitStore repository;
+    private final PeriodIndex periodIndex = new PeriodIndex();
+    private final ReentrantLock[] writeLocks = new ReentrantLock[WRITE_LOCK_STRIPES];
+
+    public IndexedRepository(VisitStore repository) throws SQLException, IOException {
+        this.repository = repository;
+        for (int i = 0; i < writeLocks.length; i++) {
+            writeLocks[i] = new ReentrantLock();
+        }
+        repository.forEachVisit(visit -> periodIndex.add(visit.getId(), visit.getStartTime(), visit.getEndTime()));
+    }
+
+    public PeriodIndex getPeriodIndex() {
+        return periodIndex;
+    }
+
+    @Override
+    public boolean checkExistVisitById(int id) throws SQLException {
+        return repository.checkExistVisitById(id);
+    }
+
+    @Override
+    public Visit getVisitById(int id) throws SQLException {
+        return repository.getVisitById(id);
+    }
+
+    @Override
+    public ByteBuffer getAllVisitsJson() throws SQLException {
+        return repository.getAllVisitsJson();
+    }
+
+    @Override
+    public void forEachVisit(VisitConsumer consumer) throws SQLException, IOException {
+        repository.forEachVisit(consumer);
+    }
+
+    @Override
+    public void forEachVisit(VisitQuery query, VisitConsumer consumer) throws SQLException, IOException {
+        repository.forEachVisit(query, consumer);
+    }
+
+    @Override
+    public List<Visit> getAllVisits() throws SQLException {
+        return repository.getAllVisits();
+    }
+
+    @Override
+    public boolean checkOverlapsPeriod(LocalDateTime startPeriod, LocalDateTime endPeriod, int excludeId)
+            throws AppException {
+        if (startPeriod == null || endPeriod == null) {
+            throw ErrorFactory.internalServerError("Null startPeriod or null endPeriod passed to checkOverlapsPeriod");
+        }
+        return periodIndex.overlaps(startPeriod, endPeriod, excludeId);
+    }
+
+    @Override
+    public boolean insertVisit(Visit visit) throws AppException, SQLException {
+        if (visit == null) return repository.insertVisit(null);
+        try (PeriodIndex.Reservation reservation = reserve(visit, -1)) {
+            boolean inserted = repository.insertVisit(visit);
+            if (inserted) reservation.commit(visit.getId());
+            return inserted;
+        }
+    }
+
+    @Override
+    public boolean updateVisit(Visit visit) throws AppException, SQLException {
+        if (visit == null) return repository.updateVisit(null);
+        ReentrantLock writeLock = writeLock(visit.getId());
+        writeLock.lock();
+        try (PeriodIndex.Reservation reservation = reserve(visit, visit.getId())) {
+            boolean updated = repository.updateVisit(visit);
+            if (updated) reservation.commit(visit.getId());
+            return updated;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Period of a visit whose delete failed stays in the index: the row may still exist
+     */
+    @Override
+    public boolean deleteVisitById(int id) throws SQLException {
+        ReentrantLock writeLock = writeLock(id);
+        writeLock.lock();
+        try {
+            boolean deleted = repository.deleteVisitById(id);
+            if (deleted) periodIndex.remove(id);
+            return deleted;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private ReentrantLock writeLock(int id) {
+        return writeLocks[Math.floorMod(id, WRITE_LOCK_STRIPES)];
+    }
+
+    private PeriodIndex.Reservation reserve(Visit visit, int excludeId) throws AppException {
+        PeriodIndex.Reservation reservation = periodIndex.reserve(visit.getStartTime(), visit.getEndTime(), excludeId);
+        if (reservation == null)
+            throw ErrorFactory.badRequest("Requested period overlaps with periods of other records",
+                    "INCORRECT_REQUEST_PERIOD");
+        return reservation;
+    }
+}
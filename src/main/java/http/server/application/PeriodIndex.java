@@ -0,0 +1,176 @@
+package http.server.application;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Booked periods of visits sorted by start time, answers overlap checks without the database.
+ *
+ * <p>Periods [start, end) are kept in a tree by start time. All periods that can overlap [from, to) start
+ * in [from - longest period, to), so a check is one range lookup in O(log n) plus the periods of that range,
+ * which holds only a few periods since visits last at most a few hours.
+ *
+ * <p>A write takes a {@link Reservation} first: the check of the period and its booking are one step under
+ * the lock, so two overlapping requests cannot both pass the check. The reservation is committed after the
+ * write to the repository and cancelled if the write fails.
+ */
+public class PeriodIndex {
+    private final TreeSet<Period> periods = new TreeSet<>();
+    private final Map<Integer, Period> periodsById = new HashMap<>();
+    private final Object lock = new Object();
+    private Duration longestPeriod = Duration.ZERO;
+    private long sequence;
+    private long reservations;
+    private long conflicts;
+
+    /**
+     * Adds the period of a stored visit, replacing its previous period
+     */
+    public void add(int id, LocalDateTime startTime, LocalDateTime endTime) {
+        synchronized (lock) {
+            remove(id);
+            Period period = newPeriod(id, startTime, endTime);
+            periods.add(period);
+            periodsById.put(id, period);
+        }
+    }
+
+    public void remove(int id) {
+        synchronized (lock) {
+            Period period = periodsById.remove(id);
+            if (period != null) periods.remove(period);
+        }
+    }
+
+    /**
+     * @param excludeId id of the visit whose stored period is ignored, the visit being updated
+     * @return true if the period overlaps a stored or reserved period
+     */
+    public boolean overlaps(LocalDateTime startTime, LocalDateTime endTime, int excludeId) {
+        synchronized (lock) {
+            LocalDateTime from = startTime.minus(longestPeriod);
+            for (Period period : periods.subSet(new Period(from, Long.MIN_VALUE), new Period(endTime, Long.MIN_VALUE))) {
+                if (period.endTime.isAfter(startTime) && (period.reserved || period.id != excludeId)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Books the period if it does not overlap stored or reserved periods
+     *
+     * @param excludeId id of the visit being updated, -1 for a new visit
+     * @return reservation to commit after the write, null if the period overlaps
+     */
+    public Reservation reserve(LocalDateTime startTime, LocalDateTime endTime, int excludeId) {
+        synchronized (lock) {
+            if (overlaps(startTime, endTime, excludeId)) {
+                conflicts++;
+                return null;
+            }
+            Period period = newPeriod(excludeId, startTime, endTime);
+            period.reserved = true;
+            periods.add(period);
+            reservations++;
+            return new Reservation(period);
+        }
+    }
+
+    private Period newPeriod(int id, LocalDateTime startTime, LocalDateTime endTime) {
+        Period period = new Period(startTime, sequence++);
+        period.id = id;
+        period.endTime = endTime;
+        Duration duration = Duration.between(startTime, endTime);
+        if (duration.compareTo(longestPeriod) > 0) longestPeriod = duration;
+        return period;
+    }
+
+    public int getSize() {
+        synchronized (lock) {
+            return periodsById.size();
+        }
+    }
+
+    /**
+     * @return reservations refused because the period was taken
+     */
+    public long getConflicts() {
+        synchronized (lock) {
+            return conflicts;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "PeriodIndex{" +
+                    "size=" + periodsById.size() +
+                    ", reserved=" + (periods.size() - periodsById.size()) +
+                    ", reservations=" + reservations +
+                    ", conflicts=" + conflicts +
+                    '}';
+        }
+    }
+
+    /**
+     * Period held for a write in progress, it blocks overlapping periods until it is committed or closed
+     */
+    public final class Reservation implements AutoCloseable {
+        private final Period period;
+        private boolean done;
+
+        private Reservation(Period period) {
+            this.period = period;
+        }
+
+        /**
+         * Turns the reservation into the stored period of the visit, replacing its previous period
+         */
+        public void commit(int id) {
+            synchronized (lock) {
+                if (done) return;
+                done = true;
+                periods.remove(period);
+                PeriodIndex.this.remove(id);
+                period.id = id;
+                period.reserved = false;
+                periods.add(period);
+                periodsById.put(id, period);
+            }
+        }
+
+        /**
+         * Releases the period if the reservation has not been committed
+         */
+        @Override
+        public void close() {
+            synchronized (lock) {
+                if (done) return;
+                done = true;
+                periods.remove(period);
+            }
+        }
+    }
+
+    private static final class Period implements Comparable<Period> {
+        private final LocalDateTime startTime;
+        private final long sequence;
+        private LocalDateTime endTime;
+        private int id;
+        private boolean reserved;
+
+        private Period(LocalDateTime startTime, long sequence) {
+            this.startTime = startTime;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Period other) {
+            int result = startTime.compareTo(other.startTime);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
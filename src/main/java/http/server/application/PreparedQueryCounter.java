@@ -0,0 +1,76 @@
+package http.server.application;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prepares statements of the repository and counts how often each physical connection prepares the same SQL again.
+ *
+ * <p>Statements are not kept by the repository: Hikari closes them when the connection returns to the pool.
+ * pgjdbc may keep the server-side prepared statement in the cache of the physical connection
+ * (keyed by SQL, see prepareThreshold and preparedStatementCache* in DatabaseSource), so the next
+ * prepareStatement with the same SQL on the same physical connection can skip Parse on the server.
+ *
+ * <p>The counters only tell what the repository asked for: a repeat is SQL the physical connection has prepared
+ * before, a first preparation is SQL it has never prepared. Whether pgjdbc reused a server-side statement
+ * for a repeat (the prepareThreshold reached, the statement not evicted from the driver cache) is not visible here.
+ */
+public class PreparedQueryCounter {
+    private final Map<Connection, Set<String>> preparedQueries = Collections.synchronizedMap(new WeakHashMap<>());
+    private final LongAdder repeated = new LongAdder();
+    private final LongAdder first = new LongAdder();
+
+    public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        count(connection, sql);
+        return connection.prepareStatement(sql);
+    }
+
+    public PreparedStatement prepare(Connection connection, String sql, int autoGeneratedKeys) throws SQLException {
+        count(connection, sql);
+        return connection.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    private void count(Connection connection, String sql) throws SQLException {
+        Connection physicalConnection = connection.isWrapperFor(Connection.class)
+                ? connection.unwrap(Connection.class)
+                : connection;
+        boolean added;
+        synchronized (preparedQueries) {
+            added = preparedQueries.computeIfAbsent(physicalConnection, key -> new HashSet<>()).add(sql);
+        }
+        if (added) {
+            first.increment();
+        } else {
+            repeated.increment();
+        }
+    }
+
+    /**
+     * @return statements prepared on a physical connection that had already prepared the same SQL
+     */
+    public long getRepeated() {
+        return repeated.sum();
+    }
+
+    /**
+     * @return first preparations of SQL on a physical connection
+     */
+    public long getFirst() {
+        return first.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedQueryCounter{" +
+                "repeated=" + repeated +
+                ", first=" + first +
+                '}';
+    }
+}
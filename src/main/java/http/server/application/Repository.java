@@ -8,19 +8,35 @@ import http.server.error.ErrorFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
-public class Repository {
+public class Repository implements VisitStore {
     private static final Logger logger = LogManager.getLogger(Repository.class);
     private static final Gson GSON_INSTANCE = new GsonBuilder()
             .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
             .excludeFieldsWithoutExposeAnnotation()
             .create();
+    /**
+     * Rows fetched from Postgres per round trip when visits are streamed,
+     * without fetch size the driver reads the whole result set into memory
+     */
+    private static final int STREAM_FETCH_SIZE = 256;
+    /**
+     * Page queries by the filters present: none, from, to, from and to
+     */
+    static final String[] PAGE_QUERIES = {
+            Constants.SELECT_VISITS_PAGE_QUERY + Constants.VISITS_PAGE_ORDER,
+            Constants.SELECT_VISITS_PAGE_QUERY + Constants.VISITS_PAGE_FROM_CONDITION + Constants.VISITS_PAGE_ORDER,
+            Constants.SELECT_VISITS_PAGE_QUERY + Constants.VISITS_PAGE_TO_CONDITION + Constants.VISITS_PAGE_ORDER,
+            Constants.SELECT_VISITS_PAGE_QUERY + Constants.VISITS_PAGE_FROM_CONDITION
+                    + Constants.VISITS_PAGE_TO_CONDITION + Constants.VISITS_PAGE_ORDER
+    };
     private final HikariDataSource dataSource;
-
+    private final PreparedQueryCounter preparedQueries = new PreparedQueryCounter();
 
     public Repository(HikariDataSource dataSource) {
         this.dataSource =  dataSource;
@@ -30,9 +46,13 @@ public class Repository {
         return GSON_INSTANCE;
     }
 
+    public PreparedQueryCounter getPreparedQueries() {
+        return preparedQueries;
+    }
+
     public boolean checkExistVisitById(int id) throws SQLException {
         try (   Connection connection = dataSource.getConnection();
-                PreparedStatement ps = connection.prepareStatement(Constants.CHECK_EXIST_VISIT_BY_ID_QUERY)) {
+                PreparedStatement ps = preparedQueries.prepare(connection, Constants.CHECK_EXIST_VISIT_BY_ID_QUERY)) {
             ps.setInt(1, id);
             try (ResultSet rs = ps.executeQuery()) {
                 return rs.next();
@@ -42,7 +62,7 @@ public class Repository {
 
     public Visit getVisitById(int id) throws SQLException {
         try (   Connection connection = dataSource.getConnection();
-                PreparedStatement ps = connection.prepareStatement(Constants.SELECT_VISIT_BY_ID_QUERY)) {
+                PreparedStatement ps = preparedQueries.prepare(connection, Constants.SELECT_VISIT_BY_ID_QUERY)) {
             ps.setInt(1, id);
             try (ResultSet rs = ps.executeQuery()) {
                 return !rs.next() ? null : new Visit(
@@ -61,7 +81,7 @@ public class Repository {
             throw ErrorFactory.internalServerError("id for delete must be > 0");
         }
         try (Connection connection = dataSource.getConnection();
-             PreparedStatement ps = connection.prepareStatement(Constants.DELETE_VISIT_BY_ID_QUERY)) {
+             PreparedStatement ps = preparedQueries.prepare(connection, Constants.DELETE_VISIT_BY_ID_QUERY)) {
             connection.setAutoCommit(false);
             ps.setInt(1, id);
             try {
@@ -80,7 +100,7 @@ public class Repository {
 
     public List<Visit> getAllVisits() throws SQLException{
         try (   Connection connection = dataSource.getConnection();
-                PreparedStatement ps = connection.prepareStatement(Constants.SELECT_All_VISIT_QUERY)) {
+                PreparedStatement ps = preparedQueries.prepare(connection, Constants.SELECT_All_VISIT_QUERY)) {
             List<Visit> result = new ArrayList<>();
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
@@ -96,6 +116,61 @@ public class Repository {
         }
     }
 
+    /**
+     * Passes all visits to the consumer as rows are read, without collecting them in a list.
+     * The query runs in a transaction so that the driver can use a cursor with {@value #STREAM_FETCH_SIZE} rows per fetch.
+     */
+    public void forEachVisit(VisitConsumer consumer) throws SQLException, IOException {
+        try (   Connection connection = dataSource.getConnection();
+                PreparedStatement ps = preparedQueries.prepare(connection, Constants.SELECT_All_VISIT_QUERY)) {
+            connection.setAutoCommit(false);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(readVisit(rs));
+                }
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    /**
+     * Reads the page with a keyset condition on the primary key, so the cost of a page does not depend
+     * on its position. Rows are streamed with {@value #STREAM_FETCH_SIZE} rows per fetch, as in {@link #forEachVisit(VisitConsumer)}.
+     */
+    @Override
+    public void forEachVisit(VisitQuery query, VisitConsumer consumer) throws SQLException, IOException {
+        int variant = (query.getFrom() != null ? 1 : 0) | (query.getTo() != null ? 2 : 0);
+        try (   Connection connection = dataSource.getConnection();
+                PreparedStatement ps = preparedQueries.prepare(connection, PAGE_QUERIES[variant])) {
+            connection.setAutoCommit(false);
+            ps.setFetchSize(Math.min(query.getLimit(), STREAM_FETCH_SIZE));
+            int index = 1;
+            ps.setInt(index++, query.getAfterId());
+            if (query.getFrom() != null) ps.setTimestamp(index++, Timestamp.valueOf(query.getFrom()));
+            if (query.getTo() != null) ps.setTimestamp(index++, Timestamp.valueOf(query.getTo()));
+            ps.setInt(index, query.getLimit());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(readVisit(rs));
+                }
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    private static Visit readVisit(ResultSet rs) throws SQLException {
+        return new Visit(
+                rs.getInt("id"),
+                rs.getString("fio"),
+                rs.getString("contact"),
+                rs.getTimestamp("start_time").toLocalDateTime(),
+                rs.getTimestamp("end_time").toLocalDateTime()
+        );
+    }
+
     /**
      * Inserts a new Visit record into the database within a transaction.
      * Sets the generated ID to the Visit object if successful.
@@ -109,7 +184,7 @@ public class Repository {
             throw ErrorFactory.internalServerError("Null Visit passed to insertVisit");
         }
         try (Connection connection = dataSource.getConnection();
-             PreparedStatement ps = connection.prepareStatement(
+             PreparedStatement ps = preparedQueries.prepare(connection,
                      Constants.INSERT_NEW_VISIT_QUERY,
                      Statement.RETURN_GENERATED_KEYS)) {
             connection.setAutoCommit(false);
@@ -133,13 +208,74 @@ public class Repository {
         return false;
     }
 
+    /**
+     * Inserts and updates visits in one transaction with a JDBC batch per statement.
+     * Sets the generated IDs of inserted visits, on failure nothing is written.
+     *
+     * @param visits  visits to write (non-null)
+     * @param inserts for every visit true to insert it, false to update the existing record
+     * @return for every visit true if its record was written
+     * @throws SQLException if the batch fails, the caller can write the visits one by one to find the failed ones
+     */
+    public boolean[] writeVisits(List<Visit> visits, boolean[] inserts) throws SQLException {
+        boolean[] written = new boolean[visits.size()];
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement insert = preparedQueries.prepare(connection,
+                     Constants.INSERT_NEW_VISIT_QUERY,
+                     Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement update = preparedQueries.prepare(connection, Constants.UPDATE_EXIST_VISIT_QUERY)) {
+            connection.setAutoCommit(false);
+            int insertCount = 0;
+            for (int i = 0; i < visits.size(); i++) {
+                Visit visit = visits.get(i);
+                PreparedStatement ps = inserts[i] ? insert : update;
+                ps.setString(1, visit.getFio());
+                ps.setString(2, visit.getContact());
+                ps.setTimestamp(3, Timestamp.valueOf(visit.getStartTime()));
+                ps.setTimestamp(4, Timestamp.valueOf(visit.getEndTime()));
+                if (inserts[i]) {
+                    insertCount++;
+                } else {
+                    ps.setInt(5, visit.getId());
+                }
+                ps.addBatch();
+            }
+            try {
+                if (insertCount > 0) {
+                    insert.executeBatch();
+                    try (ResultSet generatedKeys = insert.getGeneratedKeys()) {
+                        for (int i = 0; i < visits.size(); i++) {
+                            if (!inserts[i] || !generatedKeys.next()) continue;
+                            visits.get(i).setId(generatedKeys.getInt(1));
+                            written[i] = true;
+                        }
+                    }
+                }
+                if (insertCount < visits.size()) {
+                    int[] updateCounts = update.executeBatch();
+                    int j = 0;
+                    for (int i = 0; i < visits.size(); i++) {
+                        if (inserts[i]) continue;
+                        int count = updateCounts[j++];
+                        written[i] = count > 0 || count == Statement.SUCCESS_NO_INFO;
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        return written;
+    }
+
     public boolean checkOverlapsPeriod(LocalDateTime startPeriod, LocalDateTime endPeriod, int excludeId) throws AppException,SQLException {
         if (startPeriod == null || endPeriod == null) {
             throw ErrorFactory.internalServerError("Null startPeriod or null endPeriod passed to checkOverlapsPeriod");
         }
 
         try (   Connection connection = dataSource.getConnection();
-                PreparedStatement ps = connection.prepareStatement(Constants.SELECT_VISIT_BY_OVERLAPS_PERIOD_QUERY)) {
+                PreparedStatement ps = preparedQueries.prepare(connection, Constants.SELECT_VISIT_BY_OVERLAPS_PERIOD_QUERY)) {
             ps.setInt(1, excludeId);
             ps.setTimestamp(2, Timestamp.valueOf(endPeriod));
             ps.setTimestamp(3, Timestamp.valueOf(startPeriod));
@@ -167,7 +303,7 @@ public class Repository {
 
 
         try (Connection connection = dataSource.getConnection();
-             PreparedStatement ps = connection.prepareStatement(
+             PreparedStatement ps = preparedQueries.prepare(connection,
                      Constants.UPDATE_EXIST_VISIT_QUERY,
                      Statement.RETURN_GENERATED_KEYS)) {
             connection.setAutoCommit(false);
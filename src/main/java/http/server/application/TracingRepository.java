@@ -0,0 +1,135 @@
+package http.server.application;
+
+import http.server.error.AppException;
+import http.server.trace.RequestTrace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository that adds the time of every call to the trace of the request that made it.
+ * It is the outermost decorator and is used only while tracing is enabled.
+ *
+ * <p>The time of forEachVisit includes the consumer, which writes the visits into the answer.
+ */
+public class TracingRepository implements VisitStore {
+    private final VisitStore repository;
+
+    public TracingRepository(VisitStore repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public boolean checkExistVisitById(int id) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return repository.checkExistVisitById(id);
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Visit getVisitById(int id) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return repository.getVisitById(id);
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean deleteVisitById(int id) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return repository.deleteVisitById(id);
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Visit> getAllVisits() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return repository.getAllVisits();
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public ByteBuffer getAllVisitsJson() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return repository.getAllVisitsJson();
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void forEachVisit(VisitConsumer consumer) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            repository.forEachVisit(consumer);
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void forEachVisit(VisitQuery query, VisitConsumer consumer) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            repository.forEachVisit(query, consumer);
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean insertVisit(Visit visit) throws AppException, SQLException {
+        long start = System.nanoTime();
+        try {
+            return repository.insertVisit(visit);
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean updateVisit(Visit visit) throws AppException, SQLException {
+        long start = System.nanoTime();
+        try {
+            return repository.updateVisit(visit);
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean[] writeVisits(List<Visit> visits, boolean[] inserts) throws AppException, SQLException {
+        long start = System.nanoTime();
+        try {
+            return repository.writeVisits(visits, inserts);
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean checkOverlapsPeriod(LocalDateTime startPeriod, LocalDateTime endPeriod, int excludeId)
+            throws AppException, SQLException {
+        long start = System.nanoTime();
+        try {
+            return repository.checkOverlapsPeriod(startPeriod, endPeriod, excludeId);
+        } finally {
+            RequestTrace.addStoreNanos(System.nanoTime() - start);
+        }
+    }
+}
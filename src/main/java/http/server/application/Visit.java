@@ -36,7 +36,7 @@ public class Visit {
 
     }
 
-    public boolean validatePeriod (Repository repository) throws AppException {
+    public boolean validatePeriod (VisitStore repository) throws AppException {
         //1
         if (!startTime.isBefore(endTime))
             throw ErrorFactory.badRequest("startStime <= endTime", "INCORRECT_REQUEST_PERIOD");
@@ -0,0 +1,509 @@
+package http.server.application;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JSON codec of visits without reflection, producing the same bytes as {@link Repository#getGson()}.
+ *
+ * <p>Writing appends UTF-8 straight into a growing byte array: field names are prepared byte sequences,
+ * numbers and dates are written digit by digit, strings are escaped as Gson does with HTML-safe escaping.
+ * A codec instance is not thread-safe, it is reused for the visits of one answer.
+ *
+ * <p>Reading accepts the object written by the clients: the known fields with plain values.
+ * Anything else (unknown fields, nulls, other number or date forms, syntax errors) is passed
+ * to Gson, so the result and the errors stay the same as with Gson.
+ */
+public final class VisitJson {
+    private static final byte[] ID = bytes("{\"id\":");
+    private static final byte[] FIO = bytes(",\"fio\":");
+    private static final byte[] CONTACT = bytes(",\"contact\":");
+    private static final byte[] START_TIME = bytes(",\"startTime\":");
+    private static final byte[] END_TIME = bytes(",\"endTime\":");
+    private static final byte[] HEX = bytes("0123456789abcdef");
+    /**
+     * Escape of every ASCII character as Gson writes it, null if it is written as is
+     */
+    private static final byte[][] ESCAPES = new byte[128][];
+    private static final int MAX_DATE_TIME_LENGTH = 29;
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = unicodeEscape(c);
+        }
+        ESCAPES['\t'] = bytes("\\t");
+        ESCAPES['\b'] = bytes("\\b");
+        ESCAPES['\n'] = bytes("\\n");
+        ESCAPES['\r'] = bytes("\\r");
+        ESCAPES['\f'] = bytes("\\f");
+        ESCAPES['"'] = bytes("\\\"");
+        ESCAPES['\\'] = bytes("\\\\");
+        for (char c : new char[]{'<', '>', '&', '=', '\''}) {
+            ESCAPES[c] = unicodeEscape(c);
+        }
+    }
+
+    private byte[] bytes;
+    private int length;
+    private boolean arrayStarted;
+
+    public VisitJson() {
+        this(256);
+    }
+
+    public VisitJson(int capacity) {
+        this.bytes = new byte[capacity];
+    }
+
+    public static byte[] toJson(Visit visit) {
+        return new VisitJson().write(visit).toByteArray();
+    }
+
+    public static byte[] toJson(List<Visit> visits) {
+        VisitJson json = new VisitJson(visits.size() * 160 + 2);
+        json.beginArray();
+        for (Visit visit : visits) {
+            json.write(visit);
+        }
+        return json.endArray().toByteArray();
+    }
+
+    /**
+     * Reads the visit from UTF-8 JSON, as Gson would read it
+     *
+     * @return the visit, null for an empty document
+     */
+    public static Visit fromJson(byte[] bytes, int offset, int length) {
+        Visit visit = new Reader(bytes, offset, offset + length).readVisit();
+        if (visit != null) return visit;
+        return Repository.getGson().fromJson(new String(bytes, offset, length, StandardCharsets.UTF_8), Visit.class);
+    }
+
+    public VisitJson beginArray() {
+        ensure(1);
+        bytes[length++] = '[';
+        arrayStarted = false;
+        return this;
+    }
+
+    public VisitJson endArray() {
+        ensure(1);
+        bytes[length++] = ']';
+        arrayStarted = false;
+        return this;
+    }
+
+    /**
+     * Appends the visit, inside an array it is separated from the previous one
+     */
+    public VisitJson write(Visit visit) {
+        if (arrayStarted) {
+            ensure(1);
+            bytes[length++] = ',';
+        }
+        arrayStarted = true;
+        append(ID);
+        appendLong(visit.getId());
+        if (visit.getFio() != null) {
+            append(FIO);
+            appendString(visit.getFio());
+        }
+        if (visit.getContact() != null) {
+            append(CONTACT);
+            appendString(visit.getContact());
+        }
+        if (visit.getStartTime() != null) {
+            append(START_TIME);
+            appendDateTime(visit.getStartTime());
+        }
+        if (visit.getEndTime() != null) {
+            append(END_TIME);
+            appendDateTime(visit.getEndTime());
+        }
+        ensure(1);
+        bytes[length++] = '}';
+        return this;
+    }
+
+    /**
+     * Appends bytes as they are, for the JSON around the visits
+     */
+    public VisitJson append(byte[] value) {
+        ensure(value.length);
+        System.arraycopy(value, 0, bytes, length, value.length);
+        length += value.length;
+        return this;
+    }
+
+    public VisitJson appendLong(long value) {
+        if (value == Long.MIN_VALUE) return append(bytes(Long.toString(value)));
+        ensure(20);
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) digits++;
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * @return read-only view of the appended bytes without copying them, the codec must not be used after it
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the appended bytes to the stream and empties the codec, an array stays started
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+        length = 0;
+    }
+
+    private void appendString(String value) {
+        ensure(value.length() * 6 + 2);
+        byte[] out = bytes;
+        int position = length;
+        out[position++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byte[] escape = ESCAPES[c];
+                if (escape == null) {
+                    out[position++] = (byte) c;
+                } else {
+                    System.arraycopy(escape, 0, out, position, escape.length);
+                    position += escape.length;
+                }
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c == '\u2028' || c == '\u2029') {
+                byte[] escape = unicodeEscape(c);
+                System.arraycopy(escape, 0, out, position, escape.length);
+                position += escape.length;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    // unpaired surrogate, replaced as the UTF-8 encoder of String does
+                    out[position++] = '?';
+                }
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out[position++] = '"';
+        length = position;
+    }
+
+    /**
+     * Writes the date and time as LocalDateTime.toString does: seconds and fraction only when they are not zero
+     */
+    private void appendDateTime(LocalDateTime dateTime) {
+        int year = dateTime.getYear();
+        if (year < 1000 || year > 9999) {
+            append(bytes('"' + dateTime.toString() + '"'));
+            return;
+        }
+        ensure(MAX_DATE_TIME_LENGTH + 2);
+        bytes[length++] = '"';
+        appendDigits(year, 4);
+        bytes[length++] = '-';
+        appendDigits(dateTime.getMonthValue(), 2);
+        bytes[length++] = '-';
+        appendDigits(dateTime.getDayOfMonth(), 2);
+        bytes[length++] = 'T';
+        appendDigits(dateTime.getHour(), 2);
+        bytes[length++] = ':';
+        appendDigits(dateTime.getMinute(), 2);
+        int second = dateTime.getSecond();
+        int nano = dateTime.getNano();
+        if (second > 0 || nano > 0) {
+            bytes[length++] = ':';
+            appendDigits(second, 2);
+            if (nano > 0) {
+                bytes[length++] = '.';
+                if (nano % 1_000_000 == 0) {
+                    appendDigits(nano / 1_000_000, 3);
+                } else if (nano % 1000 == 0) {
+                    appendDigits(nano / 1000, 6);
+                } else {
+                    appendDigits(nano, 9);
+                }
+            }
+        }
+        bytes[length++] = '"';
+    }
+
+    private void appendDigits(int value, int digits) {
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void ensure(int more) {
+        if (length + more > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+        }
+    }
+
+    private static byte[] unicodeEscape(int c) {
+        return new byte[]{'\\', 'u', HEX[(c >> 12) & 0xF], HEX[(c >> 8) & 0xF], HEX[(c >> 4) & 0xF], HEX[c & 0xF]};
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reader of the plain form of a visit, every method returns false (or null) when the input
+     * is outside of it and has to be read by Gson
+     */
+    private static final class Reader {
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+        private final StringBuilder text = new StringBuilder();
+
+        private Reader(byte[] bytes, int offset, int end) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = end;
+        }
+
+        /**
+         * @return the visit, null if it has to be read by Gson
+         */
+        private Visit readVisit() {
+            if (!skipWhitespaceTo('{')) return null;
+            Visit visit = new Visit();
+            skipWhitespace();
+            if (position < end && bytes[position] == '}') {
+                position++;
+                return atEnd() ? visit : null;
+            }
+            while (true) {
+                if (!skipWhitespaceTo('"') || !readString()) return null;
+                String name = text.toString();
+                if (!skipWhitespaceTo(':')) return null;
+                skipWhitespace();
+                if (!readField(visit, name)) return null;
+                skipWhitespace();
+                if (position == end) return null;
+                byte b = bytes[position++];
+                if (b == '}') return atEnd() ? visit : null;
+                if (b != ',') return null;
+            }
+        }
+
+        private boolean readField(Visit visit, String name) {
+            switch (name) {
+                case "id" -> {
+                    long id = readInt();
+                    if (id == Long.MIN_VALUE) return false;
+                    visit.setId((int) id);
+                }
+                case "fio" -> {
+                    if (!readStringValue()) return false;
+                    visit.setFio(text.toString());
+                }
+                case "contact" -> {
+                    if (!readStringValue()) return false;
+                    visit.setContact(text.toString());
+                }
+                case "startTime" -> {
+                    LocalDateTime startTime = readDateTime();
+                    if (startTime == null) return false;
+                    visit.setStartTime(startTime);
+                }
+                case "endTime" -> {
+                    LocalDateTime endTime = readDateTime();
+                    if (endTime == null) return false;
+                    visit.setEndTime(endTime);
+                }
+                default -> {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the value, Long.MIN_VALUE if it is not a plain int
+         */
+        private long readInt() {
+            boolean negative = position < end && bytes[position] == '-';
+            if (negative) position++;
+            int start = position;
+            long value = 0;
+            while (position < end && bytes[position] >= '0' && bytes[position] <= '9' && position - start < 10) {
+                value = value * 10 + (bytes[position++] - '0');
+            }
+            if (position == start || (bytes[start] == '0' && position - start > 1)) return Long.MIN_VALUE;
+            if (position < end && (bytes[position] == '.' || bytes[position] == 'e' || bytes[position] == 'E'
+                    || (bytes[position] >= '0' && bytes[position] <= '9'))) {
+                return Long.MIN_VALUE;
+            }
+            if (negative) value = -value;
+            return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+        }
+
+        private boolean readStringValue() {
+            return position < end && bytes[position++] == '"' && readString();
+        }
+
+        /**
+         * Reads the string after the opening quote into text
+         */
+        private boolean readString() {
+            text.setLength(0);
+            while (position < end) {
+                int b = bytes[position++] & 0xFF;
+                if (b == '"') return true;
+                if (b < 0x20) return false;
+                if (b == '\\') {
+                    if (!readEscape()) return false;
+                } else if (b < 0x80) {
+                    text.append((char) b);
+                } else {
+                    return readUtf8();
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Reads the rest of a string with non-ASCII characters, the decoder of String does it faster
+         * and replaces malformed input as Gson reading a String does
+         */
+        private boolean readUtf8() {
+            int start = position - 1;
+            while (position < end && bytes[position] != '"') {
+                if (bytes[position] == '\\' || (bytes[position] & 0xFF) < 0x20) return false;
+                position++;
+            }
+            if (position == end) return false;
+            text.append(new String(bytes, start, position - start, StandardCharsets.UTF_8));
+            position++;
+            return true;
+        }
+
+        private boolean readEscape() {
+            if (position == end) return false;
+            byte b = bytes[position++];
+            switch (b) {
+                case '"', '\\', '/' -> text.append((char) b);
+                case 'b' -> text.append('\b');
+                case 'f' -> text.append('\f');
+                case 'n' -> text.append('\n');
+                case 'r' -> text.append('\r');
+                case 't' -> text.append('\t');
+                case 'u' -> {
+                    if (position + 4 > end) return false;
+                    int c = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(bytes[position++], 16);
+                        if (digit < 0) return false;
+                        c = (c << 4) | digit;
+                    }
+                    text.append((char) c);
+                }
+                default -> {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reads yyyy-MM-ddTHH:mm or yyyy-MM-ddTHH:mm:ss, the forms written by the clients
+         */
+        private LocalDateTime readDateTime() {
+            if (position >= end || bytes[position] != '"') return null;
+            int start = position + 1;
+            int close = start;
+            while (close < end && bytes[close] != '"') close++;
+            int length = close - start;
+            if (close == end || (length != 16 && length != 19)) return null;
+            if (bytes[start + 4] != '-' || bytes[start + 7] != '-' || bytes[start + 10] != 'T'
+                    || bytes[start + 13] != ':' || (length == 19 && bytes[start + 16] != ':')) {
+                return null;
+            }
+            int year = digits(start, 4);
+            int month = digits(start + 5, 2);
+            int day = digits(start + 8, 2);
+            int hour = digits(start + 11, 2);
+            int minute = digits(start + 14, 2);
+            int second = length == 19 ? digits(start + 17, 2) : 0;
+            if ((year | month | day | hour | minute | second) < 0) return null;
+            try {
+                LocalDateTime result = LocalDateTime.of(year, month, day, hour, minute, second);
+                position = close + 1;
+                return result;
+            } catch (DateTimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return the number, -1 if not all bytes are digits
+         */
+        private int digits(int start, int count) {
+            int value = 0;
+            for (int i = start; i < start + count; i++) {
+                int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9) return -1;
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        private boolean skipWhitespaceTo(char expected) {
+            skipWhitespace();
+            return position < end && bytes[position++] == expected;
+        }
+
+        private void skipWhitespace() {
+            while (position < end && (bytes[position] == ' ' || bytes[position] == '\t'
+                    || bytes[position] == '\n' || bytes[position] == '\r')) {
+                position++;
+            }
+        }
+
+        private boolean atEnd() {
+            skipWhitespace();
+            return position == end;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package http.server.application;
+
+import java.time.LocalDateTime;
+
+/**
+ * Page of visits for keyset pagination: visits with id greater than afterId, ordered by id,
+ * optionally only those starting in [from, to), at most limit visits.
+ * The next page is requested with the id of the last visit of the page as afterId.
+ */
+public final class VisitQuery {
+    private final int afterId;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+    private final int limit;
+
+    /**
+     * @param from  min start time (inclusive), null for no limit
+     * @param to    max start time (exclusive), null for no limit
+     * @param limit max number of visits
+     */
+    public VisitQuery(int afterId, LocalDateTime from, LocalDateTime to, int limit) {
+        this.afterId = afterId;
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return true if the start time of the visit is in [from, to), the id is not checked
+     */
+    public boolean matchesPeriod(Visit visit) {
+        return (from == null || !visit.getStartTime().isBefore(from))
+                && (to == null || visit.getStartTime().isBefore(to));
+    }
+
+    @Override
+    public String toString() {
+        return "VisitQuery{" +
+                "afterId=" + afterId +
+                ", from=" + from +
+                ", to=" + to +
+                ", limit=" + limit +
+                '}';
+    }
+}
@@ -0,0 +1,92 @@
+package http.server.application;
+
+import http.server.error.AppException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Storage of visits used by the request processors.
+ *
+ * <p>{@link Repository} keeps visits in Postgres, {@link AppendLogRepository} in memory with a write-ahead log.
+ * Caching, indexing and batching are decorators over another store.
+ * Backends without SQL declare SQLException only to share the interface.
+ */
+public interface VisitStore {
+
+    /**
+     * Receiver of visits read one by one
+     */
+    @FunctionalInterface
+    interface VisitConsumer {
+        void accept(Visit visit) throws IOException;
+    }
+
+    boolean checkExistVisitById(int id) throws SQLException;
+
+    /**
+     * @return visit with the id, null if there is none
+     */
+    Visit getVisitById(int id) throws SQLException;
+
+    boolean deleteVisitById(int id) throws SQLException;
+
+    /**
+     * @return all visits ordered by id
+     */
+    List<Visit> getAllVisits() throws SQLException;
+
+    /**
+     * @return JSON array of all visits prepared in advance (read-only, position at the start),
+     * null if the store does not keep it and the visits have to be read with {@link #forEachVisit}
+     */
+    default ByteBuffer getAllVisitsJson() throws SQLException {
+        return null;
+    }
+
+    /**
+     * Passes all visits ordered by id to the consumer, without collecting them in a list
+     */
+    void forEachVisit(VisitConsumer consumer) throws SQLException, IOException;
+
+    /**
+     * Passes the visits of the page ordered by id to the consumer, without collecting them in a list
+     */
+    void forEachVisit(VisitQuery query, VisitConsumer consumer) throws SQLException, IOException;
+
+    /**
+     * Inserts a new visit and sets its generated id
+     *
+     * @return true if inserted
+     */
+    boolean insertVisit(Visit visit) throws AppException, SQLException;
+
+    /**
+     * @return true if the visit with the id of the passed one existed and was updated
+     */
+    boolean updateVisit(Visit visit) throws AppException, SQLException;
+
+    /**
+     * Inserts and updates visits as one write where the store supports it, one by one by default
+     *
+     * @param inserts for every visit true to insert it, false to update the existing record
+     * @return for every visit true if it was written
+     */
+    default boolean[] writeVisits(List<Visit> visits, boolean[] inserts) throws AppException, SQLException {
+        boolean[] written = new boolean[visits.size()];
+        for (int i = 0; i < visits.size(); i++) {
+            written[i] = inserts[i] ? insertVisit(visits.get(i)) : updateVisit(visits.get(i));
+        }
+        return written;
+    }
+
+    /**
+     * @param excludeId id of the visit whose period is ignored, the visit being updated
+     * @return true if the period [startPeriod, endPeriod) overlaps the period of another visit
+     */
+    boolean checkOverlapsPeriod(LocalDateTime startPeriod, LocalDateTime endPeriod, int excludeId)
+            throws AppException, SQLException;
+}
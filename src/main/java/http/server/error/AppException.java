@@ -5,6 +5,7 @@ public class AppException extends RuntimeException {
     private String uri;
     private final HttpErrorType errorType;
     private final String customErrorCode;
+    private int retryAfterSeconds;
 
 
     protected AppException(String message, HttpErrorType errorType) {
@@ -51,6 +52,12 @@ public class AppException extends RuntimeException {
         return new AppException(message, errorType, methodRaw, uri, cause);
     }
 
+    protected static AppException create(String message, HttpErrorType errorType, int retryAfterSeconds, Throwable cause) {
+        AppException appException = new AppException(message, errorType, cause);
+        appException.retryAfterSeconds = retryAfterSeconds;
+        return appException;
+    }
+
 
 
     public String getErrorCode() {
@@ -65,10 +72,24 @@ public class AppException extends RuntimeException {
         return uri;
     }
 
+    /**
+     * @return seconds the client should wait before repeating the request, 0 if not set
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
     protected HttpErrorType getErrorType() {
         return errorType;
     }
 
+    /**
+     * @return true if the request is wrong (4xx), false if the server has failed to process it
+     */
+    public boolean isClientError() {
+        return errorType.getStatusCode() < 500;
+    }
+
     @Override
     public String getMessage() {
         return super.getMessage();
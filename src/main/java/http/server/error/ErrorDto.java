@@ -11,6 +11,7 @@ public class ErrorDto implements AutoCloseable {
     private final String errorCode;
     private final String description;
     private final String datetime;
+    private final int retryAfterSeconds;
     private boolean isClosed;
 
     public String getMethodRaw() {
@@ -26,6 +27,15 @@ public class ErrorDto implements AutoCloseable {
         this.description = description;
         this.errorCode = null;
         this.datetime = LocalDateTime.now().toString();
+        this.retryAfterSeconds = 0;
+    }
+
+    protected ErrorDto(HttpErrorType errorType, String description, int retryAfterSeconds) {
+        this.errorType = errorType;
+        this.description = description;
+        this.errorCode = null;
+        this.datetime = LocalDateTime.now().toString();
+        this.retryAfterSeconds = retryAfterSeconds;
     }
 
     protected ErrorDto(HttpErrorType errorType, String errorCode, String description) {
@@ -33,6 +43,7 @@ public class ErrorDto implements AutoCloseable {
         this.description = description;
         this.errorCode = errorCode;
         this.datetime = LocalDateTime.now().toString();
+        this.retryAfterSeconds = 0;
     }
 
     protected ErrorDto(AppException appException) {
@@ -42,6 +53,7 @@ public class ErrorDto implements AutoCloseable {
         this.methodRaw = appException.getMethodRaw();
         this.uri = appException.getUri();
         this.datetime = LocalDateTime.now().toString();
+        this.retryAfterSeconds = appException.getRetryAfterSeconds();
     }
 
 
@@ -53,6 +65,10 @@ public class ErrorDto implements AutoCloseable {
         return ErrorProcessor.class.getSimpleName();
     }
 
+    public HttpErrorType getErrorType() {
+        return errorType;
+    }
+
     public int getStatusCode() {
         return errorType.getStatusCode();
     }
@@ -61,6 +77,13 @@ public class ErrorDto implements AutoCloseable {
         return description;
     }
 
+    /**
+     * @return value of the Retry-After header, 0 if the answer has none
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
     @Override
     public void close() throws IOException {
         if (isClosed) return;
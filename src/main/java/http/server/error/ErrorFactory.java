@@ -50,6 +50,10 @@ public final class ErrorFactory {
         return AppException.create(message, HttpErrorType.NOT_FOUND);
     }
 
+    public static AppException serviceUnavailable(String message, int retryAfterSeconds, Throwable cause) {
+        return AppException.create(message, HttpErrorType.SERVICE_UNAVAILABLE, retryAfterSeconds, cause);
+    }
+
     public static ErrorDto internalErrorDto(String description) {
         return new ErrorDto(HttpErrorType.INTERNAL_SERVER_ERROR, description);
     }
@@ -57,4 +61,12 @@ public final class ErrorFactory {
     public static ErrorDto notFoundErrorDto(String description) {
         return new ErrorDto(HttpErrorType.NOT_FOUND, description);
     }
+
+    public static ErrorDto serviceUnavailableErrorDto(String description) {
+        return new ErrorDto(HttpErrorType.SERVICE_UNAVAILABLE, description);
+    }
+
+    public static ErrorDto serviceUnavailableErrorDto(String description, int retryAfterSeconds) {
+        return new ErrorDto(HttpErrorType.SERVICE_UNAVAILABLE, description, retryAfterSeconds);
+    }
 }
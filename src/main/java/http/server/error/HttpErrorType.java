@@ -9,7 +9,8 @@ public enum HttpErrorType {
     },
     INTERNAL_SERVER_ERROR(500, "INTERNAL_SERVER_ERROR"),
     NOT_FOUND(404, "NOT_FOUND"),
-    METHOD_NOT_ALLOWED(405, "METHOD_NOT_ALLOWED");
+    METHOD_NOT_ALLOWED(405, "METHOD_NOT_ALLOWED"),
+    SERVICE_UNAVAILABLE(503, "SERVICE_UNAVAILABLE");
 
     private final int statusCode;
     private final String errorCode;
@@ -0,0 +1,55 @@
+package http.server.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import http.server.trace.RequestTrace;
+
+/**
+ * Exports the state of HikariCP pools: time to acquire a connection, time connections are held, acquire timeouts,
+ * active, idle and total connections and threads waiting for a connection.
+ * The acquire time is also added to the trace of the request waiting for the connection.
+ */
+public class HikariMetrics implements MetricsTrackerFactory {
+    private final Metrics metrics;
+
+    public HikariMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        metrics.gauge("http_server_db_pool_active_connections", "Connections in use",
+                poolStats::getActiveConnections, "pool", poolName);
+        metrics.gauge("http_server_db_pool_idle_connections", "Idle connections",
+                poolStats::getIdleConnections, "pool", poolName);
+        metrics.gauge("http_server_db_pool_connections", "Open connections",
+                poolStats::getTotalConnections, "pool", poolName);
+        metrics.gauge("http_server_db_pool_pending_threads", "Threads waiting for a connection",
+                poolStats::getPendingThreads, "pool", poolName);
+        Histogram acquireTime = metrics.histogram("http_server_db_pool_acquire_seconds",
+                "Time to get a connection from the pool", "pool", poolName);
+        Histogram usageTime = metrics.histogram("http_server_db_pool_usage_seconds",
+                "Time a connection is held before it returns to the pool", "pool", poolName);
+        Counter timeouts = metrics.counter("http_server_db_pool_timeouts_total",
+                "Connection requests that timed out", "pool", poolName);
+
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireTime.recordNanos(elapsedAcquiredNanos);
+                RequestTrace.addConnectionWaitNanos(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageTime.recordNanos(elapsedBorrowedMillis * 1_000_000);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.inc();
+            }
+        };
+    }
+}
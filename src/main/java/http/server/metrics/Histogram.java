@@ -0,0 +1,66 @@
+package http.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations with fixed buckets, exported in seconds.
+ *
+ * <p>Every bucket is a LongAdder counting the values up to its bound (not cumulative), so recording is one
+ * search over {@value #BUCKET_COUNT} bounds and one increment. Cumulative counts are computed on export.
+ */
+public final class Histogram {
+    static final double[] BOUNDS_SECONDS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final int BUCKET_COUNT = 16;
+    private static final long[] BOUNDS_NANOS = new long[BUCKET_COUNT];
+
+    static {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            BOUNDS_NANOS[i] = (long) (BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * The last bucket counts values greater than all bounds (+Inf)
+     */
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void recordNanos(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_COUNT && nanos > BOUNDS_NANOS[bucket]) bucket++;
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @return counts of the buckets, the last one is +Inf, not cumulative
+     */
+    long[] snapshot() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    double getSumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+}
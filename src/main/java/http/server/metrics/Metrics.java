@@ -0,0 +1,154 @@
+package http.server.metrics;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of server metrics exported in the Prometheus text format (version 0.0.4).
+ *
+ * <p>Counters and histograms are registered once, at startup, and updated without locks by the threads
+ * that own the events. Values that are already counted elsewhere (buffer pool, caches, connection pools)
+ * are registered as suppliers and read only when the metrics are scraped.
+ *
+ * <p>Labels are given as name and value pairs. Registering the same name and labels again returns
+ * the registered metric.
+ */
+public final class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").children
+                .computeIfAbsent(labelsText(labels), key -> new Counter());
+    }
+
+    /**
+     * Counter whose value is counted elsewhere
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter").children.putIfAbsent(labelsText(labels), value);
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").children.putIfAbsent(labelsText(labels), value);
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram").children
+                .computeIfAbsent(labelsText(labels), key -> new Histogram());
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * @return all metrics in the Prometheus text format, families are sorted by name
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ');
+            appendEscaped(out, family.help, false);
+            out.append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            family.children.forEach((labels, child) -> appendChild(out, family.name, labels, child));
+        }
+        return out.toString();
+    }
+
+    private static void appendChild(StringBuilder out, String name, String labels, Object child) {
+        if (child instanceof Counter counter) {
+            appendSample(out, name, labels, null, counter.get());
+        } else if (child instanceof LongSupplier value) {
+            appendSample(out, name, labels, null, value.getAsLong());
+        } else if (child instanceof DoubleSupplier value) {
+            appendSample(out, name, labels, null, value.getAsDouble());
+        } else if (child instanceof Histogram histogram) {
+            long[] counts = histogram.snapshot();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String le = i < Histogram.BOUNDS_SECONDS.length
+                        ? BigDecimal.valueOf(Histogram.BOUNDS_SECONDS[i]).stripTrailingZeros().toPlainString()
+                        : "+Inf";
+                appendSample(out, name + "_bucket", labels, le, cumulative);
+            }
+            appendSample(out, name + "_sum", labels, null, histogram.getSumSeconds());
+            appendSample(out, name + "_count", labels, null, cumulative);
+        }
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, String le, double value) {
+        appendName(out, name, labels, le);
+        out.append(value).append('\n');
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, String le, long value) {
+        appendName(out, name, labels, le);
+        out.append(value).append('\n');
+    }
+
+    private static void appendName(StringBuilder out, String name, String labels, String le) {
+        out.append(name);
+        if (!labels.isEmpty() || le != null) {
+            out.append('{').append(labels);
+            if (le != null) {
+                if (!labels.isEmpty()) out.append(',');
+                out.append("le=\"").append(le).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+    }
+
+    private static String labelsText(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) text.append(',');
+            text.append(labels[i]).append("=\"");
+            appendEscaped(text, labels[i + 1], true);
+            text.append('"');
+        }
+        return text.toString();
+    }
+
+    private static void appendEscaped(StringBuilder out, String value, boolean escapeQuote) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '"' -> out.append(escapeQuote ? "\\\"" : "\"");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Metrics of one name: children by the text of their labels, sorted so the output is stable
+     */
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Object> children = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
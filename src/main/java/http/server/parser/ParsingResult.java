@@ -23,8 +23,16 @@ public class ParsingResult implements AutoCloseable {
         return new ParsingResult(Either.right(requestDto));
     }
 
+    /**
+     * Malformed requests are the fault of the client: they are logged without stack trace,
+     * the stack trace is logged only for errors of the server
+     */
     public static ParsingResult error(AppException ex) {
-        logger.error(ex.getMessage(), ex);
+        if (ex.isClientError()) {
+            logger.warn("Rejected request: {}", ex.getMessage());
+        } else {
+            logger.error(ex.getMessage(), ex);
+        }
         return new ParsingResult(Either.left(
                 ErrorFactory.createErrorDto(ex)
         ));
@@ -57,6 +65,20 @@ public class ParsingResult implements AutoCloseable {
         );
     }
 
+    public int getContentLength() {
+        return value.fold(
+                error -> 0,
+                RequestDto::getContentLength
+        );
+    }
+
+    public boolean isKeepAlive() {
+        return value.fold(
+                error -> false,
+                RequestDto::isKeepAlive
+        );
+    }
+
     public String getMethod() {
         return value.fold(
                 ErrorDto::getMethodRaw ,
@@ -1,22 +1,45 @@
 package http.server.parser;
 
 import http.server.HttpMethod;
+import http.server.Route;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
 public final class RequestDto implements AutoCloseable {
-    private final Map<String, String> parameters = new HashMap<>();
+    private static final int SLICE_SIZE = 4;
+    private Map<String, String> parameters;
     private HttpMethod method;
     private String methodRaw;
     private String uri;
     private String httpVersion;
-    private Map<String, String> headers = new HashMap<>();
+    private Map<String, String> headers;
+
+    /**
+     * Copy of the request line and headers, parameters and headers are kept as slices of it
+     * (name start, name end, value start, value end) until they are requested
+     */
+    private byte[] source;
+    private int[] parameterSlices;
+    private int parameterSlicesLength;
+    private int[] headerSlices;
+    private int headerSlicesLength;
+
+    /**
+     * Route matched by the parser and the slices of the path parameter values (start, end)
+     */
+    private Route route;
+    private int[] pathParameterSlices;
+    private boolean routed;
 
     private boolean isClosed;
     private int bytesParsed;
+    private int contentLength;
+    private Boolean keepAlive;
 
     public RequestDto() {
     }
@@ -43,12 +66,72 @@ public final class RequestDto implements AutoCloseable {
         this.bytesParsed += bytesParsed;
     }
 
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    public void setContentLength(int contentLength) {
+        this.contentLength = contentLength;
+    }
+
     public String getRoutingKey() {
-        return (method == null) ? methodRaw : method + " " + uri;
+        return (method == null) ? getMethodRaw() : method + " " + uri;
+    }
+
+    /**
+     * @return route of the path, null if no route matches or the request was not parsed with a route table
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * @return true if the parser has matched the path against a route table, even when no route matched
+     */
+    public boolean isRouted() {
+        return routed;
+    }
+
+    void setRoute(Route route, int[] pathParameterSlices) {
+        this.route = route;
+        this.pathParameterSlices = pathParameterSlices;
+        this.routed = true;
     }
 
     public String getValueFromHeader(String name) {
-        return (headers == null) ? null : headers.get(name);
+        return getHeaders().get(name);
+    }
+
+    public String getValueFromHeaderIgnoreCase(String name) {
+        if (headers == null && headerSlices != null) {
+            for (int i = 0; i < headerSlicesLength; i += SLICE_SIZE) {
+                if (equalsIgnoreCase(headerSlices[i], headerSlices[i + 1], name)) {
+                    return latin1(headerSlices[i + 2], headerSlices[i + 3]);
+                }
+            }
+            return null;
+        }
+        for (Map.Entry<String, String> header : getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * HTTP/1.1 connections are persistent unless the client sends "Connection: close"
+     */
+    public boolean isKeepAlive() {
+        if (keepAlive != null) return keepAlive;
+        String connection = getValueFromHeaderIgnoreCase("Connection");
+        if (connection != null) {
+            if (connection.equalsIgnoreCase("close")) return false;
+            if (connection.equalsIgnoreCase("keep-alive")) return true;
+        }
+        return "HTTP/1.1".equals(httpVersion);
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
     }
 
     public HttpMethod getMethod() {
@@ -60,7 +143,8 @@ public final class RequestDto implements AutoCloseable {
     }
 
     public String getMethodRaw() {
-        return methodRaw == null ? "" : methodRaw;
+        if (methodRaw == null) return method == null ? "" : method.name();
+        return methodRaw;
     }
 
     public void setMethodRaw(String methodRaw) {
@@ -84,31 +168,104 @@ public final class RequestDto implements AutoCloseable {
     }
 
     public Map<String, String> getHeaders() {
+        if (headers == null) {
+            headers = new HashMap<>();
+            for (int i = 0; i < headerSlicesLength; i += SLICE_SIZE) {
+                headers.put(latin1(headerSlices[i], headerSlices[i + 1]),
+                        latin1(headerSlices[i + 2], headerSlices[i + 3]));
+            }
+            headerSlices = null;
+            headerSlicesLength = 0;
+        }
         return headers;
     }
 
     public void setHeaders(Map<String, String> headers) {
         this.headers = headers;
+        this.headerSlices = null;
+        this.headerSlicesLength = 0;
     }
 
     public Iterator<Map.Entry<String, String>> getHeadersIterator() {
-        return headers.entrySet().iterator();
+        return getHeaders().entrySet().iterator();
     }
 
     public Iterator<Map.Entry<String, String>> getParametersIterator() {
-        return parameters.entrySet().iterator();
+        return getParameters().entrySet().iterator();
     }
 
     public void addParameter(String name, String value) {
-        parameters.put(name, value);
+        getParameters().put(name, value);
     }
 
     public String getParameter(String name) {
-        return parameters.get(name);
+        return getParameters().get(name);
     }
 
     public void addHeader(String name, String value) {
-        headers.put(name, value);
+        getHeaders().put(name, value);
+    }
+
+    private Map<String, String> getParameters() {
+        if (parameters == null) {
+            parameters = new HashMap<>();
+            for (int i = 0; i < parameterSlicesLength; i += SLICE_SIZE) {
+                parameters.put(RequestParser.decode(source, parameterSlices[i], parameterSlices[i + 1]),
+                        RequestParser.decode(source, parameterSlices[i + 2], parameterSlices[i + 3]));
+            }
+            parameterSlices = null;
+            parameterSlicesLength = 0;
+            if (pathParameterSlices != null) {
+                String[] names = route.getParameterNames();
+                for (int i = 0; i < names.length; i++) {
+                    parameters.put(names[i],
+                            RequestParser.decode(source, pathParameterSlices[i * 2], pathParameterSlices[i * 2 + 1]));
+                }
+                pathParameterSlices = null;
+            }
+        }
+        return parameters;
+    }
+
+    void setSource(byte[] source) {
+        this.source = source;
+    }
+
+    void addParameterSlice(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (parameterSlices == null) parameterSlices = new int[SLICE_SIZE * 4];
+        parameterSlices = addSlice(parameterSlices, parameterSlicesLength, nameStart, nameEnd, valueStart, valueEnd);
+        parameterSlicesLength += SLICE_SIZE;
+    }
+
+    void addHeaderSlice(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (headerSlices == null) headerSlices = new int[SLICE_SIZE * 8];
+        headerSlices = addSlice(headerSlices, headerSlicesLength, nameStart, nameEnd, valueStart, valueEnd);
+        headerSlicesLength += SLICE_SIZE;
+    }
+
+    private static int[] addSlice(int[] slices, int length, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (length + SLICE_SIZE > slices.length) {
+            slices = Arrays.copyOf(slices, slices.length * 2);
+        }
+        slices[length] = nameStart;
+        slices[length + 1] = nameEnd;
+        slices[length + 2] = valueStart;
+        slices[length + 3] = valueEnd;
+        return slices;
+    }
+
+    private String latin1(int start, int end) {
+        return new String(source, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean equalsIgnoreCase(int start, int end, String name) {
+        if (end - start != name.length()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase((char) (source[start + i] & 0xFF)) != Character.toLowerCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -117,16 +274,23 @@ public final class RequestDto implements AutoCloseable {
                 "method=" + method +
                 ", uri='" + uri + '\'' +
                 ", http version='" + httpVersion + '\'' +
-                ", parameters=" + parameters +
-                ", headers=" + headers +
+                ", parameters=" + getParameters() +
+                ", headers=" + getHeaders() +
                 '}';
     }
 
     @Override
     public void close() throws IOException {
         if (isClosed) return;
-        parameters.clear();
-        headers.clear();
+        if (parameters != null) parameters.clear();
+        if (headers != null) headers.clear();
+        source = null;
+        route = null;
+        pathParameterSlices = null;
+        parameterSlices = null;
+        parameterSlicesLength = 0;
+        headerSlices = null;
+        headerSlicesLength = 0;
         isClosed = true;
     }
 }
@@ -1,17 +1,26 @@
 package http.server.parser;
 
 import http.server.HttpMethod;
+import http.server.Route;
+import http.server.RouteTable;
 import http.server.error.AppException;
 import http.server.error.ErrorFactory;
 
-import java.net.URLDecoder;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
- * The number of bytes read from the buffer is considered equal to InputByteBuffer.position(),
+ * Parser of the request line and headers.
+ *
+ * <p>Bytes are scanned in a plain byte array: the backing array of a heap buffer, or a single bulk copy
+ * of a direct buffer. Each byte is classified by one lookup in CHAR_CLASS, fields are captured as offsets.
+ * Strings are created only for the URI, parameters and headers are stored in RequestDto as slices
+ * of a copy of the request head and decoded when they are requested. Content-Length and Connection
+ * are recognized and parsed while scanning, without creating Strings. When a route table is given,
+ * the path is matched against it on the same bytes, so the router gets the route without a routing key.
+ *
+ * <p>The number of bytes read from the buffer is considered equal to InputByteBuffer.position(),
  * since it is read only forward (such an implementation)
  * InputByteBuffer processing does not use:
  * - mark,
@@ -25,234 +34,414 @@ public class RequestParser {
     private static final byte AMP = (byte) '&';
     private static final byte EQUALITY = (byte) '=';
     private static final byte SPACE = (byte) ' ';
+    private static final byte TAB = (byte) '\t';
     private static final byte QUESTION = (byte) '?';
     private static final byte COLON = (byte) ':';
-    private static final byte QUOTES = (byte) '"';
-    private static final Set<Byte> SET_EXC_FOR_PARAM = Set.of(QUESTION);
-    private static final Set<Byte> SET_FOR_URI = Set.of(QUESTION, SPACE, CR, LF);
-    private static final Set<Byte> END_LINE_WITH_SPACE = Set.of(SPACE, CR, LF);
-    private static final Set<Byte> END_LINE_WITH_ZERO = Set.of(CR, LF, (byte) 0);
-    private static final Set<Byte> END_LINE = Set.of(CR, LF);
-    private static final Set<Byte> END_PARAM_NAME = Set.of(EQUALITY, AMP, SPACE, CR, LF);
-    private static final Set<Byte> END_PARAM_VALUE = Set.of(AMP, SPACE, CR, LF);
-    private static final Charset utf8 = StandardCharsets.UTF_8;
+    private static final byte PERCENT = (byte) '%';
+    private static final byte PLUS = (byte) '+';
 
+    private static final int STOP_TOKEN = 1;
+    private static final int STOP_URI = 1 << 1;
+    private static final int STOP_LINE = 1 << 2;
+    private static final int STOP_PARAM_NAME = 1 << 3;
+    private static final int STOP_PARAM_VALUE = 1 << 4;
+    private static final int STOP_HEADER_NAME = 1 << 5;
+    private static final int ESCAPED = 1 << 6;
+    private static final int NOT_VISIBLE_ASCII = 1 << 7;
+    private static final int[] CHAR_CLASS = new int[256];
 
-    private static final ThreadLocal<StringBuilder> threadLocalStringBuilder = ThreadLocal.withInitial(() -> new StringBuilder(64));
+    private static final int MAX_URI_LENGTH = 1024;
+    private static final String HTTP_VERSION = "HTTP/1.1";
+    private static final byte[] HTTP_VERSION_BYTES = HTTP_VERSION.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION = "connection".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION_CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION_KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.US_ASCII);
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+    private static final byte[][] METHOD_NAMES = new byte[METHODS.length][];
 
-    public static byte parseParameters(RequestDto requestDto, ByteBuffer inputByteBuffer, StringBuilder stringBuilder) {
-        byte foundByte = 0;
+    private static final ThreadLocal<byte[]> threadLocalBytes = ThreadLocal.withInitial(() -> new byte[8192]);
 
-        while (inputByteBuffer.hasRemaining()) {
-            foundByte = parsePart(inputByteBuffer, END_PARAM_NAME, stringBuilder, SET_EXC_FOR_PARAM, "INCORRECT_REQUEST_PARAMETER", false);
-            if (foundByte != EQUALITY) {
-                throw ErrorFactory.badRequest("Parameter name not specified in request URI",
-                        "INCORRECT_REQUEST_PARAMETER");
-            }
-            if (stringBuilder.isEmpty()) {
-                throw ErrorFactory.badRequest("Parameter name cannot be empty in request URI",
-                        "INCORRECT_REQUEST_PARAMETER");
-            }
-            String name = URLDecoder.decode(stringBuilder.toString(), utf8);
-            foundByte = parsePart(inputByteBuffer, END_PARAM_VALUE, stringBuilder);
-            if (stringBuilder.isEmpty()) {
-                throw ErrorFactory.badRequest("Parameter value with parameter name '" +
-                        name + "' cannot be empty in request URI",
-                        "INCORRECT_REQUEST_PARAMETER");
-            }
-            requestDto.addParameter(name,  URLDecoder.decode(stringBuilder.toString(), utf8));
-            if (END_LINE_WITH_SPACE.contains(foundByte)) {
-                break;
-            }
-            if (foundByte == SPACE || foundByte == CR || foundByte == LF || foundByte == 0) {
-                break;
-            }
+    static {
+        for (int i = 0; i < 256; i++) {
+            if (i < 32 || i > 126) CHAR_CLASS[i] |= NOT_VISIBLE_ASCII;
+        }
+        addClass(STOP_TOKEN, SPACE, CR, LF);
+        addClass(STOP_URI, QUESTION, SPACE, CR, LF);
+        addClass(STOP_LINE, CR, LF);
+        addClass(STOP_PARAM_NAME, EQUALITY, AMP, SPACE, CR, LF);
+        addClass(STOP_PARAM_VALUE, AMP, SPACE, CR, LF);
+        addClass(STOP_HEADER_NAME, COLON, CR, LF);
+        addClass(ESCAPED, PERCENT, PLUS);
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_NAMES[i] = METHODS[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static void addClass(int charClass, byte... chars) {
+        for (byte c : chars) {
+            CHAR_CLASS[c & 0xFF] |= charClass;
         }
-        return foundByte;
     }
 
     public static ParsingResult parseToResult(ByteBuffer inputByteBuffer) {
+        return parseToResult(inputByteBuffer, null);
+    }
+
+    /**
+     * @param routeTable routes the path is matched against, null to parse without routing
+     */
+    public static ParsingResult parseToResult(ByteBuffer inputByteBuffer, RouteTable routeTable) {
         try {
-            return ParsingResult.success(parse(inputByteBuffer));
+            return ParsingResult.success(parse(inputByteBuffer, routeTable));
         } catch (AppException e) {
             return ParsingResult.error(e);
         }
     }
 
     public static RequestDto parse(ByteBuffer inputByteBuffer) throws AppException {
+        return parse(inputByteBuffer, null);
+    }
+
+    public static RequestDto parse(ByteBuffer inputByteBuffer, RouteTable routeTable) throws AppException {
         if (inputByteBuffer == null) {
             throw ErrorFactory.internalServerError("inputByteBuffer is null");
         }
         inputByteBuffer.flip();
+
+        byte[] bytes;
+        int offset;
+        if (inputByteBuffer.hasArray()) {
+            bytes = inputByteBuffer.array();
+            offset = inputByteBuffer.arrayOffset();
+        } else {
+            bytes = copyOfDirect(inputByteBuffer);
+            offset = 0;
+        }
+        int start = offset + inputByteBuffer.position();
+        int end = offset + inputByteBuffer.limit();
+
         RequestDto requestDto = new RequestDto();
-        StringBuilder stringBuilder = threadLocalStringBuilder.get();
-        parseFirstLine(inputByteBuffer, stringBuilder, requestDto);
-        parseHeaders(requestDto, inputByteBuffer, stringBuilder);
+        int position = parseFirstLine(bytes, start, end, requestDto, routeTable);
+        position = parseHeaders(bytes, start, position, end, requestDto);
+        requestDto.setSource(Arrays.copyOfRange(bytes, start, position));
+
+        inputByteBuffer.position(position - offset);
         requestDto.setBytesParsed(inputByteBuffer.position());
         return requestDto;
     }
 
-    private static void skip(ByteBuffer inputByteBuffer, int n) {
-        inputByteBuffer.position(inputByteBuffer.position() + n);
+    /**
+     * Searches for the empty line that ends the header section among the bytes already read
+     * into the buffer (buffer in write mode, bytes from 0 to position)
+     *
+     * @return length of the header section including the empty line, or -1 if it has not been read yet
+     */
+    public static int findEndOfHeaders(ByteBuffer inputByteBuffer, int fromIndex) {
+        int end = inputByteBuffer.position();
+        for (int i = Math.max(fromIndex, 0); i + 3 < end; i++) {
+            if (inputByteBuffer.get(i) == CR && inputByteBuffer.get(i + 1) == LF
+                    && inputByteBuffer.get(i + 2) == CR && inputByteBuffer.get(i + 3) == LF) {
+                return i + 4;
+            }
+        }
+        return -1;
     }
 
-    private static void skipUntil(ByteBuffer inputByteBuffer, byte stopByte) throws AppException {
-        while (inputByteBuffer.hasRemaining()) {
-            if (inputByteBuffer.get() == stopByte) return;
+    private static byte[] copyOfDirect(ByteBuffer inputByteBuffer) {
+        int length = inputByteBuffer.limit();
+        byte[] bytes = threadLocalBytes.get();
+        if (bytes.length < length) {
+            bytes = new byte[length];
+            threadLocalBytes.set(bytes);
         }
-        throw ErrorFactory.badRequest("Expected character with code '" + stopByte + "' not found",
-                "INCORRECT_REQUEST_PARAMETER");
+        inputByteBuffer.get(0, bytes, 0, length);
+        return bytes;
     }
 
-    private static void parseFirstLine(ByteBuffer inputByteBuffer, StringBuilder stringBuilder, RequestDto requestDto) throws AppException {
+    private static int parseFirstLine(byte[] bytes, int start, int end, RequestDto requestDto, RouteTable routeTable)
+            throws AppException {
 
         // http method
-        byte foundByte = parsePart(inputByteBuffer, END_LINE_WITH_SPACE, stringBuilder, true);
-        requestDto.setMethodRaw(stringBuilder.toString());
-
-        if (END_LINE_WITH_ZERO.contains(foundByte)) {
+        int position = scan(bytes, start, end, STOP_TOKEN | NOT_VISIBLE_ASCII);
+        int methodEnd = position;
+        if (position == end) {
             throw ErrorFactory.badRequest("HTTP request is invalid");
         }
+        if (bytes[position] != SPACE) {
+            if (bytes[position] == CR || bytes[position] == LF) {
+                skipEndOfLine(bytes, position, end);
+                throw ErrorFactory.badRequest("HTTP request is invalid");
+            }
+            throw ErrorFactory.badRequest(
+                    "Non-ASCII character detected: 0x" + Integer.toHexString(bytes[position] & 0xFF),
+                    "INVALID_CHARACTER"
+            );
+        }
+        HttpMethod method = matchMethod(bytes, start, methodEnd);
+        position++;
 
         // uri
-        foundByte = parsePart(inputByteBuffer, SET_FOR_URI, stringBuilder, false);
-        if (END_LINE_WITH_ZERO.contains(foundByte)) {
+        int uriStart = position;
+        int uriClasses = 0;
+        while (position < end) {
+            int charClass = CHAR_CLASS[bytes[position] & 0xFF];
+            if ((charClass & STOP_URI) != 0) break;
+            uriClasses |= charClass;
+            position++;
+        }
+        if (position == end || bytes[position] == CR || bytes[position] == LF) {
+            skipEndOfLine(bytes, position, end);
             throw ErrorFactory.badRequest("HTTP version not specified");
         }
-        boolean uriCanBeEmpty = (foundByte == QUESTION);
-        if (!uriCanBeEmpty && stringBuilder.isEmpty()) {
+        int uriEnd = position;
+        boolean hasParameters = (bytes[position] == QUESTION);
+        if (!hasParameters && position == uriStart) {
             throw ErrorFactory.badRequest("URI not specified");
         }
-        requestDto.setUri(URLDecoder.decode(stringBuilder.toString(),utf8));
-        if (requestDto.getUri().length() >= 1024) {
+        String uri = (uriClasses & ESCAPED) == 0
+                ? new String(bytes, uriStart, position - uriStart, StandardCharsets.UTF_8)
+                : decode(bytes, uriStart, position);
+        requestDto.setUri(uri);
+        if (uri.length() >= MAX_URI_LENGTH) {
             throw ErrorFactory.badRequest("URI Too Long");
         }
 
         //This is here to have the URI read for an unknown HTTP method
-        try {
-            requestDto.setMethod(HttpMethod.valueOf(requestDto.getMethodRaw()));
-        } catch (IllegalArgumentException ex) {
-            throw ErrorFactory.badRequest(
-                    "Invalid HTTP method: " + requestDto.getMethodRaw(),
-                    requestDto.getMethodRaw(),
-                    requestDto.getUri(),
-                    ex
-            );
+        if (method == null) {
+            String methodRaw = new String(bytes, start, methodEnd - start, StandardCharsets.ISO_8859_1);
+            requestDto.setMethodRaw(methodRaw);
+            throw ErrorFactory.badRequest("Invalid HTTP method: " + methodRaw, methodRaw, uri, null);
         }
+        requestDto.setMethod(method);
+        if (routeTable != null) {
+            Route route = routeTable.match(bytes, uriStart, uriEnd);
+            int[] pathParameterSlices = route == null ? null : route.findParameters(bytes, uriStart, uriEnd, start);
+            if (pathParameterSlices != null && (uriClasses & ESCAPED) != 0) {
+                for (int i = 0; i < pathParameterSlices.length; i += 2) {
+                    checkEscapes(bytes, start + pathParameterSlices[i], start + pathParameterSlices[i + 1]);
+                }
+            }
+            requestDto.setRoute(route, pathParameterSlices);
+        }
+        position++;
 
         // parameters
-        if (foundByte == QUESTION) {
-            foundByte = parseParameters(requestDto, inputByteBuffer, stringBuilder);
-            if (END_LINE_WITH_ZERO.contains(foundByte)) {
+        if (hasParameters) {
+            position = parseParameters(bytes, start, position, end, requestDto);
+            if (position == end || bytes[position] != SPACE) {
+                skipEndOfLine(bytes, position, end);
                 throw ErrorFactory.badRequest("HTTP version not specified");
             }
+            position++;
         }
+
         // http version
-        parsePart(inputByteBuffer, END_LINE, stringBuilder, false);
-        if (stringBuilder.isEmpty()) {
+        int versionStart = position;
+        position = scan(bytes, position, end, STOP_LINE);
+        if (position == versionStart) {
             throw ErrorFactory.badRequest("HTTP request cannot be empty");
         }
-        String httpVersion = stringBuilder.toString();
-        if (!httpVersion.equals("HTTP/1.1")) {
+        if (!Arrays.equals(bytes, versionStart, position, HTTP_VERSION_BYTES, 0, HTTP_VERSION_BYTES.length)) {
             throw ErrorFactory.badRequest("Unsupported HTTP protocol version");
         }
-        requestDto.setHttpVersion(httpVersion);
-
+        requestDto.setHttpVersion(HTTP_VERSION);
+        return skipEndOfLine(bytes, position, end);
     }
 
-    private static byte parsePart(ByteBuffer inputByteBuffer, Set<Byte> stopChars, StringBuilder stringBuilder) throws AppException {
-        return parsePart(inputByteBuffer, stopChars, stringBuilder, null, null, false);
-    }
+    /**
+     * @return position of the byte that stopped the parameters (space, end of line or end of data)
+     */
+    private static int parseParameters(byte[] bytes, int base, int position, int end, RequestDto requestDto)
+            throws AppException {
+        while (position < end) {
+            int nameStart = position;
+            while (position < end && (CHAR_CLASS[bytes[position] & 0xFF] & STOP_PARAM_NAME) == 0) {
+                if (bytes[position] == QUESTION) {
+                    throw ErrorFactory.badRequest("Character '?' is not allowed in parameter name in request URI",
+                            "INCORRECT_REQUEST_PARAMETER");
+                }
+                position++;
+            }
+            if (position == end || bytes[position] != EQUALITY) {
+                skipEndOfLine(bytes, position, end);
+                throw ErrorFactory.badRequest("Parameter name not specified in request URI",
+                        "INCORRECT_REQUEST_PARAMETER");
+            }
+            if (position == nameStart) {
+                throw ErrorFactory.badRequest("Parameter name cannot be empty in request URI",
+                        "INCORRECT_REQUEST_PARAMETER");
+            }
+            int nameEnd = position++;
 
-    private static byte parsePart(ByteBuffer inputByteBuffer,
-                                  Set<Byte> stopChars,
-                                  StringBuilder stringBuilder,
-                                  boolean onlyAscii
-    ) throws AppException {
-        return parsePart(inputByteBuffer, stopChars, stringBuilder, null, null, onlyAscii);
+            int valueStart = position;
+            position = scan(bytes, position, end, STOP_PARAM_VALUE);
+            if (position == valueStart) {
+                throw ErrorFactory.badRequest("Parameter value with parameter name '" +
+                                decode(bytes, nameStart, nameEnd) + "' cannot be empty in request URI",
+                        "INCORRECT_REQUEST_PARAMETER");
+            }
+            checkEscapes(bytes, nameStart, nameEnd);
+            checkEscapes(bytes, valueStart, position);
+            requestDto.addParameterSlice(nameStart - base, nameEnd - base, valueStart - base, position - base);
+            if (position == end || bytes[position] != AMP) {
+                break;
+            }
+            position++;
+        }
+        return position;
     }
 
+    private static int parseHeaders(byte[] bytes, int base, int position, int end, RequestDto requestDto)
+            throws AppException {
+        int contentLength = 0;
+        Boolean keepAlive = null;
+        while (position < end) {
+            if (bytes[position] == CR || bytes[position] == LF) {
+                position = skipEndOfLine(bytes, position, end);
+                break;
+            }
+            int nameStart = position;
+            position = scan(bytes, position, end, STOP_HEADER_NAME);
+            if (position == end || bytes[position] != COLON) {
+                throw ErrorFactory.badRequest("Header without colon", "INCORRECT_REQUEST_HEADER");
+            }
+            int nameEnd = trimEnd(bytes, nameStart, position);
+            if (nameEnd == nameStart) {
+                throw ErrorFactory.badRequest("Header name cannot be empty", "INCORRECT_REQUEST_HEADER");
+            }
+            position++;
+            while (position < end && (bytes[position] == SPACE || bytes[position] == TAB)) position++;
+            int valueStart = position;
+            position = scan(bytes, position, end, STOP_LINE);
+            int valueEnd = trimEnd(bytes, valueStart, position);
+            position = skipEndOfLine(bytes, position, end);
 
-    private static byte parsePart(ByteBuffer inputByteBuffer,
-                                  Set<Byte> stopChars,
-                                  StringBuilder stringBuilder,
-                                  Set<Byte> exceptionChar,
-                                  String desc,
-                                  boolean onlyAscii
-    ) throws AppException {
-        stringBuilder.setLength(0);
-        int countQuotes = 0;
-        while (inputByteBuffer.hasRemaining()) {
-            byte code_character = inputByteBuffer.get();
-
-            if (onlyAscii && (code_character < 32 || code_character > 126)) {
-                throw ErrorFactory.badRequest(
-                        "Non-ASCII character detected: 0x" + Integer.toHexString(code_character & 0xFF),
-                        "INVALID_CHARACTER"
-                );
+            if (equalsIgnoreCase(bytes, nameStart, nameEnd, CONTENT_LENGTH)) {
+                contentLength = parseContentLength(bytes, valueStart, valueEnd);
+            } else if (equalsIgnoreCase(bytes, nameStart, nameEnd, CONNECTION)) {
+                if (equalsIgnoreCase(bytes, valueStart, valueEnd, CONNECTION_CLOSE)) keepAlive = false;
+                else if (equalsIgnoreCase(bytes, valueStart, valueEnd, CONNECTION_KEEP_ALIVE)) keepAlive = true;
             }
+            requestDto.addHeaderSlice(nameStart - base, nameEnd - base, valueStart - base, valueEnd - base);
+        }
+        requestDto.setContentLength(contentLength);
+        // HTTP/1.1 connections are persistent unless the client sends "Connection: close"
+        requestDto.setKeepAlive(keepAlive == null || keepAlive);
+        return position;
+    }
 
-            if (exceptionChar != null ) {
-                if (code_character == QUOTES) countQuotes++;
-                if (exceptionChar.contains(code_character) && (countQuotes == 0 || countQuotes % 2 != 0)) throw ErrorFactory.badRequest(desc);
+    private static int parseContentLength(byte[] bytes, int start, int end) throws AppException {
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || (result = result * 10 + digit) > Integer.MAX_VALUE) {
+                result = -1;
+                break;
             }
+        }
+        if (start == end || result < 0) {
+            throw ErrorFactory.badRequest(
+                    "Invalid Content-Length: " + new String(bytes, start, end - start, StandardCharsets.ISO_8859_1),
+                    "INCORRECT_REQUEST_HEADER");
+        }
+        return (int) result;
+    }
 
-            if (stopChars.contains(code_character)) {
-                switch (code_character) {
-                    case CR:
-                        if (inputByteBuffer.hasRemaining() && inputByteBuffer.get() != LF)
-                            throw ErrorFactory.badRequest("Carriage return character not at end of line");
-                        break;
-                    case LF:
-                        throw ErrorFactory.badRequest("Line break character without preceding carriage break character");
-                    default:
-                        return code_character;
-                }
-                return code_character;
+    private static HttpMethod matchMethod(byte[] bytes, int start, int end) {
+        for (int i = 0; i < METHOD_NAMES.length; i++) {
+            if (Arrays.equals(bytes, start, end, METHOD_NAMES[i], 0, METHOD_NAMES[i].length)) {
+                return METHODS[i];
             }
-            stringBuilder.append((char) code_character);
         }
-        return 0;
+        return null;
     }
 
+    private static int scan(byte[] bytes, int position, int end, int stopClass) {
+        while (position < end && (CHAR_CLASS[bytes[position] & 0xFF] & stopClass) == 0) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int skipEndOfLine(byte[] bytes, int position, int end) throws AppException {
+        if (position == end) return position;
+        if (bytes[position] == LF) {
+            throw ErrorFactory.badRequest("Line break character without preceding carriage break character");
+        }
+        if (bytes[position] != CR) return position;
+        if (position + 1 < end && bytes[position + 1] != LF) {
+            throw ErrorFactory.badRequest("Carriage return character not at end of line");
+        }
+        return Math.min(position + 2, end);
+    }
 
-    private static void parseHeaders(RequestDto requestDto, ByteBuffer inputByteBuffer, StringBuilder stringBuilder) throws AppException {
-        while (true) {
-            String headerName = parseHeaderName(inputByteBuffer, stringBuilder);
-            if (headerName.isEmpty()) break;
+    private static int trimEnd(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] == SPACE || bytes[end - 1] == TAB)) end--;
+        return end;
+    }
 
-            String headerValue = parseHeaderValue(inputByteBuffer, stringBuilder);
-            requestDto.addHeader(headerName, headerValue);
+    /**
+     * @param lowerCaseName ASCII name in lower case
+     */
+    static boolean equalsIgnoreCase(byte[] bytes, int start, int end, byte[] lowerCaseName) {
+        if (end - start != lowerCaseName.length) return false;
+        for (int i = 0; i < lowerCaseName.length; i++) {
+            byte b = bytes[start + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != lowerCaseName[i]) return false;
         }
+        return true;
     }
 
-    private static String parseHeaderName(ByteBuffer inputByteBuffer, StringBuilder stringBuilder) throws AppException {
-        stringBuilder.setLength(0);
-        while (inputByteBuffer.hasRemaining()) {
-            byte readByte = inputByteBuffer.get();
-            if (readByte == COLON) {
-                skip(inputByteBuffer, 1);
-                break;
-            }
-            if (readByte == CR) {
-                skipUntil(inputByteBuffer, LF);
-                return "";
+    /**
+     * Checks the escape sequences of a parameter while parsing, so it is rejected with the request
+     * and not when the parameter is decoded later
+     */
+    private static void checkEscapes(byte[] bytes, int position, int end) throws AppException {
+        while (position < end) {
+            if (bytes[position++] != PERCENT) continue;
+            if (position + 1 >= end
+                    || Character.digit(bytes[position], 16) < 0 || Character.digit(bytes[position + 1], 16) < 0) {
+                throw ErrorFactory.badRequest("Incorrect escape sequence in request URI",
+                        "INCORRECT_REQUEST_PARAMETER");
             }
-            stringBuilder.append((char) readByte);
+            position += 2;
         }
-        return stringBuilder.toString().trim();
     }
 
-    private static String parseHeaderValue(ByteBuffer inputByteBuffer, StringBuilder stringBuilder) throws AppException {
-        stringBuilder.setLength(0);
-        while (inputByteBuffer.hasRemaining()) {
-            byte readByte = inputByteBuffer.get();
-            if (readByte == CR) {
-                skipUntil(inputByteBuffer, LF);
-                break;
+    /**
+     * Decodes application/x-www-form-urlencoded bytes as URLDecoder does with UTF-8,
+     * without intermediate StringBuilder when there is nothing to decode.
+     * Bytes that are not escaped are also read as UTF-8, the same as the escaped ones.
+     */
+    static String decode(byte[] bytes, int start, int end) throws AppException {
+        int position = start;
+        while (position < end && (CHAR_CLASS[bytes[position] & 0xFF] & ESCAPED) == 0) position++;
+        if (position == end) {
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+
+        byte[] decoded = new byte[end - start];
+        int length = position - start;
+        System.arraycopy(bytes, start, decoded, 0, length);
+        while (position < end) {
+            byte b = bytes[position++];
+            if (b == PLUS) {
+                decoded[length++] = SPACE;
+            } else if (b == PERCENT) {
+                int high = position + 1 < end ? Character.digit(bytes[position], 16) : -1;
+                int low = high >= 0 ? Character.digit(bytes[position + 1], 16) : -1;
+                if (low < 0) {
+                    throw ErrorFactory.badRequest("Incorrect escape sequence in request URI",
+                            "INCORRECT_REQUEST_PARAMETER");
+                }
+                decoded[length++] = (byte) ((high << 4) + low);
+                position += 2;
+            } else {
+                decoded[length++] = b;
             }
-            stringBuilder.append((char) readByte);
         }
-        return stringBuilder.toString().trim();
+        return new String(decoded, 0, length, StandardCharsets.UTF_8);
     }
 }
@@ -0,0 +1,32 @@
+package http.server.postgres;
+
+/**
+ * Host, port and database of a jdbc:postgresql://host[:port]/database URL, its parameters are ignored
+ */
+record PgAddress(String host, int port, String database) {
+    private static final String PREFIX = "jdbc:postgresql://";
+    private static final int DEFAULT_PORT = 5432;
+
+    static PgAddress parse(String url) {
+        if (url == null || !url.startsWith(PREFIX)) {
+            throw new IllegalArgumentException("Database URL must start with " + PREFIX + ": " + url);
+        }
+        String rest = url.substring(PREFIX.length());
+        int query = rest.indexOf('?');
+        if (query >= 0) rest = rest.substring(0, query);
+        int slash = rest.indexOf('/');
+        if (slash <= 0 || slash == rest.length() - 1) {
+            throw new IllegalArgumentException("Database URL must contain host and database: " + url);
+        }
+        String hostPort = rest.substring(0, slash);
+        String database = rest.substring(slash + 1);
+        int colon = hostPort.lastIndexOf(':');
+        if (colon < 0 || hostPort.endsWith("]")) return new PgAddress(hostPort, DEFAULT_PORT, database);
+        return new PgAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)), database);
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port + "/" + database;
+    }
+}
@@ -0,0 +1,121 @@
+package http.server.postgres;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * Password authentication of the startup: MD5 and SCRAM-SHA-256 without channel binding (RFC 5802, RFC 7677).
+ * The password is used as is, without SASLprep, which is the same for ASCII passwords.
+ */
+final class PgAuthentication {
+    static final String SCRAM_SHA_256 = "SCRAM-SHA-256";
+    private static final String GS2_HEADER = "n,,";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PgAuthentication() {
+    }
+
+    /**
+     * @return "md5" + md5(md5(password + user) + salt) in hex, as the server expects it
+     */
+    static String md5Password(String user, String password, byte[] salt) throws SQLException {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            String inner = HexFormat.of().formatHex(md5.digest((password + user).getBytes(StandardCharsets.UTF_8)));
+            md5.update(inner.getBytes(StandardCharsets.US_ASCII));
+            md5.update(salt);
+            return "md5" + HexFormat.of().formatHex(md5.digest());
+        } catch (GeneralSecurityException e) {
+            throw new SQLException("MD5 is not available", e);
+        }
+    }
+
+    /**
+     * Client side of one SCRAM-SHA-256 exchange
+     */
+    static final class Scram {
+        private final String password;
+        private final String clientNonce;
+        private final String clientFirstBare;
+        private byte[] saltedPassword;
+        private String authMessage;
+
+        Scram(String password) {
+            byte[] nonce = new byte[18];
+            RANDOM.nextBytes(nonce);
+            this.password = password;
+            this.clientNonce = Base64.getEncoder().encodeToString(nonce);
+            this.clientFirstBare = "n=,r=" + clientNonce;
+        }
+
+        String clientFirstMessage() {
+            return GS2_HEADER + clientFirstBare;
+        }
+
+        /**
+         * @param serverFirst r=nonce,s=salt,i=iterations
+         */
+        String clientFinalMessage(String serverFirst) throws SQLException {
+            String nonce = attribute(serverFirst, 'r');
+            if (!nonce.startsWith(clientNonce)) throw new SQLException("SCRAM nonce of the server is invalid");
+            byte[] salt = Base64.getDecoder().decode(attribute(serverFirst, 's'));
+            int iterations = Integer.parseInt(attribute(serverFirst, 'i'));
+            String withoutProof = "c=" + Base64.getEncoder().encodeToString(GS2_HEADER.getBytes(StandardCharsets.US_ASCII))
+                    + ",r=" + nonce;
+            authMessage = clientFirstBare + "," + serverFirst + "," + withoutProof;
+            try {
+                SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+                saltedPassword = factory.generateSecret(
+                        new PBEKeySpec(password.toCharArray(), salt, iterations, 256)).getEncoded();
+                byte[] clientKey = hmac(saltedPassword, "Client Key");
+                byte[] storedKey = MessageDigest.getInstance("SHA-256").digest(clientKey);
+                byte[] proof = hmac(storedKey, authMessage);
+                for (int i = 0; i < proof.length; i++) {
+                    proof[i] ^= clientKey[i];
+                }
+                return withoutProof + ",p=" + Base64.getEncoder().encodeToString(proof);
+            } catch (GeneralSecurityException e) {
+                throw new SQLException("SCRAM-SHA-256 is not available", e);
+            }
+        }
+
+        /**
+         * Checks the signature of the server, so a server that does not know the password is not trusted
+         *
+         * @param serverFinal v=signature
+         */
+        void verifyServerFinal(String serverFinal) throws SQLException {
+            try {
+                byte[] expected = hmac(hmac(saltedPassword, "Server Key"), authMessage);
+                byte[] actual = Base64.getDecoder().decode(attribute(serverFinal, 'v'));
+                if (!MessageDigest.isEqual(expected, actual)) {
+                    throw new SQLException("SCRAM signature of the server is invalid");
+                }
+            } catch (GeneralSecurityException e) {
+                throw new SQLException("SCRAM-SHA-256 is not available", e);
+            }
+        }
+
+        private static byte[] hmac(byte[] key, String message) throws GeneralSecurityException {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(message.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static String attribute(String message, char name) throws SQLException {
+            for (String part : message.split(",")) {
+                if (part.length() > 1 && part.charAt(0) == name && part.charAt(1) == '=') return part.substring(2);
+            }
+            throw new SQLException("SCRAM message has no attribute " + name + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package http.server.postgres;
+
+import http.server.error.ErrorFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous Postgres client: a few connections driven by one event loop thread with its own selector.
+ *
+ * <p>Queries are queued by any thread and sent by the loop to the connection with the fewest queries in flight,
+ * pipelined up to {@value #MAX_IN_FLIGHT} per connection, so one thread keeps many queries in flight without
+ * a pool of blocked threads. The futures are completed on the loop thread: their continuations must not block.
+ *
+ * <p>With maxPending queries queued or in flight new queries fail at once with 503 and Retry-After.
+ * A lost connection fails its queries and is opened again in the background.
+ */
+public final class PgClient implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(PgClient.class);
+    private static final int MAX_IN_FLIGHT = 256;
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+    private static final Map<String, String> NATIVE_SQL = new ConcurrentHashMap<>();
+    private final PgAddress address;
+    private final String user;
+    private final String password;
+    private final int connectTimeoutMillis;
+    private final int maxPending;
+    private final int retryAfterSeconds;
+    private final Selector selector;
+    private final Thread loopThread;
+    private final ScheduledExecutorService reconnector;
+    private final ConcurrentLinkedQueue<PgQuery<?>> submitted = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<PgConnection> opened = new ConcurrentLinkedQueue<>();
+    /**
+     * Only the loop thread uses the connections and the queries waiting for a free connection
+     */
+    private final List<PgConnection> connections = new ArrayList<>();
+    private final ArrayDeque<PgQuery<?>> waiting = new ArrayDeque<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private volatile int openConnections;
+    private volatile boolean running = true;
+
+    /**
+     * Opens the connections, fails if one of them cannot be opened
+     *
+     * @param url        jdbc:postgresql://host[:port]/database
+     * @param maxPending queries queued or in flight at which new queries are rejected
+     */
+    public PgClient(String url, String user, String password, int connections, int connectTimeoutMillis,
+                    int maxPending, int retryAfterSeconds) throws SQLException, IOException {
+        this.address = PgAddress.parse(url);
+        this.user = user;
+        this.password = password;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.maxPending = maxPending;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.reconnector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pg-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.selector = Selector.open();
+        try {
+            for (int i = 0; i < connections; i++) {
+                PgConnection connection = PgConnection.connect(address, user, password, connectTimeoutMillis);
+                connection.register(selector);
+                this.connections.add(connection);
+            }
+        } catch (SQLException | IOException e) {
+            for (PgConnection connection : this.connections) connection.close(e);
+            selector.close();
+            reconnector.shutdownNow();
+            throw e;
+        }
+        openConnections = connections;
+        loopThread = new Thread(this::loop, "pg-event-loop");
+        loopThread.setDaemon(true);
+        loopThread.start();
+    }
+
+    /**
+     * Runs a query, the rows are converted by the mapper on the loop thread as they arrive
+     *
+     * @param sql        query with ? placeholders
+     * @param parameters Integer, Long, String, LocalDateTime or null, sent in text format
+     */
+    public <T> CompletableFuture<List<T>> query(String sql, RowMapper<T> mapper, Object... parameters) {
+        PgQuery<T> query = PgQuery.select(nativeSql(sql), text(parameters), mapper);
+        submit(query);
+        return query.rows;
+    }
+
+    /**
+     * Runs a statement without result rows
+     *
+     * @return number of rows changed by the statement
+     */
+    public CompletableFuture<Long> update(String sql, Object... parameters) {
+        PgQuery<Void> query = PgQuery.update(nativeSql(sql), text(parameters));
+        submit(query);
+        return query.updateCount;
+    }
+
+    private void submit(PgQuery<?> query) {
+        queries.increment();
+        if (!running) {
+            query.completeExceptionally(new SQLException("Postgres client is closed", "08003"));
+            return;
+        }
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            shed.increment();
+            query.completeExceptionally(
+                    ErrorFactory.serviceUnavailable("Database is overloaded", retryAfterSeconds, null));
+            return;
+        }
+        submitted.add(query);
+        if (wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select();
+                wakeupPending.set(false);
+                PgConnection connection;
+                while ((connection = opened.poll()) != null) {
+                    try {
+                        connection.register(selector);
+                        connections.add(connection);
+                        openConnections = connections.size();
+                    } catch (IOException e) {
+                        connection.close(e);
+                        scheduleReconnect();
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    connection = (PgConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) pending.addAndGet(-connection.read());
+                        if (key.isValid() && key.isWritable()) connection.flush();
+                    } catch (IOException | RuntimeException e) {
+                        drop(connection, e);
+                    }
+                }
+                sendQueries();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) logger.error("Postgres event loop failed", e);
+        } finally {
+            SQLException closed = new SQLException("Postgres client is closed", "08003");
+            for (PgConnection connection : connections) pending.addAndGet(-connection.close(closed));
+            connections.clear();
+            openConnections = 0;
+            failWaiting(closed);
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("Postgres selector close error", e);
+            }
+        }
+    }
+
+    /**
+     * Sends the waiting and the submitted queries to the least loaded connections and flushes them
+     */
+    private void sendQueries() {
+        if (connections.isEmpty()) {
+            failWaiting(ErrorFactory.serviceUnavailable("Database is unavailable", retryAfterSeconds, null));
+            return;
+        }
+        PgQuery<?> query;
+        while ((query = waiting.peek()) != null || (query = submitted.peek()) != null) {
+            PgConnection target = null;
+            for (PgConnection connection : connections) {
+                if (target == null || connection.getInFlight() < target.getInFlight()) target = connection;
+            }
+            if (target.getInFlight() >= MAX_IN_FLIGHT) break;
+            if (waiting.poll() == null) submitted.poll();
+            target.send(query);
+        }
+        // the rest waits for connections with fewer queries in flight
+        while ((query = submitted.poll()) != null) waiting.add(query);
+
+        for (int i = connections.size() - 1; i >= 0; i--) {
+            PgConnection connection = connections.get(i);
+            try {
+                connection.flush();
+            } catch (IOException e) {
+                drop(connection, e);
+            }
+        }
+    }
+
+    private void failWaiting(Exception cause) {
+        PgQuery<?> query;
+        int failed = 0;
+        while ((query = waiting.poll()) != null || (query = submitted.poll()) != null) {
+            query.completeExceptionally(cause);
+            failed++;
+        }
+        pending.addAndGet(-failed);
+    }
+
+    private void drop(PgConnection connection, Exception cause) {
+        logger.warn("Connection to Postgres {} lost: {}", address, cause.getMessage());
+        connections.remove(connection);
+        openConnections = connections.size();
+        pending.addAndGet(-connection.close(new SQLException("Connection to Postgres is lost", "08006", cause)));
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        if (!running) return;
+        try {
+            reconnector.schedule(this::reconnect, RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Postgres reconnect not scheduled, the client is closed");
+        }
+    }
+
+    /**
+     * Opens a connection for the loop, any failure schedules the next attempt
+     */
+    private void reconnect() {
+        try {
+            opened.add(PgConnection.connect(address, user, password, connectTimeoutMillis));
+            reconnects.increment();
+            selector.wakeup();
+        } catch (Exception e) {
+            logger.warn("Cannot reconnect to Postgres {}: {}", address, e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * @return the query with $1, $2... instead of the ? placeholders outside of quotes
+     */
+    static String nativeSql(String sql) {
+        return NATIVE_SQL.computeIfAbsent(sql, s -> {
+            StringBuilder result = new StringBuilder(s.length() + 8);
+            int parameter = 0;
+            char quote = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (quote != 0) {
+                    if (c == quote) quote = 0;
+                } else if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '?') {
+                    result.append('$').append(++parameter);
+                    continue;
+                }
+                result.append(c);
+            }
+            return result.toString();
+        });
+    }
+
+    private static String[] text(Object[] parameters) {
+        String[] values = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            values[i] = parameters[i] == null ? null : parameters[i].toString();
+        }
+        return values;
+    }
+
+    /**
+     * @return queries queued or in flight
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    public long getShed() {
+        return shed.sum();
+    }
+
+    public int getOpenConnections() {
+        return openConnections;
+    }
+
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        reconnector.shutdownNow();
+        selector.wakeup();
+        try {
+            loopThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        SQLException closed = new SQLException("Postgres client is closed", "08003");
+        PgConnection connection;
+        while ((connection = opened.poll()) != null) connection.close(closed);
+        // queries submitted while the loop was stopping
+        if (!loopThread.isAlive()) failWaiting(closed);
+    }
+
+    @Override
+    public String toString() {
+        return "PgClient{" +
+                "address=" + address +
+                ", connections=" + openConnections +
+                ", pending=" + pending.get() +
+                ", queries=" + queries.sum() +
+                ", shed=" + shed.sum() +
+                ", reconnects=" + reconnects.sum() +
+                '}';
+    }
+}
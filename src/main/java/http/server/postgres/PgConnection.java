@@ -0,0 +1,366 @@
+package http.server.postgres;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One connection to Postgres speaking the frontend/backend protocol 3.0 with the extended query protocol.
+ *
+ * <p>Every query is sent as Bind, Execute and Sync (with Parse the first time its SQL is used on the connection,
+ * the statement stays prepared), without waiting for the results of the queries sent before it. Postgres answers
+ * the queries in order, each answer ends with ReadyForQuery, so the results are matched to the queue of sent
+ * queries. A failed query does not affect the next ones: the Sync after it ends the error.
+ *
+ * <p>The startup and authentication are blocking, after them the connection is non-blocking and used only by
+ * the event loop of {@link PgClient}.
+ */
+final class PgConnection {
+    private static final int PROTOCOL_VERSION = 3 << 16;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /**
+     * Type byte and length of a backend message
+     */
+    private static final int HEADER_SIZE = 5;
+    private static final int AUTHENTICATION_OK = 0;
+    private static final int AUTHENTICATION_CLEARTEXT = 3;
+    private static final int AUTHENTICATION_MD5 = 5;
+    private static final int AUTHENTICATION_SASL = 10;
+    private static final int AUTHENTICATION_SASL_CONTINUE = 11;
+    private static final int AUTHENTICATION_SASL_FINAL = 12;
+
+    private final SocketChannel channel;
+    private final ArrayDeque<PgQuery<?>> sent = new ArrayDeque<>();
+    private final Map<String, String> statements = new HashMap<>();
+    private final PgRow row = new PgRow();
+    private ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+    private int nextStatement;
+    private SelectionKey key;
+
+    private PgConnection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Connects and authenticates, blocking the calling thread at most timeoutMillis per read
+     */
+    static PgConnection connect(PgAddress address, String user, String password, int timeoutMillis)
+            throws SQLException {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.socket().connect(new InetSocketAddress(address.host(), address.port()), timeoutMillis);
+            channel.socket().setSoTimeout(timeoutMillis);
+            channel.socket().setTcpNoDelay(true);
+            PgConnection connection = new PgConnection(channel);
+            connection.startup(new DataInputStream(channel.socket().getInputStream()), address.database(),
+                    user, password);
+            channel.configureBlocking(false);
+            return connection;
+        } catch (IOException e) {
+            close(channel);
+            throw new SQLException("Cannot connect to " + address + ": " + e.getMessage(), "08001", e);
+        } catch (SQLException | RuntimeException e) {
+            close(channel);
+            throw e;
+        }
+    }
+
+    private void startup(DataInputStream in, String database, String user, String password)
+            throws IOException, SQLException {
+        int start = begin((byte) 0);
+        output.putInt(PROTOCOL_VERSION);
+        putString("user");
+        putString(user);
+        putString("database");
+        putString(database);
+        putString("application_name");
+        putString("http-server-nio");
+        output.put((byte) 0);
+        output.putInt(start, output.position() - start);
+        writeBlocking();
+
+        PgAuthentication.Scram scram = null;
+        while (true) {
+            byte type = in.readByte();
+            byte[] body = new byte[in.readInt() - 4];
+            in.readFully(body);
+            switch (type) {
+                case 'R' -> {
+                    int code = readInt(body, 0);
+                    if (code == AUTHENTICATION_CLEARTEXT) {
+                        passwordMessage(password);
+                    } else if (code == AUTHENTICATION_MD5) {
+                        byte[] salt = {body[4], body[5], body[6], body[7]};
+                        passwordMessage(PgAuthentication.md5Password(user, password, salt));
+                    } else if (code == AUTHENTICATION_SASL) {
+                        String mechanisms = new String(body, 4, body.length - 4, StandardCharsets.UTF_8);
+                        if (!mechanisms.contains(PgAuthentication.SCRAM_SHA_256 + '\0')) {
+                            throw new SQLException("Unsupported SASL mechanisms: " + mechanisms.replace('\0', ' '));
+                        }
+                        scram = new PgAuthentication.Scram(password);
+                        byte[] first = scram.clientFirstMessage().getBytes(StandardCharsets.UTF_8);
+                        int messageStart = begin((byte) 'p');
+                        putString(PgAuthentication.SCRAM_SHA_256);
+                        output.putInt(first.length).put(first);
+                        end(messageStart);
+                    } else if (code == AUTHENTICATION_SASL_CONTINUE && scram != null) {
+                        String serverFirst = new String(body, 4, body.length - 4, StandardCharsets.UTF_8);
+                        byte[] last = scram.clientFinalMessage(serverFirst).getBytes(StandardCharsets.UTF_8);
+                        int messageStart = begin((byte) 'p');
+                        output.put(last);
+                        end(messageStart);
+                    } else if (code == AUTHENTICATION_SASL_FINAL && scram != null) {
+                        scram.verifyServerFinal(new String(body, 4, body.length - 4, StandardCharsets.UTF_8));
+                    } else if (code != AUTHENTICATION_OK) {
+                        throw new SQLException("Unsupported authentication method " + code, "28000");
+                    }
+                    writeBlocking();
+                }
+                case 'E' -> throw error(body, 0, body.length);
+                case 'Z' -> {
+                    return;
+                }
+                default -> {
+                    // ParameterStatus, BackendKeyData and notices are not used
+                }
+            }
+        }
+    }
+
+    private void passwordMessage(String password) {
+        int start = begin((byte) 'p');
+        putString(password);
+        end(start);
+    }
+
+    private void writeBlocking() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) channel.write(output);
+        output.clear();
+    }
+
+    void register(Selector selector) throws IOException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * @return queries sent and waiting for their results
+     */
+    int getInFlight() {
+        return sent.size();
+    }
+
+    /**
+     * Appends the query to the output, it is sent by {@link #flush()}
+     */
+    void send(PgQuery<?> query) {
+        String name = statements.get(query.sql);
+        if (name == null) {
+            name = "s" + nextStatement++;
+            statements.put(query.sql, name);
+            query.preparedName = name;
+            int start = begin((byte) 'P');
+            putString(name);
+            putString(query.sql);
+            output.putShort((short) 0);
+            end(start);
+        }
+
+        int start = begin((byte) 'B');
+        putString("");
+        putString(name);
+        output.putShort((short) 0);
+        output.putShort((short) query.parameters.length);
+        for (String parameter : query.parameters) {
+            if (parameter == null) {
+                output.putInt(-1);
+            } else {
+                byte[] bytes = parameter.getBytes(StandardCharsets.UTF_8);
+                ensure(4 + bytes.length);
+                output.putInt(bytes.length).put(bytes);
+            }
+        }
+        output.putShort((short) 0);
+        end(start);
+
+        start = begin((byte) 'E');
+        putString("");
+        output.putInt(0);
+        end(start);
+
+        start = begin((byte) 'S');
+        end(start);
+        sent.add(query);
+    }
+
+    /**
+     * Writes as much of the output as the socket takes, watches for writability if something is left
+     */
+    void flush() throws IOException {
+        if (output.position() == 0) return;
+        output.flip();
+        channel.write(output);
+        output.compact();
+        if (output.position() > 0) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Reads the available messages and completes the queries whose results are complete
+     *
+     * @return number of completed queries
+     */
+    int read() throws IOException {
+        if (channel.read(input) < 0) throw new IOException("Postgres closed the connection");
+        input.flip();
+        int completed = 0;
+        while (input.remaining() >= HEADER_SIZE) {
+            int start = input.position();
+            int length = input.getInt(start + 1);
+            if (input.remaining() < length + 1) break;
+            if (handle(input.get(start), input.array(), start + HEADER_SIZE, length - 4)) completed++;
+            input.position(start + 1 + length);
+        }
+        input.compact();
+        if (!input.hasRemaining()) {
+            input = ByteBuffer.allocate(input.capacity() * 2).put(input.flip());
+        }
+        return completed;
+    }
+
+    /**
+     * @return true if the message completed the query at the head of the queue
+     */
+    private boolean handle(byte type, byte[] bytes, int offset, int length) throws IOException {
+        PgQuery<?> query = sent.peek();
+        switch (type) {
+            case 'D' -> {
+                if (query != null && query.mapper != null && !query.isFailed()) {
+                    row.reset(bytes, offset);
+                    query.row(row);
+                }
+            }
+            case 'C' -> {
+                if (query != null) query.commandComplete(cString(bytes, offset, offset + length));
+            }
+            case '1' -> {
+                if (query != null) query.parsed = true;
+            }
+            case 'E' -> {
+                SQLException error = error(bytes, offset, length);
+                if (query == null) throw new IOException("Unexpected error from Postgres", error);
+                // only a failed Parse leaves the statement unprepared, then the next query parses it again
+                if (query.preparedName != null && !query.parsed) statements.remove(query.sql, query.preparedName);
+                query.fail(error);
+            }
+            case 'Z' -> {
+                if (query == null) throw new IOException("Unexpected ReadyForQuery from Postgres");
+                sent.poll().complete();
+                return true;
+            }
+            default -> {
+                // BindComplete, notices and parameter changes need no action
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fails the sent queries and closes the channel, after an I/O error
+     *
+     * @return number of failed queries
+     */
+    int close(Throwable cause) {
+        int failed = sent.size();
+        PgQuery<?> query;
+        while ((query = sent.poll()) != null) {
+            query.completeExceptionally(cause);
+        }
+        if (key != null) key.cancel();
+        close(channel);
+        return failed;
+    }
+
+    private static void close(SocketChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the connection is dropped anyway
+        }
+    }
+
+    /**
+     * Starts a message: type (none for the startup message) and a place for the length
+     *
+     * @return position of the length
+     */
+    private int begin(byte type) {
+        ensure(HEADER_SIZE);
+        if (type != 0) output.put(type);
+        int start = output.position();
+        output.putInt(0);
+        return start;
+    }
+
+    private void end(int start) {
+        output.putInt(start, output.position() - start);
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(bytes.length + 1);
+        output.put(bytes).put((byte) 0);
+    }
+
+    private void ensure(int size) {
+        if (output.remaining() >= size + 16) return;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + size + 16));
+        output = larger.put(output.flip());
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static String cString(byte[] bytes, int offset, int end) {
+        int zero = offset;
+        while (zero < end && bytes[zero] != 0) zero++;
+        return new String(bytes, offset, zero - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return exception of an ErrorResponse with its message and SQLSTATE
+     */
+    private static SQLException error(byte[] bytes, int offset, int length) {
+        String message = null;
+        String state = null;
+        String severity = null;
+        int position = offset;
+        int end = offset + length;
+        while (position < end && bytes[position] != 0) {
+            byte field = bytes[position++];
+            String value = cString(bytes, position, end);
+            position += value.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (field == 'M') message = value;
+            else if (field == 'C') state = value;
+            else if (field == 'V') severity = value;
+        }
+        return new SQLException((severity == null ? "" : severity + ": ") + message, state);
+    }
+}
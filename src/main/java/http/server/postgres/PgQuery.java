@@ -0,0 +1,98 @@
+package http.server.postgres;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Query waiting to be sent or for its result, its rows are collected as they arrive
+ */
+final class PgQuery<T> {
+    final String sql;
+    final String[] parameters;
+    /**
+     * Null for a statement whose result is the number of rows it changed
+     */
+    final RowMapper<T> mapper;
+    final CompletableFuture<List<T>> rows;
+    final CompletableFuture<Long> updateCount;
+    private final List<T> result = new ArrayList<>();
+    private long count;
+    private SQLException error;
+    /**
+     * Name of the statement prepared together with this query, null if it had been prepared before
+     */
+    String preparedName;
+    /**
+     * Set on ParseComplete of the statement prepared together with this query
+     */
+    boolean parsed;
+
+    private PgQuery(String sql, String[] parameters, RowMapper<T> mapper,
+                    CompletableFuture<List<T>> rows, CompletableFuture<Long> updateCount) {
+        this.sql = sql;
+        this.parameters = parameters;
+        this.mapper = mapper;
+        this.rows = rows;
+        this.updateCount = updateCount;
+    }
+
+    static <T> PgQuery<T> select(String sql, String[] parameters, RowMapper<T> mapper) {
+        return new PgQuery<>(sql, parameters, mapper, new CompletableFuture<>(), null);
+    }
+
+    static PgQuery<Void> update(String sql, String[] parameters) {
+        return new PgQuery<>(sql, parameters, null, null, new CompletableFuture<>());
+    }
+
+    void row(PgRow row) {
+        if (error != null || mapper == null) return;
+        try {
+            result.add(mapper.map(row));
+        } catch (RuntimeException e) {
+            error = new SQLException("Cannot read row: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param tag command tag of CommandComplete, the last word is the number of rows
+     */
+    void commandComplete(String tag) {
+        int space = tag.lastIndexOf(' ');
+        try {
+            count = Long.parseLong(tag.substring(space + 1));
+        } catch (NumberFormatException e) {
+            count = 0;
+        }
+    }
+
+    void fail(SQLException e) {
+        if (error == null) error = e;
+    }
+
+    boolean isFailed() {
+        return error != null;
+    }
+
+    /**
+     * Completes the future with the result or the error, on ReadyForQuery
+     */
+    void complete() {
+        if (error != null) {
+            completeExceptionally(error);
+        } else if (rows != null) {
+            rows.complete(result);
+        } else {
+            updateCount.complete(count);
+        }
+    }
+
+    void completeExceptionally(Throwable e) {
+        if (rows != null) {
+            rows.completeExceptionally(e);
+        } else {
+            updateCount.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package http.server.postgres;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * Columns of one DataRow in text format, read straight from the input buffer of the connection.
+ * The row is valid only inside {@link RowMapper#map}, the next row reuses it.
+ */
+public final class PgRow {
+    private byte[] bytes;
+    private int[] starts = new int[8];
+    private int[] lengths = new int[8];
+    private int columns;
+
+    /**
+     * @param offset start of the DataRow body: column count and the columns
+     */
+    void reset(byte[] bytes, int offset) {
+        this.bytes = bytes;
+        columns = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+        if (columns > starts.length) {
+            starts = new int[columns];
+            lengths = new int[columns];
+        }
+        int position = offset + 2;
+        for (int i = 0; i < columns; i++) {
+            int length = PgConnection.readInt(bytes, position);
+            position += 4;
+            starts[i] = position;
+            lengths[i] = length;
+            if (length > 0) position += length;
+        }
+    }
+
+    public int getColumnCount() {
+        return columns;
+    }
+
+    /**
+     * @param column index of the column from 0
+     */
+    public boolean isNull(int column) {
+        return lengths[column] < 0;
+    }
+
+    public String getString(int column) {
+        if (isNull(column)) return null;
+        return new String(bytes, starts[column], lengths[column], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return value of an integer column, 0 for null as ResultSet.getInt
+     */
+    public int getInt(int column) {
+        if (isNull(column)) return 0;
+        int position = starts[column];
+        int end = position + lengths[column];
+        boolean negative = bytes[position] == '-';
+        if (negative) position++;
+        int value = 0;
+        for (; position < end; position++) {
+            value = value * 10 + (bytes[position] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads a timestamp without time zone written as yyyy-MM-dd HH:mm:ss[.ffffff]
+     */
+    public LocalDateTime getLocalDateTime(int column) {
+        if (isNull(column)) return null;
+        int start = starts[column];
+        int length = lengths[column];
+        if (length < 19 || bytes[start + 4] != '-' || bytes[start + 10] != ' ') {
+            return LocalDateTime.parse(getString(column).replace(' ', 'T'));
+        }
+        int nano = 0;
+        if (length > 20 && bytes[start + 19] == '.') {
+            int digits = length - 20;
+            nano = digits(start + 20, digits);
+            for (int i = digits; i < 9; i++) nano *= 10;
+        }
+        return LocalDateTime.of(digits(start, 4), digits(start + 5, 2), digits(start + 8, 2),
+                digits(start + 11, 2), digits(start + 14, 2), digits(start + 17, 2), nano);
+    }
+
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+}
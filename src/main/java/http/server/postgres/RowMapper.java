@@ -0,0 +1,9 @@
+package http.server.postgres;
+
+/**
+ * Converts a row of a query result, called on the event loop of the client for every row as it arrives
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    T map(PgRow row);
+}
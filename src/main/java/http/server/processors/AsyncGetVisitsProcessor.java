@@ -0,0 +1,103 @@
+package http.server.processors;
+
+import http.server.Context;
+import http.server.RequestAnswer;
+import http.server.ResponseWriter;
+import http.server.application.AsyncVisitStore;
+import http.server.application.Visit;
+import http.server.application.VisitJson;
+import http.server.application.VisitQuery;
+import http.server.error.AppException;
+import http.server.error.ErrorFactory;
+import http.server.parser.RequestDto;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * GET of visits with the same parameters and answers as {@link GetVisitsProcessor}, read with asynchronous queries.
+ * The visits of a visit or a page are collected before they are serialized, so the answer is not chunked.
+ * The list of all visits has no bound, it is streamed by the {@link GetVisitsProcessor} in a worker thread.
+ */
+public class AsyncGetVisitsProcessor implements AsyncRequestProcessor {
+    private final AsyncVisitStore repository;
+    private final GetVisitsProcessor allVisitsProcessor;
+
+    /**
+     * @param allVisitsProcessor processor of the requests of all visits
+     */
+    public AsyncGetVisitsProcessor(AsyncVisitStore repository, GetVisitsProcessor allVisitsProcessor) {
+        this.repository = Objects.requireNonNull(repository);
+        this.allVisitsProcessor = Objects.requireNonNull(allVisitsProcessor);
+    }
+
+    @Override
+    public boolean isAsync(RequestDto requestDto) {
+        return requestDto.getParameter("id") != null || requestDto.getParametersIterator().hasNext();
+    }
+
+    @Override
+    public void execute(Context context, SocketChannel clientChannel, ByteBuffer inputByteBuffer) throws Exception {
+        if (isAsync(context.getParsingResult().getValue().get())) {
+            AsyncRequestProcessor.super.execute(context, clientChannel, inputByteBuffer);
+        } else {
+            allVisitsProcessor.execute(context, clientChannel, inputByteBuffer);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> executeAsync(Context context, ByteBuffer inputByteBuffer) {
+        RequestDto requestDto = context.getParsingResult().getValue().get();
+        if (!isAsync(requestDto)) {
+            throw new IllegalStateException("All visits are streamed by execute in a worker thread");
+        }
+
+        if (requestDto.getParameter("id") == null) {
+            VisitQuery page = GetVisitsProcessor.getPageQuery(requestDto);
+            int limit = page.getLimit();
+            VisitQuery query = new VisitQuery(page.getAfterId(), page.getFrom(), page.getTo(), limit + 1);
+            return failures(repository.getVisits(query), "Visits page").thenAccept(visits ->
+                    RequestAnswer.answer(context, 200, ResponseWriter.APPLICATION_JSON, writePage(visits, limit)));
+        }
+
+        int id = GetVisitsProcessor.getId(requestDto);
+        return failures(repository.getVisitById(id), "Visit with id = " + id).thenAccept(visit -> {
+            if (visit == null) throw ErrorFactory.notFoundError("Visit not found with id: " + id);
+            RequestAnswer.answer(context, 200, ResponseWriter.APPLICATION_JSON, VisitJson.toJson(visit));
+        });
+    }
+
+    /**
+     * @param visits page read with one extra visit, which only tells that there is a next page
+     */
+    private static byte[] writePage(List<Visit> visits, int limit) {
+        VisitJson codec = new VisitJson();
+        codec.append(GetVisitsProcessor.PAGE_START).beginArray();
+        for (int i = 0; i < visits.size() && i < limit; i++) {
+            codec.write(visits.get(i));
+        }
+        codec.endArray();
+        if (visits.size() > limit) {
+            codec.append(GetVisitsProcessor.NEXT_AFTER_ID).appendLong(visits.get(limit - 1).getId());
+        }
+        codec.append(GetVisitsProcessor.PAGE_END);
+        return codec.toByteArray();
+    }
+
+    /**
+     * @return future failing with 500 on database errors, an AppException (503 when the database is overloaded)
+     * is passed as is
+     */
+    private static <T> CompletableFuture<T> failures(CompletableFuture<T> future, String description) {
+        return future.exceptionallyCompose(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof AppException) return CompletableFuture.failedFuture(cause);
+            return CompletableFuture.failedFuture(
+                    ErrorFactory.internalServerError("Internal server error get " + description));
+        });
+    }
+}
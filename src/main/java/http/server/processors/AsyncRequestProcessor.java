@@ -0,0 +1,42 @@
+package http.server.processors;
+
+import http.server.Context;
+import http.server.parser.RequestDto;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Processor that does not block the calling thread: it starts the work and sets the answer of the context
+ * when the returned future completes. The router calls it in the selector thread, without a worker.
+ */
+public interface AsyncRequestProcessor extends RequestProcessor {
+
+    /**
+     * @return future completed after the answer is set, exceptionally if the request failed and the error
+     * has to be answered; errors of the request itself may be thrown at once
+     */
+    CompletableFuture<Void> executeAsync(Context context, ByteBuffer inputByteBuffer);
+
+    /**
+     * @return false if the request is run by {@link #execute} in a worker thread instead
+     */
+    default boolean isAsync(RequestDto requestDto) {
+        return true;
+    }
+
+    /**
+     * Waits for the asynchronous processing, for callers in worker threads
+     */
+    @Override
+    default void execute(Context context, SocketChannel clientChannel, ByteBuffer inputByteBuffer) throws Exception {
+        try {
+            executeAsync(context, inputByteBuffer).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+}
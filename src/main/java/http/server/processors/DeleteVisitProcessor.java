@@ -1,9 +1,9 @@
 package http.server.processors;
 
-import http.server.BuilderSimpleAnswer;
 import http.server.Context;
 import http.server.RequestAnswer;
-import http.server.application.Repository;
+import http.server.ResponseWriter;
+import http.server.application.VisitStore;
 import http.server.error.AppException;
 import http.server.error.ErrorFactory;
 import http.server.parser.RequestDto;
@@ -17,9 +17,9 @@ import java.util.Objects;
 
 public class DeleteVisitProcessor implements RequestProcessor{
     private static final Logger logger = LogManager.getLogger(DeleteVisitProcessor.class);
-    private final Repository repository;
+    private final VisitStore repository;
 
-    public DeleteVisitProcessor(Repository repository) {
+    public DeleteVisitProcessor(VisitStore repository) {
         this.repository = Objects.requireNonNull(repository);
     }
 
@@ -40,7 +40,7 @@ public class DeleteVisitProcessor implements RequestProcessor{
                 logger.info("No deletion visit found with the specified id = {}", id);
                 statusCode = 404;
             }
-            RequestAnswer.answer(context, BuilderSimpleAnswer.header(statusCode, null, "text/html"));
+            RequestAnswer.answer(context, statusCode, ResponseWriter.TEXT_HTML);
 
         } catch (NumberFormatException e) {
             throw ErrorFactory.badRequest(
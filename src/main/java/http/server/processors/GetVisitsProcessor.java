@@ -1,27 +1,47 @@
 package http.server.processors;
 
-import http.server.BuilderSimpleAnswer;
+import http.server.ChunkedAnswer;
 import http.server.Context;
 import http.server.RequestAnswer;
-import http.server.application.Repository;
+import http.server.ResponseWriter;
 import http.server.application.Visit;
+import http.server.application.VisitJson;
+import http.server.application.VisitQuery;
+import http.server.application.VisitStore;
 import http.server.error.AppException;
 import http.server.error.ErrorFactory;
 import http.server.parser.RequestDto;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
-import java.util.List;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 public class GetVisitsProcessor implements RequestProcessor {
     private static final Logger logger = LogManager.getLogger(GetVisitsProcessor.class);
-    private final Repository repository;
+    private static final int DEFAULT_PAGE_LIMIT = 100;
+    private static final int MAX_PAGE_LIMIT = 1000;
+    private static final Set<String> PAGE_PARAMETERS = Set.of("limit", "after_id", "from", "to");
+    /**
+     * Serialized visits are passed to the answer when the codec holds this many bytes
+     */
+    private static final int FLUSH_BYTES = 8 * 1024;
+    static final byte[] PAGE_START = "{\"visits\":".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] NEXT_AFTER_ID = ",\"next_after_id\":".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] PAGE_END = "}".getBytes(StandardCharsets.US_ASCII);
+    private final VisitStore repository;
 
-    public GetVisitsProcessor(Repository repository) {
+    public GetVisitsProcessor(VisitStore repository) {
         this.repository = Objects.requireNonNull(repository);
     }
 
@@ -29,42 +49,168 @@ public class GetVisitsProcessor implements RequestProcessor {
     public void execute(Context context, SocketChannel clientChannel, ByteBuffer inputByteBuffer) throws AppException {
 //        logger.trace("GetVisitsProcessor start");
         RequestDto requestDto = context.getParsingResult().getValue().get();
-        StringBuilder responce = new StringBuilder(BuilderSimpleAnswer.header(200,null,"application/json"));
-
         if (requestDto.getParameter("id") == null
                 && !requestDto.getParametersIterator().hasNext()) //protection against control characters in parameters?? and so on.
         {
-            getAllVizit(responce);
-        } else if (requestDto.getParameter("id") != null) {
-            getOneVizit(requestDto, responce);
-        } else {
-            throw ErrorFactory.badRequest("INCORRECT_REQUEST_PARAMETER");
+            getAllVizit(context);
+            return;
+        }
+
+        if (requestDto.getParameter("id") == null) {
+            getVisitsPage(context, requestDto);
+            return;
         }
 
-        RequestAnswer.answer(context, String.valueOf(responce));
+        RequestAnswer.answer(context, 200, ResponseWriter.APPLICATION_JSON, getOneVizit(requestDto));
     }
 
-    private void getAllVizit(StringBuilder responce) {
-        List<Visit> visits;
+    /**
+     * Answers with the JSON prepared by the repository if it keeps one, otherwise
+     * streams the visits as a chunked JSON array, every row is serialized into the output buffers
+     * as it is read, so the memory of the answer does not depend on the number of visits.
+     * A database error before the first chunk is answered with 500, after it the answer is aborted.
+     */
+    private void getAllVizit(Context context) {
+        ByteBuffer json;
         try {
-            visits = repository.getAllVisits();
+            json = repository.getAllVisitsJson();
         } catch (SQLException e) {
             throw ErrorFactory.internalServerError("Internal server error get all Visits");
         }
-        String json = Repository.getGson().toJson(visits);
-//        logger.trace(json);
-        responce.append(json);
+        if (json != null) {
+            RequestAnswer.answer(context, 200, ResponseWriter.APPLICATION_JSON, json);
+            return;
+        }
+
+        stream(context, "all Visits", (codec, output) -> {
+            codec.beginArray();
+            repository.forEachVisit(visit -> write(codec, visit, output));
+            codec.endArray();
+        });
+    }
+
+    /**
+     * Sends a page of visits filtered by the parameters limit, after_id, from and to (start time in ISO format,
+     * from inclusive, to exclusive) as {"visits": [...], "next_after_id": id}. next_after_id is the after_id
+     * of the next page, it is absent on the last page: the page is read with one extra row to know it.
+     * The page, at most {@value #MAX_PAGE_LIMIT} visits, is serialized into the codec before it is sent,
+     * so the database connection is released before the answer waits for a slow client.
+     */
+    private void getVisitsPage(Context context, RequestDto requestDto) {
+        VisitQuery page = getPageQuery(requestDto);
+        int limit = page.getLimit();
+        int afterId = page.getAfterId();
+
+        stream(context, "Visits page", (codec, output) -> {
+            int[] count = {0};
+            int[] lastId = {afterId};
+            codec.append(PAGE_START).beginArray();
+            repository.forEachVisit(new VisitQuery(afterId, page.getFrom(), page.getTo(), limit + 1), visit -> {
+                if (count[0]++ == limit) return;
+                codec.write(visit);
+                lastId[0] = visit.getId();
+            });
+            codec.endArray();
+            if (count[0] > limit) codec.append(NEXT_AFTER_ID).appendLong(lastId[0]);
+            codec.append(PAGE_END);
+        });
     }
 
-    private void getOneVizit(RequestDto requestDto, StringBuilder responce) {
-        int id;
+    private static void write(VisitJson codec, Visit visit, OutputStream output) throws IOException {
+        codec.write(visit);
+        if (codec.length() >= FLUSH_BYTES) codec.writeTo(output);
+    }
+
+    /**
+     * Sends the JSON written by the body as a chunked answer. An error before the first chunk
+     * is answered with 500 (or the status of an AppException, 503 when the database is overloaded),
+     * after it the answer is aborted.
+     */
+    private void stream(Context context, String description, JsonBody body) {
+        ChunkedAnswer answer = new ChunkedAnswer(context, 200, ResponseWriter.APPLICATION_JSON);
+        context.setRequestAnswer(answer);
         try {
-            id = Integer.parseInt(requestDto.getParameter("id"));
+            OutputStream output = answer.getOutputStream();
+            VisitJson codec = new VisitJson(FLUSH_BYTES + 512);
+            body.write(codec, output);
+            codec.writeTo(output);
+            answer.finish();
+        } catch (SQLException | IOException | AppException e) {
+            boolean started = answer.isStarted();
+            answer.abort();
+            if (!started) {
+                context.setRequestAnswer(null);
+                if (e instanceof AppException appException) throw appException;
+                throw ErrorFactory.internalServerError("Internal server error get " + description);
+            }
+            logger.error("Streaming of {} failed", description, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface JsonBody {
+        /**
+         * @param codec  codec the JSON is written into, the rest of it is sent after the body
+         * @param output stream of the answer the codec is flushed to
+         */
+        void write(VisitJson codec, OutputStream output) throws SQLException, IOException;
+    }
+
+    /**
+     * @return page of the parameters limit, after_id, from and to, with the limit requested by the client
+     */
+    static VisitQuery getPageQuery(RequestDto requestDto) {
+        for (Iterator<Map.Entry<String, String>> iterator = requestDto.getParametersIterator(); iterator.hasNext(); ) {
+            String name = iterator.next().getKey();
+            if (!PAGE_PARAMETERS.contains(name))
+                throw ErrorFactory.badRequest("Unknown parameter: '" + name + "'", "INCORRECT_REQUEST_PARAMETER");
+        }
+        int limit = getIntParameter(requestDto, "limit", DEFAULT_PAGE_LIMIT, 1, MAX_PAGE_LIMIT);
+        int afterId = getIntParameter(requestDto, "after_id", 0, 0, Integer.MAX_VALUE);
+        LocalDateTime from = getDateTimeParameter(requestDto, "from");
+        LocalDateTime to = getDateTimeParameter(requestDto, "to");
+        if (from != null && to != null && !from.isBefore(to))
+            throw ErrorFactory.badRequest("The value of the 'from' parameter must be before 'to'",
+                    "INCORRECT_REQUEST_PARAMETER");
+        return new VisitQuery(afterId, from, to, limit);
+    }
+
+    private static int getIntParameter(RequestDto requestDto, String name, int defaultValue, int min, int max) {
+        String value = requestDto.getParameter(name);
+        if (value == null) return defaultValue;
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= min && result <= max) return result;
+        } catch (NumberFormatException e) {
+            throw ErrorFactory.badRequest(String.format("The value of the '%s' parameter is not a number:'%s'",
+                    name, value), "INCORRECT_REQUEST_PARAMETER");
+        }
+        throw ErrorFactory.badRequest(String.format("The value of the '%s' parameter must be >= %d and <= %d:'%s'",
+                name, min, max, value), "INCORRECT_REQUEST_PARAMETER");
+    }
+
+    private static LocalDateTime getDateTimeParameter(RequestDto requestDto, String name) {
+        String value = requestDto.getParameter(name);
+        if (value == null) return null;
+        try {
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw ErrorFactory.badRequest(String.format("The value of the '%s' parameter is not a date and time" +
+                    " like 2024-01-31T09:00:'%s'", name, value), "INCORRECT_REQUEST_PARAMETER");
+        }
+    }
+
+    static int getId(RequestDto requestDto) {
+        try {
+            return Integer.parseInt(requestDto.getParameter("id"));
         } catch (NumberFormatException e) {
             throw ErrorFactory.badRequest(String.format("The value of the 'id' parameter is not a number:'%s'",
                     requestDto.getParameter("id")), "INCORRECT_REQUEST_PARAMETER");
         }
+    }
 
+    private byte[] getOneVizit(RequestDto requestDto) {
+        int id = getId(requestDto);
         Visit visit;
         try {
             visit = repository.getVisitById(id);
@@ -72,9 +218,7 @@ public class GetVisitsProcessor implements RequestProcessor {
             throw ErrorFactory.internalServerError("Internal server error searching for Visit with id = " + id);
         }
         if (visit == null) throw ErrorFactory.notFoundError("Visit not found with id: " + id);
-        String json = Repository.getGson().toJson(visit);
-//        logger.trace(json);
-        responce.append(json);
+        return VisitJson.toJson(visit);
     }
 }
 
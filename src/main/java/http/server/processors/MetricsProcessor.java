@@ -0,0 +1,23 @@
+package http.server.processors;
+
+import http.server.Context;
+import http.server.RequestAnswer;
+import http.server.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+public class MetricsProcessor implements RequestProcessor {
+    private final Metrics metrics;
+
+    public MetricsProcessor(Metrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    @Override
+    public void execute(Context context, SocketChannel clientChannel, ByteBuffer inputByteBuffer) {
+        RequestAnswer.answer(context, 200, Metrics.CONTENT_TYPE, metrics.scrape().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,10 +1,11 @@
 package http.server.processors;
 
-import http.server.BuilderSimpleAnswer;
 import http.server.Context;
 import http.server.RequestAnswer;
-import http.server.application.Repository;
+import http.server.ResponseWriter;
+import http.server.application.VisitStore;
 import http.server.application.Visit;
+import http.server.application.VisitJson;
 import http.server.error.ErrorFactory;
 import http.server.parser.RequestDto;
 import org.apache.logging.log4j.LogManager;
@@ -12,29 +13,23 @@ import org.apache.logging.log4j.Logger;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 public class PutVisitProcessor implements RequestProcessor {
     private static final Logger logger = LogManager.getLogger(PutVisitProcessor.class);
-    private final Repository repository;
+    private final VisitStore repository;
 
-    public PutVisitProcessor(Repository repository) {
+    public PutVisitProcessor(VisitStore repository) {
         this.repository = Objects.requireNonNull(repository);
     }
 
     @Override
     public void execute(Context context, SocketChannel clientChannel, ByteBuffer inputByteBuffer) throws Exception {
-        logger.trace("PutVisitProcessor start");
         RequestDto requestDto = context.getParsingResult().getValue().get();
-        String contentLengthString = requestDto.getValueFromHeader("Content-Length");
-        int contentLength = (contentLengthString == null) ? -1 : Integer.parseInt(contentLengthString);
-        byte[] bytesBody = new byte[contentLength];
+        byte[] bytesBody = new byte[requestDto.getContentLength()];
 
-        inputByteBuffer.get(bytesBody, 0, inputByteBuffer.remaining());
-        String body = new String(bytesBody, StandardCharsets.UTF_8);
-        logger.trace("body = {}", body);
-        Visit visit = Repository.getGson().fromJson(body, Visit.class);
+        inputByteBuffer.get(bytesBody, 0, Math.min(bytesBody.length, inputByteBuffer.remaining()));
+        Visit visit = VisitJson.fromJson(bytesBody, 0, bytesBody.length);
 
         if (visit.getId() <= 0)
             throw ErrorFactory.badRequest("Passed empty parameter id = '" + visit.getId() + "', for update");
@@ -42,11 +37,10 @@ public class PutVisitProcessor implements RequestProcessor {
         if (!repository.checkExistVisitById(visit.getId()))
             throw ErrorFactory.notFoundError("No visit with id = '" + visit.getId() + "', for update");
 
-        logger.trace("Found visit for update, with passed id = {}",  visit.getId());
-        logger.trace("visit = {}", visit);
+        logger.trace("Updating visit {}", visit);
 
         visit.validatePeriod(repository);
         repository.updateVisit(visit);
-        RequestAnswer.answer(context, BuilderSimpleAnswer.header(204,null, "application/json"));
+        RequestAnswer.answer(context, 204, ResponseWriter.APPLICATION_JSON);
     }
 }
@@ -0,0 +1,30 @@
+package http.server.processors;
+
+import com.google.gson.Gson;
+import http.server.Context;
+import http.server.RequestAnswer;
+import http.server.ResponseWriter;
+import http.server.trace.SlowRequestLog;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+public class SlowRequestsProcessor implements RequestProcessor {
+    /**
+     * Without the settings of the visit Gson, which writes only fields marked with @Expose
+     */
+    private static final Gson GSON = new Gson();
+    private final SlowRequestLog slowRequestLog;
+
+    public SlowRequestsProcessor(SlowRequestLog slowRequestLog) {
+        this.slowRequestLog = Objects.requireNonNull(slowRequestLog);
+    }
+
+    @Override
+    public void execute(Context context, SocketChannel clientChannel, ByteBuffer inputByteBuffer) {
+        String json = GSON.toJson(slowRequestLog.getSlowRequests());
+        RequestAnswer.answer(context, 200, ResponseWriter.APPLICATION_JSON, json.getBytes(StandardCharsets.UTF_8));
+    }
+}
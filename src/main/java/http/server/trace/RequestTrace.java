@@ -0,0 +1,152 @@
+package http.server.trace;
+
+/**
+ * Timestamps (System.nanoTime) of the phases of one request, kept on its context while tracing is enabled.
+ *
+ * <p>The selector thread marks parsing, dispatching and writing, the worker thread marks processing
+ * and adds the time spent in the store and waiting for a database connection. The worker gets the trace
+ * through the executor and gives it back through the queue of completed requests, both publish the fields,
+ * so they need no synchronization.
+ */
+public final class RequestTrace {
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos;
+    private String method;
+    private String uri;
+    private long parsedNanos;
+    private long dispatchedNanos;
+    private long processingNanos;
+    private long processedNanos;
+    private long writeStartNanos;
+    private long writtenNanos;
+    private long storeNanos;
+    private long connectionWaitNanos;
+
+    /**
+     * @param startNanos time the headers of the request were received and parsing started
+     */
+    public RequestTrace(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * @return trace of the request processed by this thread, null if none or tracing is disabled
+     */
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    public static void setCurrent(RequestTrace trace) {
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+    }
+
+    /**
+     * Adds time of a store call made by the request of this thread
+     */
+    public static void addStoreNanos(long nanos) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) trace.storeNanos += nanos;
+    }
+
+    /**
+     * Adds time the request of this thread waited for a connection from the database pool
+     */
+    public static void addConnectionWaitNanos(long nanos) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) trace.connectionWaitNanos += nanos;
+    }
+
+    /**
+     * Keeps the method and URI, an error answer replaces them in the parsing result
+     */
+    public void markParsed(String method, String uri) {
+        parsedNanos = System.nanoTime();
+        this.method = method;
+        this.uri = uri;
+    }
+
+    /**
+     * The request is complete (with body) and passed to the worker pool
+     */
+    public void markDispatched() {
+        dispatchedNanos = System.nanoTime();
+    }
+
+    public void markProcessing() {
+        processingNanos = System.nanoTime();
+    }
+
+    public void markProcessed() {
+        processedNanos = System.nanoTime();
+    }
+
+    /**
+     * The answer became the first in the connection queue and its writing started, only the first call counts
+     */
+    public void markWriteStart() {
+        if (writeStartNanos == 0) writeStartNanos = System.nanoTime();
+    }
+
+    public void markWritten() {
+        writtenNanos = System.nanoTime();
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public long getTotalNanos() {
+        return writtenNanos - startNanos;
+    }
+
+    public long getParseNanos() {
+        return parsedNanos - startNanos;
+    }
+
+    /**
+     * Time from the parsed headers to the received body, and for a request after a write on the same
+     * connection also the wait until that write is processed
+     */
+    public long getBodyNanos() {
+        return dispatchedNanos - parsedNanos;
+    }
+
+    /**
+     * Time the request waited for a worker thread
+     */
+    public long getQueueNanos() {
+        return processingNanos - dispatchedNanos;
+    }
+
+    public long getProcessNanos() {
+        return processedNanos - processingNanos;
+    }
+
+    public long getStoreNanos() {
+        return storeNanos;
+    }
+
+    public long getConnectionWaitNanos() {
+        return connectionWaitNanos;
+    }
+
+    /**
+     * Time the processed answer waited for the answers before it on the connection
+     */
+    public long getWriteWaitNanos() {
+        return Math.max(0, writeStartNanos - processedNanos);
+    }
+
+    public long getWriteNanos() {
+        return writtenNanos - Math.max(writeStartNanos, processedNanos);
+    }
+}
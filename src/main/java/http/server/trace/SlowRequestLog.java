@@ -0,0 +1,78 @@
+package http.server.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring buffer of the last requests that took longer than the threshold, from the parsed headers
+ * to the written answer. When the buffer is full, the oldest request is overwritten.
+ *
+ * <p>With threshold 0 tracing is disabled: requests get no trace and nothing is recorded.
+ */
+public class SlowRequestLog {
+    private final long thresholdNanos;
+    private final AtomicReferenceArray<SlowRequest> requests;
+    private final AtomicLong recorded = new AtomicLong();
+
+    /**
+     * @param thresholdMillis min time of a recorded request, 0 disables tracing
+     * @param capacity        number of the last slow requests kept
+     */
+    public SlowRequestLog(int thresholdMillis, int capacity) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.requests = new AtomicReferenceArray<>(capacity);
+    }
+
+    public boolean isEnabled() {
+        return thresholdNanos > 0;
+    }
+
+    /**
+     * Records the request, whose answer is written, if it was slower than the threshold
+     */
+    public void record(RequestTrace trace) {
+        if (trace.getTotalNanos() < thresholdNanos) return;
+        int index = (int) (recorded.getAndIncrement() % requests.length());
+        requests.set(index, new SlowRequest(System.currentTimeMillis(), trace));
+    }
+
+    /**
+     * @return kept slow requests, the latest first
+     */
+    public List<SlowRequest> getSlowRequests() {
+        long last = recorded.get();
+        int count = (int) Math.min(last, requests.length());
+        List<SlowRequest> result = new ArrayList<>(count);
+        for (long i = last - 1; i >= last - count; i--) {
+            SlowRequest request = requests.get((int) (i % requests.length()));
+            if (request != null) result.add(request);
+        }
+        return result;
+    }
+
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * Slow request with the time of its phases in microseconds
+     */
+    public record SlowRequest(long finishedAtMillis, String method, String uri, long totalMicros, long parseMicros,
+                              long bodyMicros, long queueMicros, long processMicros, long storeMicros,
+                              long connectionWaitMicros, long writeWaitMicros, long writeMicros) {
+
+        SlowRequest(long finishedAtMillis, RequestTrace trace) {
+            this(finishedAtMillis, trace.getMethod(), trace.getUri(), micros(trace.getTotalNanos()),
+                    micros(trace.getParseNanos()), micros(trace.getBodyNanos()), micros(trace.getQueueNanos()), micros(trace.getProcessNanos()),
+                    micros(trace.getStoreNanos()), micros(trace.getConnectionWaitNanos()),
+                    micros(trace.getWriteWaitNanos()), micros(trace.getWriteNanos()));
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+}
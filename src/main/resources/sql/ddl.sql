@@ -10,6 +10,9 @@ create table if not exists db_spec.visit (
     end_time timestamp not null
 );
 
+-- overlap checks and the start time filter of GET /visits, pages by id use the primary key
+create index if not exists visit_period_idx on db_spec.visit (start_time, end_time);
+
 comment on table db_spec.visit is 'Предварительная запись';
 comment on column db_spec.visit.id is 'Уникальный идентификатор строки';
 comment on column db_spec.visit.fio is 'ФИО записавшегося';